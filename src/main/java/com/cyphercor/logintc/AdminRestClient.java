@@ -2,32 +2,108 @@
 package com.cyphercor.logintc;
 
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.lang.ref.WeakReference;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
+import org.apache.http.Consts;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpResponse;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.params.ClientPNames;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.conn.params.ConnRoutePNames;
+import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
 import org.apache.http.util.EntityUtils;
 
+import com.cyphercor.logintc.LoginTC.Endpoint;
+
 /**
  * HTTP REST client for LoginTC Admin.
  */
 class AdminRestClient {
     private static final String CONTENT_TYPE = "application/vnd.logintc.v1+json";
 
+    /**
+     * Default maximum number of pooled connections. All requests go to a single route so the per-route limit matches the total.
+     */
+    private static final int DEFAULT_MAX_CONNECTIONS = 20;
+
+    /**
+     * Default time in milliseconds a pooled connection may sit idle before it is evicted.
+     */
+    private static final long DEFAULT_IDLE_TIMEOUT = 30 * 1000L;
+
+    /**
+     * Default time in milliseconds a connection is kept alive when the server does not send a Keep-Alive header.
+     */
+    private static final long DEFAULT_KEEP_ALIVE = 30 * 1000L;
+
+    /**
+     * Interval in milliseconds between idle connection eviction runs.
+     */
+    private static final long EVICTION_INTERVAL = 5 * 1000L;
+
+    /**
+     * Default connect, socket and connection lease timeouts in milliseconds.
+     */
+    private static final int DEFAULT_CONNECT_TIMEOUT = 10 * 1000;
+    private static final int DEFAULT_SOCKET_TIMEOUT = 30 * 1000;
+    private static final long DEFAULT_CONNECTION_REQUEST_TIMEOUT = 10 * 1000L;
+
+    /**
+     * Default retry policy: up to 3 retries, backing off from 250ms to 5s, giving up 15s after the first attempt.
+     */
+    private static final int DEFAULT_MAX_RETRIES = 3;
+    private static final long DEFAULT_INITIAL_BACKOFF = 250L;
+    private static final long DEFAULT_MAX_BACKOFF = 5 * 1000L;
+    private static final long DEFAULT_MAX_RETRY_TIME = 15 * 1000L;
+
+    /**
+     * Path pattern of session endpoints, which are rate limited separately from admin endpoints.
+     */
+    private static final Pattern SESSIONS_PATH = Pattern.compile("^/api/domains/[^/]+/sessions(/.*)?$");
+
+    /**
+     * Scheduler shared by all clients for background maintenance such as idle connection eviction and aborting requests at their
+     * deadline.
+     */
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory(
+            "LoginTC-scheduler"));
+
     /**
      * Exception thrown out of AdminClient.
      */
@@ -41,6 +117,13 @@ class AdminRestClient {
         public AdminRestClientException(Throwable throwable) {
             super(throwable);
         }
+
+        /**
+         * @return A new exception of the same type and details, with its own stack trace and suppressed exceptions.
+         */
+        AdminRestClientException copy() {
+            return getCause() != null ? new AdminRestClientException(getCause()) : new AdminRestClientException(getMessage());
+        }
     }
 
     /**
@@ -52,6 +135,47 @@ class AdminRestClient {
         public InternalAdminRestClientException(Throwable throwable) {
             super(throwable);
         }
+
+        @Override
+        InternalAdminRestClientException copy() {
+            return new InternalAdminRestClientException(getCause());
+        }
+    }
+
+    /**
+     * Exception thrown without sending the request because the circuit breaker is open.
+     */
+    public static class CircuitOpenAdminRestClientException extends AdminRestClientException {
+        private static final long serialVersionUID = 6217480917468723425L;
+
+        public CircuitOpenAdminRestClientException() {
+            super("Circuit breaker is open");
+        }
+
+        @Override
+        CircuitOpenAdminRestClientException copy() {
+            return new CircuitOpenAdminRestClientException();
+        }
+    }
+
+    /**
+     * Exception thrown when a call does not complete before its deadline.
+     */
+    public static class DeadlineExceededAdminRestClientException extends AdminRestClientException {
+        private static final long serialVersionUID = -4436360364577850217L;
+
+        private final long callTimeout;
+
+        public DeadlineExceededAdminRestClientException(long callTimeout) {
+            super(String.format("Call did not complete within %dms", callTimeout));
+
+            this.callTimeout = callTimeout;
+        }
+
+        @Override
+        DeadlineExceededAdminRestClientException copy() {
+            return new DeadlineExceededAdminRestClientException(callTimeout);
+        }
     }
 
     /**
@@ -63,12 +187,18 @@ class AdminRestClient {
 
         private Integer statusCode = null;
         private String body = null;
+        private String retryAfter = null;
 
         public RestAdminRestClientException(Integer statusCode, String body) {
+            this(statusCode, body, null);
+        }
+
+        public RestAdminRestClientException(Integer statusCode, String body, String retryAfter) {
             super("API returned status code " + statusCode.toString());
 
             this.statusCode = statusCode;
             this.body = body;
+            this.retryAfter = retryAfter;
         }
 
         public Integer getStatusCode() {
@@ -78,6 +208,224 @@ class AdminRestClient {
         public String getBody() {
             return this.body;
         }
+
+        /**
+         * @return The Retry-After header value, or null if absent.
+         */
+        public String getRetryAfter() {
+            return this.retryAfter;
+        }
+
+        @Override
+        RestAdminRestClientException copy() {
+            return new RestAdminRestClientException(statusCode, body, retryAfter);
+        }
+    }
+
+    /**
+     * Decoder of a successful response body, reading it as it arrives instead of buffering it first.
+     */
+    interface ResponseReader<T> {
+        /**
+         * @param reader The response body, decoded with the charset of the response.
+         * @return The decoded value.
+         * @throws IOException If the body cannot be read or decoded.
+         */
+        T read(Reader reader) throws IOException;
+    }
+
+    /**
+     * A response body and its entity tag.
+     */
+    public static class TaggedResponse<T> {
+        private final T body;
+        private final String etag;
+
+        public TaggedResponse(T body, String etag) {
+            this.body = body;
+            this.etag = etag;
+        }
+
+        public T getBody() {
+            return this.body;
+        }
+
+        /**
+         * @return The ETag header value, or null if the server sent none.
+         */
+        public String getETag() {
+            return this.etag;
+        }
+    }
+
+    /**
+     * Reader of a successful response.
+     */
+    private interface EntityReader<T> {
+        T read(HttpResponse response) throws IOException;
+    }
+
+    private static final EntityReader<byte[]> BYTES = new EntityReader<byte[]>() {
+        @Override
+        public byte[] read(HttpResponse response) throws IOException {
+            return EntityUtils.toByteArray(response.getEntity());
+        }
+    };
+
+    /**
+     * Decodes the body with the charset of the response, UTF-8 by default, as it streams in.
+     */
+    private static final EntityReader<String> STRING = new EntityReader<String>() {
+        @Override
+        public String read(HttpResponse response) throws IOException {
+            return decode(response.getEntity());
+        }
+    };
+
+    private static final EntityReader<TaggedResponse<byte[]>> TAGGED_BYTES = tagged(BYTES);
+
+    private static final EntityReader<TaggedResponse<String>> TAGGED_STRING = tagged(STRING);
+
+    private static final int DECODE_BUFFER_SIZE = 8192;
+
+    private static final int TRANSFER_CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * Largest body whose declared length is used to presize the decoded string, to not trust a bogus Content-Length with the heap.
+     */
+    private static final int MAX_PRESIZE = 1024 * 1024;
+
+    private static final ThreadLocal<char[]> DECODE_BUFFERS = new ThreadLocal<char[]>() {
+        @Override
+        protected char[] initialValue() {
+            return new char[DECODE_BUFFER_SIZE];
+        }
+    };
+
+    /**
+     * @return Reader of the body and entity tag of a conditional request, or null if the resource was not modified.
+     */
+    private static <T> EntityReader<TaggedResponse<T>> tagged(final EntityReader<T> bodyReader) {
+        return new EntityReader<TaggedResponse<T>>() {
+            @Override
+            public TaggedResponse<T> read(HttpResponse response) throws IOException {
+                if (response.getStatusLine().getStatusCode() == 304) {
+                    return null;
+                }
+
+                Header etag = response.getFirstHeader("ETag");
+                return new TaggedResponse<T>(bodyReader.read(response), etag != null ? etag.getValue() : null);
+            }
+        };
+    }
+
+    /**
+     * @return The charset of the entity, or UTF-8 if it declares none.
+     */
+    private static Charset getCharset(HttpEntity entity) {
+        Charset charset = ContentType.getOrDefault(entity).getCharset();
+        return charset != null ? charset : Consts.UTF_8;
+    }
+
+    /**
+     * Decode an entity straight from its stream through a buffer reused by the thread, without first copying the body into a byte array.
+     * 
+     * @return The decoded body, empty if there is none.
+     */
+    private static String decode(HttpEntity entity) throws IOException {
+        if (entity == null) {
+            return "";
+        }
+
+        long length = entity.getContentLength();
+        StringBuilder body = new StringBuilder(length >= 0 && length <= MAX_PRESIZE ? (int) length : DECODE_BUFFER_SIZE);
+        Reader reader = new InputStreamReader(entity.getContent(), getCharset(entity));
+        char[] buffer = DECODE_BUFFERS.get();
+
+        try {
+            for (int count; (count = reader.read(buffer)) != -1;) {
+                body.append(buffer, 0, count);
+            }
+        } finally {
+            reader.close();
+        }
+
+        return body.toString();
+    }
+
+    /**
+     * Connection pool, policies and background tasks shared by a client and the per-call views created by {@link #withCallTimeout(long)}.
+     */
+    private static class Transport {
+        private PoolingClientConnectionManager connectionManager = null;
+        private DefaultHttpClient httpClient = null;
+        private ScheduledFuture<?> evictionTask = null;
+
+        private volatile long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+        private volatile long keepAlive = DEFAULT_KEEP_ALIVE;
+
+        private volatile int maxRetries = DEFAULT_MAX_RETRIES;
+        private volatile long initialBackoff = DEFAULT_INITIAL_BACKOFF;
+        private volatile long maxBackoff = DEFAULT_MAX_BACKOFF;
+        private volatile long maxRetryTime = DEFAULT_MAX_RETRY_TIME;
+
+        private final Map<Endpoint, RateLimiter> rateLimiters = new ConcurrentHashMap<Endpoint, RateLimiter>();
+        private volatile CircuitBreaker circuitBreaker = null;
+        private volatile SingleFlight<Object> singleFlight = null;
+
+        Transport() {
+            connectionManager = new PoolingClientConnectionManager();
+            connectionManager.setMaxTotal(DEFAULT_MAX_CONNECTIONS);
+            connectionManager.setDefaultMaxPerRoute(DEFAULT_MAX_CONNECTIONS);
+
+            httpClient = new DefaultHttpClient(connectionManager);
+            httpClient.setKeepAliveStrategy(new DefaultConnectionKeepAliveStrategy() {
+                @Override
+                public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                    long duration = super.getKeepAliveDuration(response, context);
+                    return (duration > 0 && duration < keepAlive) ? duration : keepAlive;
+                }
+            });
+
+            HttpParams params = httpClient.getParams();
+            HttpConnectionParams.setConnectionTimeout(params, DEFAULT_CONNECT_TIMEOUT);
+            HttpConnectionParams.setSoTimeout(params, DEFAULT_SOCKET_TIMEOUT);
+            params.setLongParameter(ClientPNames.CONN_MANAGER_TIMEOUT, DEFAULT_CONNECTION_REQUEST_TIMEOUT);
+
+            evictionTask = EvictionTask.schedule(this);
+        }
+    }
+
+    /**
+     * Idle connection eviction of a transport. The shared scheduler only holds the transport weakly, so a client that is never shut down
+     * can still be collected; the task then cancels itself and the connection manager closes its connections when it is finalized.
+     */
+    private static class EvictionTask implements Runnable {
+        private final WeakReference<Transport> transport;
+        private volatile ScheduledFuture<?> future = null;
+
+        private EvictionTask(Transport transport) {
+            this.transport = new WeakReference<Transport>(transport);
+        }
+
+        static ScheduledFuture<?> schedule(Transport transport) {
+            EvictionTask task = new EvictionTask(transport);
+            task.future = SCHEDULER.scheduleWithFixedDelay(task, EVICTION_INTERVAL, EVICTION_INTERVAL, TimeUnit.MILLISECONDS);
+            return task.future;
+        }
+
+        @Override
+        public void run() {
+            Transport transport = this.transport.get();
+
+            if (transport == null) {
+                future.cancel(false);
+                return;
+            }
+
+            transport.connectionManager.closeExpiredConnections();
+            transport.connectionManager.closeIdleConnections(transport.idleTimeout, TimeUnit.MILLISECONDS);
+        }
     }
 
     private String scheme = null;
@@ -86,7 +434,8 @@ class AdminRestClient {
     private String apiKey = null;
     private String userAgent = null;
 
-    private DefaultHttpClient httpClient = null;
+    private Transport transport = null;
+    private long callTimeout = 0;
 
     public AdminRestClient(String scheme, String host, Integer port, String apiKey, String userAgent) {
         this.scheme = scheme;
@@ -95,21 +444,138 @@ class AdminRestClient {
         this.apiKey = apiKey;
         this.userAgent = userAgent;
 
-        httpClient = new DefaultHttpClient();
+        this.transport = new Transport();
+    }
+
+    private AdminRestClient(AdminRestClient client, long callTimeout) {
+        this.scheme = client.scheme;
+        this.host = client.host;
+        this.port = client.port;
+        this.apiKey = client.apiKey;
+        this.userAgent = client.userAgent;
+
+        this.transport = client.transport;
+        this.callTimeout = callTimeout;
+    }
+
+    /**
+     * @param callTimeout Time in milliseconds after which a call fails, including rate limiting, retries and backoff. 0 for no limit.
+     * @return A client sharing this client's connections and policies whose calls are bounded by the timeout.
+     */
+    public AdminRestClient withCallTimeout(long callTimeout) {
+        return new AdminRestClient(this, callTimeout);
+    }
+
+    /**
+     * @param maxTotal The maximum number of pooled connections.
+     * @param maxPerRoute The maximum number of pooled connections to a single route.
+     */
+    public void setMaxConnections(int maxTotal, int maxPerRoute) {
+        transport.connectionManager.setMaxTotal(maxTotal);
+        transport.connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+    }
+
+    /**
+     * @param idleTimeout Time in milliseconds after which idle pooled connections are closed.
+     */
+    public void setConnectionIdleTimeout(long idleTimeout) {
+        transport.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * @param keepAlive Maximum time in milliseconds a connection is kept alive for reuse.
+     */
+    public void setConnectionKeepAlive(long keepAlive) {
+        transport.keepAlive = keepAlive;
+    }
+
+    /**
+     * @param connectTimeout Time in milliseconds to establish a connection, 0 for no limit.
+     * @param socketTimeout Maximum time in milliseconds between two packets of a response, 0 for no limit.
+     * @param connectionRequestTimeout Time in milliseconds to lease a connection from the pool, 0 for no limit.
+     */
+    public void setTimeouts(int connectTimeout, int socketTimeout, long connectionRequestTimeout) {
+        HttpParams params = transport.httpClient.getParams();
+        HttpConnectionParams.setConnectionTimeout(params, connectTimeout);
+        HttpConnectionParams.setSoTimeout(params, socketTimeout);
+        params.setLongParameter(ClientPNames.CONN_MANAGER_TIMEOUT, connectionRequestTimeout);
+    }
+
+    /**
+     * @param endpoint The class of endpoints to limit.
+     * @param permitsPerSecond The sustained number of requests per second, or 0 to disable limiting.
+     * @param burst The number of requests that may be sent back to back.
+     */
+    public void setRateLimit(Endpoint endpoint, double permitsPerSecond, int burst) {
+        if (permitsPerSecond <= 0) {
+            transport.rateLimiters.remove(endpoint);
+        } else {
+            transport.rateLimiters.put(endpoint, new RateLimiter(permitsPerSecond, burst));
+        }
+    }
+
+    /**
+     * @param maxRetries Maximum number of retries of a throttled or unavailable request, 0 to disable retries.
+     * @param initialBackoff Delay in milliseconds before the first retry when the server sends no Retry-After.
+     * @param maxBackoff Maximum delay in milliseconds between two retries when the server sends no Retry-After.
+     * @param maxRetryTime Time in milliseconds after the first attempt past which no retry is started.
+     */
+    public void setRetryPolicy(int maxRetries, long initialBackoff, long maxBackoff, long maxRetryTime) {
+        transport.maxRetries = maxRetries;
+        transport.initialBackoff = initialBackoff;
+        transport.maxBackoff = maxBackoff;
+        transport.maxRetryTime = maxRetryTime;
+    }
+
+    /**
+     * @param circuitBreaker The circuit breaker guarding requests, or null to disable.
+     */
+    public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        transport.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * @return The circuit breaker guarding requests, or null if disabled.
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return transport.circuitBreaker;
+    }
+
+    /**
+     * @param enabled True to let identical concurrent GET requests share a single request.
+     */
+    public void setRequestCoalescing(boolean enabled) {
+        transport.singleFlight = enabled ? new SingleFlight<Object>() : null;
+    }
+
+    /**
+     * @return The number of GET requests that shared another request's response since coalescing was enabled.
+     */
+    long getCoalescedCount() {
+        SingleFlight<Object> singleFlight = transport.singleFlight;
+        return singleFlight != null ? singleFlight.getCoalescedCount() : 0;
+    }
+
+    /**
+     * Stop background maintenance and close all pooled connections.
+     */
+    public void shutdown() {
+        transport.evictionTask.cancel(false);
+        transport.connectionManager.shutdown();
     }
 
     public void setProxy(String proxyHost, int proxyPort) {
         HttpHost proxy = new HttpHost(proxyHost, proxyPort, "http");
-        httpClient.getParams().setParameter(ConnRoutePNames.DEFAULT_PROXY, proxy);
+        transport.httpClient.getParams().setParameter(ConnRoutePNames.DEFAULT_PROXY, proxy);
     }
 
     public void setProxy(String proxyHost, int proxyPort, String proxyUser, String proxyPassword) {
-        CredentialsProvider credsProvider = httpClient.getCredentialsProvider();
+        CredentialsProvider credsProvider = transport.httpClient.getCredentialsProvider();
         credsProvider.setCredentials(new AuthScope(proxyHost, proxyPort), new UsernamePasswordCredentials(proxyUser, proxyPassword));
-        httpClient.setCredentialsProvider(credsProvider);
+        transport.httpClient.setCredentialsProvider(credsProvider);
 
         HttpHost proxy = new HttpHost(proxyHost, proxyPort, "http");
-        httpClient.getParams().setParameter(ConnRoutePNames.DEFAULT_PROXY, proxy);
+        transport.httpClient.getParams().setParameter(ConnRoutePNames.DEFAULT_PROXY, proxy);
     }
     
     public String get(String path) throws AdminRestClientException {
@@ -120,46 +586,176 @@ class AdminRestClient {
         HttpGet request = new HttpGet(genUri(path, query));
 
         request.setHeader("Accept", CONTENT_TYPE);
-        return new String(execute(request));
+        return executeGet(request, STRING);
+    }
+
+    /**
+     * Get a resource and decode the response body as it streams in.
+     * 
+     * @param path The resource path.
+     * @param query The query string, or null.
+     * @param responseReader Decoder of the response body.
+     * @return The decoded response.
+     * @throws AdminRestClientException If the call fails or the response cannot be decoded.
+     */
+    public <T> T get(String path, String query, final ResponseReader<T> responseReader) throws AdminRestClientException {
+        HttpGet request = new HttpGet(genUri(path, query));
+
+        request.setHeader("Accept", CONTENT_TYPE);
+        return execute(request, new EntityReader<T>() {
+            @Override
+            public T read(HttpResponse response) throws IOException {
+                HttpEntity entity = response.getEntity();
+                Reader reader = new InputStreamReader(entity.getContent(), getCharset(entity));
+
+                try {
+                    return responseReader.read(reader);
+                } finally {
+                    reader.close();
+                }
+            }
+        });
     }
 
     public byte[] getBytes(String path, String acceptHeader) throws AdminRestClientException {
         HttpGet request = new HttpGet(genUri(path));
 
         request.setHeader("Accept", acceptHeader);
-        return execute(request);
+
+        byte[] responseBodyBytes = executeGet(request, BYTES);
+        return transport.singleFlight != null ? responseBodyBytes.clone() : responseBodyBytes;
+    }
+
+    /**
+     * Get a resource and copy the response body to a stream in chunks as it arrives, without holding the body in memory. If the call
+     * fails part way, part of the body may already have been written.
+     * 
+     * @param path The resource path.
+     * @param acceptHeader The accepted content type.
+     * @param out The stream the body is written to. It is not closed.
+     * @return The number of bytes written.
+     * @throws AdminRestClientException If the call fails or the stream cannot be written.
+     */
+    public long getBytes(String path, String acceptHeader, final OutputStream out) throws AdminRestClientException {
+        HttpGet request = new HttpGet(genUri(path));
+
+        request.setHeader("Accept", acceptHeader);
+        return execute(request, new EntityReader<Long>() {
+            @Override
+            public Long read(HttpResponse response) throws IOException {
+                HttpEntity entity = response.getEntity();
+                InputStream in = entity.getContent();
+                byte[] buffer = new byte[TRANSFER_CHUNK_SIZE];
+                long total = 0;
+
+                try {
+                    for (int count; (count = in.read(buffer)) != -1;) {
+                        out.write(buffer, 0, count);
+                        total += count;
+                    }
+                } finally {
+                    in.close();
+                }
+
+                FileTransfer.checkLength(entity.getContentLength(), total);
+                return total;
+            }
+        });
+    }
+
+    /**
+     * Get a resource and transfer the response body to a file through a {@link FileChannel}, in chunks as it arrives. The body is
+     * written to a temporary file in the same directory which then replaces the file, so the file is never left partially written.
+     * 
+     * @param path The resource path.
+     * @param acceptHeader The accepted content type.
+     * @param file The file the body is written to.
+     * @return The number of bytes written.
+     * @throws AdminRestClientException If the call fails or the file cannot be written.
+     */
+    public long getBytes(String path, String acceptHeader, final Path file) throws AdminRestClientException {
+        HttpGet request = new HttpGet(genUri(path));
+
+        request.setHeader("Accept", acceptHeader);
+        return execute(request, new EntityReader<Long>() {
+            @Override
+            public Long read(HttpResponse response) throws IOException {
+                HttpEntity entity = response.getEntity();
+                return FileTransfer.transfer(entity.getContent(), entity.getContentLength(), file);
+            }
+        });
+    }
+
+    /**
+     * Get a resource unless it still matches a previously fetched version.
+     * 
+     * @param path The resource path.
+     * @param acceptHeader The accepted content type.
+     * @param etag The entity tag of the version held, or null to fetch unconditionally.
+     * @return The resource and its entity tag, or null if the resource was not modified.
+     * @throws AdminRestClientException If the call fails.
+     */
+    public TaggedResponse<byte[]> getBytesIfNoneMatch(String path, String acceptHeader, String etag) throws AdminRestClientException {
+        HttpGet request = new HttpGet(genUri(path));
+
+        request.setHeader("Accept", acceptHeader);
+
+        if (etag != null) {
+            request.setHeader("If-None-Match", etag);
+        }
+
+        return execute(request, TAGGED_BYTES);
+    }
+
+    /**
+     * @see #getBytesIfNoneMatch(String, String, String)
+     */
+    public TaggedResponse<String> getIfNoneMatch(String path, String etag) throws AdminRestClientException {
+        HttpGet request = new HttpGet(genUri(path));
+
+        request.setHeader("Accept", CONTENT_TYPE);
+
+        if (etag != null) {
+            request.setHeader("If-None-Match", etag);
+        }
+
+        return execute(request, TAGGED_STRING);
     }
 
     public String post(String path, String body) throws AdminRestClientException {
+        return post(path, body != null ? new StringEntity(body, Consts.UTF_8) : null);
+    }
+
+    /**
+     * Post a request body that is already encoded, such as one written straight to UTF-8 bytes.
+     * 
+     * @param path The resource path.
+     * @param entity The JSON request body, or null for none. It is sent again if the request is retried, so it must be repeatable.
+     * @return The response body.
+     * @throws AdminRestClientException If the call fails.
+     */
+    public String post(String path, HttpEntity entity) throws AdminRestClientException {
         HttpPost request = new HttpPost(genUri(path));
         request.setHeader("Accept", CONTENT_TYPE);
 
-        try {
-            if (body != null) {
-                request.setEntity(new StringEntity(body));
-                request.setHeader("Content-Type", CONTENT_TYPE);
-            }
-        } catch (UnsupportedEncodingException e) {
-            throw new InternalAdminRestClientException(e);
+        if (entity != null) {
+            request.setEntity(entity);
+            request.setHeader("Content-Type", CONTENT_TYPE);
         }
 
-        return new String(execute(request));
+        return execute(request, STRING);
     }
 
     public String put(String path, String body) throws AdminRestClientException {
         HttpPut request = new HttpPut(genUri(path));
         request.setHeader("Accept", CONTENT_TYPE);
 
-        try {
-            if (body != null) {
-                request.setEntity(new StringEntity(body));
-                request.setHeader("Content-Type", CONTENT_TYPE);
-            }
-        } catch (UnsupportedEncodingException e) {
-            throw new InternalAdminRestClientException(e);
+        if (body != null) {
+            request.setEntity(new StringEntity(body, Consts.UTF_8));
+            request.setHeader("Content-Type", CONTENT_TYPE);
         }
 
-        return new String(execute(request));
+        return execute(request, STRING);
     }
 
     public String delete(String path) throws AdminRestClientException {
@@ -167,40 +763,210 @@ class AdminRestClient {
         request.setHeader("Accept", CONTENT_TYPE);
         request.setHeader("Content-Length", "0");
 
-        return new String(execute(request));
+        return execute(request, STRING);
     }
 
-    private byte[] execute(HttpRequestBase request) throws AdminRestClientException {
-        byte[] responseBodyBytes = null;
-        Integer statusCode = 0;
+    /**
+     * Execute a GET request, sharing the response with identical requests in flight if coalescing is enabled. Requests are identical if
+     * they have the same URI and Accept header, and are decoded the same way. Calls with a call timeout are not shared: a joiner would
+     * otherwise inherit the deadline of the call that started the request. The response may be shared and must not be modified.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T executeGet(final HttpGet request, final EntityReader<T> entityReader) throws AdminRestClientException {
+        SingleFlight<Object> singleFlight = transport.singleFlight;
+
+        if (singleFlight == null || callTimeout > 0) {
+            return execute(request, entityReader);
+        }
+
+        String kind = entityReader == STRING ? "string" : "bytes";
+        String key = String.format("%s %s %s", kind, request.getFirstHeader("Accept").getValue(), request.getURI());
+
+        return (T) singleFlight.execute(key, new SingleFlight.Call<Object>() {
+            @Override
+            public Object call() throws AdminRestClientException {
+                return execute(request, entityReader);
+            }
+        });
+    }
 
+    private <T> T execute(HttpRequestBase request, EntityReader<T> entityReader) throws AdminRestClientException {
         request.setHeader("Host", genHostHeaderValue());
         request.setHeader("User-Agent", this.userAgent);
         request.setHeader("Authorization", String.format("LoginTC key=\"%s\"", apiKey));
 
+        RateLimiter rateLimiter = transport.rateLimiters.get(getEndpoint(request));
+        CircuitBreaker circuitBreaker = transport.circuitBreaker;
+
+        long start = System.nanoTime();
+        long deadline = callTimeout > 0 ? start + TimeUnit.MILLISECONDS.toNanos(callTimeout) : Long.MAX_VALUE;
+        long retryDeadline = Math.min(deadline, start + TimeUnit.MILLISECONDS.toNanos(transport.maxRetryTime));
+
+        for (int attempt = 0;; attempt++) {
+            try {
+                if (rateLimiter != null) {
+                    if (deadline == Long.MAX_VALUE) {
+                        rateLimiter.acquire();
+                    } else if (!rateLimiter.acquire(deadline)) {
+                        throw new DeadlineExceededAdminRestClientException(callTimeout);
+                    }
+                }
+
+                if (isExpired(deadline)) {
+                    throw new DeadlineExceededAdminRestClientException(callTimeout);
+                }
+
+                return send(request, entityReader, circuitBreaker, deadline);
+            } catch (RestAdminRestClientException e) {
+                long delay = getRetryDelay(request, e, attempt, retryDeadline, circuitBreaker);
+
+                if (delay < 0) {
+                    throw e;
+                }
+
+                try {
+                    TimeUnit.MILLISECONDS.sleep(delay);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new InternalAdminRestClientException(ie);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InternalAdminRestClientException(e);
+            }
+        }
+    }
+
+    /**
+     * Send a request through the circuit breaker. Transport errors and 5xx responses count as failures; any other response shows the
+     * service is reachable. A call cut short by its own deadline says nothing about the service and counts as neither.
+     */
+    private <T> T send(HttpRequestBase request, EntityReader<T> entityReader, CircuitBreaker circuitBreaker, long deadline)
+            throws AdminRestClientException {
+        if (circuitBreaker == null) {
+            return send(request, entityReader, deadline);
+        }
+
+        if (!circuitBreaker.allowRequest()) {
+            throw new CircuitOpenAdminRestClientException();
+        }
+
+        boolean healthy = false;
+        boolean expired = false;
+
+        try {
+            T response = send(request, entityReader, deadline);
+            healthy = true;
+            return response;
+        } catch (RestAdminRestClientException e) {
+            healthy = e.getStatusCode() < 500;
+            throw e;
+        } catch (DeadlineExceededAdminRestClientException e) {
+            expired = true;
+            throw e;
+        } finally {
+            if (expired) {
+                circuitBreaker.recordIgnored();
+            } else if (healthy) {
+                circuitBreaker.recordSuccess();
+            } else {
+                circuitBreaker.recordFailure();
+            }
+        }
+    }
+
+    /**
+     * Send a request once. When the call has a deadline, connection, lease and socket timeouts are shortened to the time left and the
+     * request is aborted if it is still running at the deadline. Error responses are buffered; successful responses are handed to the
+     * entity reader as they stream in.
+     */
+    private <T> T send(final HttpRequestBase request, EntityReader<T> entityReader, long deadline) throws AdminRestClientException {
+        Integer statusCode = 0;
+
         HttpResponse response = null;
+        ScheduledFuture<?> abortTask = null;
+
+        if (deadline != Long.MAX_VALUE) {
+            // Rounded up, so the abort and the capped timeouts never fire before the deadline
+            long remaining = Math.max(1, ceilMillis(deadline - System.nanoTime()));
+            HttpParams params = request.getParams();
+            HttpParams defaults = transport.httpClient.getParams();
+            int timeout = (int) Math.min(Integer.MAX_VALUE, remaining);
+            HttpConnectionParams.setConnectionTimeout(params, capTimeout(HttpConnectionParams.getConnectionTimeout(defaults), timeout));
+            HttpConnectionParams.setSoTimeout(params, capTimeout(HttpConnectionParams.getSoTimeout(defaults), timeout));
+            // The pool times leases against the wall clock, truncated to the millisecond
+            int leaseTimeout = (int) Math.min(Integer.MAX_VALUE, remaining + 1);
+            params.setLongParameter(ClientPNames.CONN_MANAGER_TIMEOUT,
+                    capTimeout(defaults.getLongParameter(ClientPNames.CONN_MANAGER_TIMEOUT, 0), leaseTimeout));
+
+            abortTask = SCHEDULER.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    request.abort();
+                }
+            }, remaining, TimeUnit.MILLISECONDS);
+        }
 
         try {
-            response = httpClient.execute(request);
-        } catch (ClientProtocolException e) {
-            throw new InternalAdminRestClientException(e);
-        } catch (IOException e) {
-            throw new InternalAdminRestClientException(e);
+            try {
+                response = transport.httpClient.execute(request);
+            } catch (ClientProtocolException e) {
+                throw new InternalAdminRestClientException(e);
+            } catch (IOException e) {
+                throw isExpired(deadline) ? new DeadlineExceededAdminRestClientException(callTimeout)
+                        : new InternalAdminRestClientException(e);
+            }
+
+            statusCode = response.getStatusLine().getStatusCode();
+
+            if (isSuccess(statusCode) || (statusCode == 304 && request.containsHeader("If-None-Match"))) {
+                return read(request, response, entityReader, deadline);
+            }
+
+            String responseBodyString = read(request, response, STRING, deadline);
+            Header retryAfter = response.getFirstHeader("Retry-After");
+            throw new RestAdminRestClientException(statusCode, responseBodyString, retryAfter != null ? retryAfter.getValue() : null);
+        } finally {
+            if (abortTask != null) {
+                abortTask.cancel(false);
+            }
         }
+    }
 
-        statusCode = response.getStatusLine().getStatusCode();
+    /**
+     * Read a response entity. If reading fails part way the request is aborted so that the connection is discarded rather than
+     * drained.
+     */
+    private <T> T read(HttpRequestBase request, HttpResponse response, EntityReader<T> entityReader, long deadline)
+            throws AdminRestClientException {
+        boolean complete = false;
 
         try {
-            responseBodyBytes = EntityUtils.toByteArray(response.getEntity());
+            T body = entityReader.read(response);
+            EntityUtils.consume(response.getEntity());
+            complete = true;
+            return body;
         } catch (IOException e) {
+            throw isExpired(deadline) ? new DeadlineExceededAdminRestClientException(callTimeout)
+                    : new InternalAdminRestClientException(e);
+        } catch (RuntimeException e) {
             throw new InternalAdminRestClientException(e);
+        } finally {
+            if (!complete) {
+                request.abort();
+            }
         }
+    }
 
+    /**
+     * @return True if the status code is a success; any other status is raised as a {@link RestAdminRestClientException}.
+     */
+    private static boolean isSuccess(int statusCode) {
         switch (statusCode) {
             case 200: // OK
             case 201: // Created
             case 202: // Accepted
-                break;
+                return true;
             case 400: // Bad Request
             case 401: // Unauthorized
             case 403: // Forbidden
@@ -215,11 +981,96 @@ class AdminRestClient {
             case 503: // Service Unavailable
             case 504: // Gateway Timeout
             default:
-                String responseBodyString = new String(responseBodyBytes);
-                throw new RestAdminRestClientException(statusCode, responseBodyString);
+                return false;
         }
+    }
+
+    /**
+     * Decide whether a failed request is retried. Throttled (429) and unavailable (503) responses were not processed and are always
+     * retried. Bad gateway (502) and gateway timeout (504) responses may have been processed, so they are only retried for idempotent
+     * methods; a retried session POST could otherwise push a second request to the user. Circuit breaker probes are never retried.
+     * 
+     * @return The delay in milliseconds before retrying, or -1 to give up.
+     */
+    private long getRetryDelay(HttpRequestBase request, RestAdminRestClientException e, int attempt, long retryDeadline,
+            CircuitBreaker circuitBreaker) {
+        if (attempt >= transport.maxRetries || (circuitBreaker != null && circuitBreaker.isProbeThread())) {
+            return -1;
+        }
+
+        switch (e.getStatusCode()) {
+            case 429: // Too Many Requests
+            case 503: // Service Unavailable
+                break;
+            case 502: // Bad Gateway
+            case 504: // Gateway Timeout
+                if (request.getMethod().equals("POST")) {
+                    return -1;
+                }
+                break;
+            default:
+                return -1;
+        }
+
+        long delay = parseRetryAfter(e.getRetryAfter());
+
+        if (delay < 0) {
+            double backoff = Math.min(transport.maxBackoff, transport.initialBackoff * Math.pow(2, attempt));
+            delay = (long) (backoff / 2 + backoff / 2 * ThreadLocalRandom.current().nextDouble());
+        }
+
+        if (System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay) > retryDeadline) {
+            return -1;
+        }
+
+        return delay;
+    }
+
+    /**
+     * @param retryAfter Retry-After header value, either delay-seconds or an HTTP-date.
+     * @return The delay in milliseconds, or -1 if absent or invalid.
+     */
+    private static long parseRetryAfter(String retryAfter) {
+        if (retryAfter == null) {
+            return -1;
+        }
+
+        try {
+            return Math.max(0, TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim())));
+        } catch (NumberFormatException e) {
+            try {
+                return Math.max(0, DateUtils.parseDate(retryAfter).getTime() - System.currentTimeMillis());
+            } catch (DateParseException de) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * @param deadline A {@link System#nanoTime()} deadline, or Long.MAX_VALUE for none.
+     * @return True if the deadline has passed.
+     */
+    private static boolean isExpired(long deadline) {
+        return deadline != Long.MAX_VALUE && deadline - System.nanoTime() <= 0;
+    }
+
+    /**
+     * @return The nanoseconds in milliseconds, rounded up.
+     */
+    private static long ceilMillis(long nanos) {
+        long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        return TimeUnit.MILLISECONDS.toNanos(millis) < nanos ? millis + 1 : millis;
+    }
+
+    /**
+     * @return The configured timeout capped at the time left, where 0 means no limit.
+     */
+    private static int capTimeout(long configured, int remaining) {
+        return (int) (configured > 0 ? Math.min(configured, remaining) : remaining);
+    }
 
-        return responseBodyBytes;
+    private static Endpoint getEndpoint(HttpRequestBase request) {
+        return SESSIONS_PATH.matcher(request.getURI().getPath()).matches() ? Endpoint.SESSIONS : Endpoint.ADMIN;
     }
 
     private String genHostHeaderValue() {
@@ -0,0 +1,103 @@
+package com.cyphercor.logintc;
+
+import java.io.Closeable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs tasks on a fixed number of threads for a bulk operation. At most a bounded number of tasks are pending at any time; submitting
+ * more blocks the producer until a task completes, so a large input is never queued in memory as a whole.
+ * <p>
+ * Tasks are expected to record their own failures. A runtime exception thrown by a task does not stop the others; the first one is
+ * rethrown by {@link #awaitCompletion()} once all tasks are done.
+ * <p>
+ * The executor must be closed, normally in a finally block, so that its threads are released even if the producer fails.
+ */
+class BoundedExecutor implements Closeable {
+    private final ExecutorService executor;
+    private final Semaphore pending;
+    private RuntimeException failure = null;
+
+    /**
+     * @param name The thread name prefix.
+     * @param parallelism The number of tasks run concurrently.
+     * @param maxQueued The number of tasks waiting for a thread before {@link #submit(Runnable)} blocks.
+     */
+    public BoundedExecutor(String name, int parallelism, int maxQueued) {
+        if (parallelism < 1 || maxQueued < 0) {
+            throw new IllegalArgumentException("parallelism must be at least 1 and maxQueued not negative");
+        }
+
+        this.executor = Executors.newFixedThreadPool(parallelism, new DaemonThreadFactory(name));
+        this.pending = new Semaphore(parallelism + maxQueued);
+    }
+
+    /**
+     * @param task The task, run on one of the executor's threads.
+     * @throws InterruptedException If interrupted while waiting for room. Pending tasks are cancelled.
+     */
+    public void submit(final Runnable task) throws InterruptedException {
+        try {
+            pending.acquire();
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            throw e;
+        }
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    recordFailure(e);
+                } finally {
+                    pending.release();
+                }
+            }
+        });
+    }
+
+    /**
+     * Wait for all submitted tasks and release the threads. No tasks can be submitted afterwards.
+     *
+     * @throws InterruptedException If interrupted while waiting. Pending tasks are cancelled.
+     * @throws RuntimeException The first runtime exception thrown by a task, if any.
+     */
+    public void awaitCompletion() throws InterruptedException {
+        executor.shutdown();
+
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                // Keep waiting; tasks are bounded by the client's call deadlines
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            throw e;
+        }
+
+        synchronized (this) {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * Cancel the tasks not yet started and interrupt the running ones. Does nothing once {@link #awaitCompletion()} has returned.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private synchronized void recordFailure(RuntimeException e) {
+        if (failure == null) {
+            failure = e;
+        } else if (failure != e) {
+            failure.addSuppressed(e);
+        }
+    }
+}
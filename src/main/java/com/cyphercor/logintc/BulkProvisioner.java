@@ -0,0 +1,239 @@
+package com.cyphercor.logintc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+
+import com.cyphercor.logintc.LoginTC.LoginTCException;
+import com.cyphercor.logintc.resource.Token;
+import com.cyphercor.logintc.resource.User;
+
+/**
+ * Onboards many users at once. For each request the user is created, added to its domains and, if asked, issued a token in each domain.
+ * Requests are processed concurrently, so the stages of different users overlap; the input is read only as fast as requests complete.
+ * <p>
+ * Calls go through the client and honour its rate limits and retry policy. A failure stops only the request it belongs to.
+ */
+public class BulkProvisioner {
+
+    /**
+     * The stages of provisioning a user.
+     */
+    public static enum Stage {
+        CREATE_USER, ADD_DOMAIN_USER, CREATE_USER_TOKEN;
+    }
+
+    /**
+     * A user to provision.
+     */
+    public static class Request {
+        private final String username;
+        private final String email;
+        private final String name;
+        private final List<String> domainIds;
+        private final boolean createTokens;
+
+        /**
+         * @param username The new user's username.
+         * @param email The new user's email address.
+         * @param name The new user's real name.
+         * @param domainIds The domains to add the user to.
+         * @param createTokens True to create a token for the user in each domain.
+         */
+        public Request(String username, String email, String name, List<String> domainIds, boolean createTokens) {
+            this.username = username;
+            this.email = email;
+            this.name = name;
+            this.domainIds = domainIds != null ? domainIds : Collections.<String> emptyList();
+            this.createTokens = createTokens;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public String getEmail() {
+            return email;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public List<String> getDomainIds() {
+            return domainIds;
+        }
+
+        public boolean getCreateTokens() {
+            return createTokens;
+        }
+    }
+
+    /**
+     * The outcome of a request. A failed request keeps the results of the stages completed before the failure.
+     */
+    public static class Outcome {
+        private final int index;
+        private final Request request;
+        private final User user;
+        private final Map<String, Token> tokens;
+        private final Stage failedStage;
+        private final LoginTCException error;
+
+        Outcome(int index, Request request, User user, Map<String, Token> tokens, Stage failedStage, LoginTCException error) {
+            this.index = index;
+            this.request = request;
+            this.user = user;
+            this.tokens = Collections.unmodifiableMap(tokens);
+            this.failedStage = failedStage;
+            this.error = error;
+        }
+
+        /**
+         * @return The position of the request in the input, starting at 0.
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        public Request getRequest() {
+            return request;
+        }
+
+        /**
+         * @return The created user, or null if creation failed.
+         */
+        public User getUser() {
+            return user;
+        }
+
+        /**
+         * @return The created tokens, by domain identifier.
+         */
+        public Map<String, Token> getTokens() {
+            return tokens;
+        }
+
+        /**
+         * @return True if every stage succeeded.
+         */
+        public boolean isSuccess() {
+            return error == null;
+        }
+
+        /**
+         * @return The stage that failed, or null on success.
+         */
+        public Stage getFailedStage() {
+            return failedStage;
+        }
+
+        /**
+         * @return The failure, or null on success.
+         */
+        public LoginTCException getError() {
+            return error;
+        }
+    }
+
+    private final LoginTC client;
+    private final int parallelism;
+    private final int maxQueued;
+
+    /**
+     * @param client The LoginTC client.
+     * @param parallelism The maximum number of requests processed concurrently.
+     * @param maxQueued The maximum number of requests read ahead of the ones being processed.
+     */
+    public BulkProvisioner(LoginTC client, int parallelism, int maxQueued) {
+        if (parallelism < 1 || maxQueued < 0) {
+            throw new IllegalArgumentException("parallelism must be at least 1 and maxQueued not negative");
+        }
+
+        this.client = client;
+        this.parallelism = parallelism;
+        this.maxQueued = maxQueued;
+    }
+
+    /**
+     * Provision users and collect the outcomes.
+     *
+     * @param requests The users to provision.
+     * @return The outcomes, in input order.
+     * @throws LoginTCException if interrupted.
+     */
+    public List<Outcome> provision(Iterable<Request> requests) throws LoginTCException {
+        final Map<Integer, Outcome> outcomes = new ConcurrentSkipListMap<Integer, Outcome>();
+
+        provision(requests, new Consumer<Outcome>() {
+            @Override
+            public void accept(Outcome outcome) {
+                outcomes.put(outcome.getIndex(), outcome);
+            }
+        });
+
+        return new ArrayList<Outcome>(outcomes.values());
+    }
+
+    /**
+     * Provision users, passing each outcome to the sink as soon as it is known. The input may be lazy, such as a file being read; it is
+     * consumed from the calling thread and only a bounded number of requests are held at once.
+     *
+     * @param requests The users to provision.
+     * @param sink Receiver of the outcomes, in completion order. Called concurrently from the worker threads. If it throws, the
+     *            remaining requests are still processed and the first exception is rethrown at the end.
+     * @throws LoginTCException if interrupted.
+     */
+    public void provision(Iterable<Request> requests, final Consumer<? super Outcome> sink) throws LoginTCException {
+        BoundedExecutor executor = new BoundedExecutor("LoginTC-provision", parallelism, maxQueued);
+        int index = 0;
+
+        try {
+            for (final Request request : requests) {
+                final int position = index++;
+
+                executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        sink.accept(provision(position, request));
+                    }
+                });
+            }
+
+            executor.awaitCompletion();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw client.new InternalLoginTCException(e);
+        } finally {
+            executor.close();
+        }
+    }
+
+    private Outcome provision(int index, Request request) {
+        User user = null;
+        Map<String, Token> tokens = new LinkedHashMap<String, Token>();
+        Stage stage = Stage.CREATE_USER;
+
+        try {
+            user = client.createUser(request.getUsername(), request.getEmail(), request.getName());
+
+            for (String domainId : request.getDomainIds()) {
+                stage = Stage.ADD_DOMAIN_USER;
+                client.addDomainUser(domainId, user.getId());
+
+                if (request.getCreateTokens()) {
+                    stage = Stage.CREATE_USER_TOKEN;
+                    tokens.put(domainId, client.createUserToken(domainId, user.getId()));
+                }
+            }
+        } catch (LoginTCException e) {
+            return new Outcome(index, request, user, tokens, stage, e);
+        }
+
+        return new Outcome(index, request, user, tokens, null, null);
+    }
+}
@@ -0,0 +1,230 @@
+package com.cyphercor.logintc;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import com.cyphercor.logintc.LoginTC.LoginTCException;
+import com.cyphercor.logintc.resource.BypassCode;
+
+/**
+ * Issues or revokes bypass codes for many users at once, such as during an incident. Users are processed concurrently; a failure is
+ * recorded for its user and the other users are still processed.
+ */
+public class BypassCodeBatch {
+
+    /**
+     * A user that could not be processed.
+     */
+    public static class Failure {
+        private final int index;
+        private final String userId;
+        private final LoginTCException error;
+
+        Failure(int index, String userId, LoginTCException error) {
+            this.index = index;
+            this.userId = userId;
+            this.error = error;
+        }
+
+        /**
+         * @return The position of the user in the input, starting at 0.
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        public String getUserId() {
+            return userId;
+        }
+
+        public LoginTCException getError() {
+            return error;
+        }
+    }
+
+    /**
+     * The outcome of a batch.
+     */
+    public static class Result {
+        private final List<BypassCode> bypassCodes;
+        private final int revoked;
+        private final List<Failure> failures;
+
+        Result(List<BypassCode> bypassCodes, int revoked, List<Failure> failures) {
+            this.bypassCodes = Collections.unmodifiableList(bypassCodes);
+            this.revoked = revoked;
+            this.failures = Collections.unmodifiableList(failures);
+        }
+
+        /**
+         * @return The issued bypass codes, in completion order.
+         */
+        public List<BypassCode> getBypassCodes() {
+            return bypassCodes;
+        }
+
+        /**
+         * @return The number of users whose bypass codes were revoked.
+         */
+        public int getRevoked() {
+            return revoked;
+        }
+
+        /**
+         * @return The failures, in input order. A user listed more than once has a failure for each attempt that failed.
+         */
+        public List<Failure> getFailures() {
+            return failures;
+        }
+
+        /**
+         * Write the issued bypass codes as CSV with the columns user, id, code, dtExpiry, usesAllowed and usesRemaining. Expiry times are
+         * ISO-8601 in UTC. The output contains the codes and must be protected accordingly.
+         *
+         * @param out The destination. It is not closed.
+         * @throws IOException If writing fails.
+         */
+        public void export(Writer out) throws IOException {
+            StringBuilder line = new StringBuilder(128);
+            out.write("user,id,code,dtExpiry,usesAllowed,usesRemaining\n");
+
+            for (BypassCode bypassCode : bypassCodes) {
+                line.setLength(0);
+                line.append(bypassCode.getUser()).append(',');
+                line.append(bypassCode.getId()).append(',');
+                line.append(bypassCode.getCode()).append(',');
+                line.append(bypassCode.getDtExpiry() != null ? bypassCode.getDtExpiry().toInstant().toString() : "").append(',');
+                line.append(bypassCode.getUsesAllowed() != null ? bypassCode.getUsesAllowed().toString() : "").append(',');
+                line.append(bypassCode.getUsesRemaining() != null ? bypassCode.getUsesRemaining().toString() : "").append('\n');
+                out.append(line);
+            }
+
+            out.flush();
+        }
+    }
+
+    /**
+     * Work done for one user.
+     */
+    private interface Action {
+        void apply(String userId) throws LoginTCException;
+    }
+
+    private final LoginTC client;
+    private final int parallelism;
+
+    /**
+     * @param client The LoginTC client.
+     * @param parallelism The maximum number of users processed concurrently.
+     */
+    public BypassCodeBatch(LoginTC client, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        }
+
+        this.client = client;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Issue a bypass code to each user and collect the codes.
+     *
+     * @param userIds The target user identifiers.
+     * @param usesAllowed The number of uses allowed for each code, or null for the default.
+     * @param expirationTime The time in minutes each code is valid (0 means never expires), or null for the default.
+     * @return The result.
+     * @throws LoginTCException if interrupted.
+     */
+    public Result issue(Iterable<String> userIds, Integer usesAllowed, Integer expirationTime) throws LoginTCException {
+        final Queue<BypassCode> bypassCodes = new ConcurrentLinkedQueue<BypassCode>();
+        List<Failure> failures = issue(userIds, usesAllowed, expirationTime, new Consumer<BypassCode>() {
+            @Override
+            public void accept(BypassCode bypassCode) {
+                bypassCodes.add(bypassCode);
+            }
+        });
+
+        return new Result(new ArrayList<BypassCode>(bypassCodes), 0, failures);
+    }
+
+    /**
+     * Issue a bypass code to each user, passing each code to the sink as soon as it is issued so that none are held in memory.
+     *
+     * @param userIds The target user identifiers. Consumed from the calling thread; only a bounded number are held at once.
+     * @param usesAllowed The number of uses allowed for each code, or null for the default.
+     * @param expirationTime The time in minutes each code is valid (0 means never expires), or null for the default.
+     * @param sink Receiver of the codes, in completion order. Called concurrently from the worker threads.
+     * @return The failures, in input order.
+     * @throws LoginTCException if interrupted.
+     */
+    public List<Failure> issue(Iterable<String> userIds, final Integer usesAllowed, final Integer expirationTime,
+            final Consumer<? super BypassCode> sink) throws LoginTCException {
+        return run(userIds, new Action() {
+            @Override
+            public void apply(String userId) throws LoginTCException {
+                sink.accept(client.createBypassCode(userId, usesAllowed, expirationTime));
+            }
+        });
+    }
+
+    /**
+     * Revoke all bypass codes of each user.
+     *
+     * @param userIds The target user identifiers.
+     * @return The result.
+     * @throws LoginTCException if interrupted.
+     */
+    public Result revoke(Iterable<String> userIds) throws LoginTCException {
+        final AtomicInteger revoked = new AtomicInteger();
+        List<Failure> failures = run(userIds, new Action() {
+            @Override
+            public void apply(String userId) throws LoginTCException {
+                client.deleteBypassCodes(userId);
+                revoked.incrementAndGet();
+            }
+        });
+
+        return new Result(Collections.<BypassCode> emptyList(), revoked.get(), failures);
+    }
+
+    private List<Failure> run(Iterable<String> userIds, final Action action) throws LoginTCException {
+        final Map<Integer, Failure> failures = new ConcurrentSkipListMap<Integer, Failure>();
+        BoundedExecutor executor = new BoundedExecutor("LoginTC-bypass", parallelism, parallelism);
+        int index = 0;
+
+        try {
+            for (final String userId : userIds) {
+                final int position = index++;
+
+                executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            action.apply(userId);
+                        } catch (LoginTCException e) {
+                            failures.put(position, new Failure(position, userId, e));
+                        }
+                    }
+                });
+            }
+
+            executor.awaitCompletion();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw client.new InternalLoginTCException(e);
+        } finally {
+            executor.close();
+        }
+
+        return new ArrayList<Failure>(failures.values());
+    }
+}
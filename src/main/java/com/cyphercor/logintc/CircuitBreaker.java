@@ -0,0 +1,214 @@
+package com.cyphercor.logintc;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Circuit breaker around the LoginTC transport. After a number of consecutive failures (transport errors or 5xx responses) the circuit
+ * opens and requests fail immediately instead of waiting on timeouts. Once the open duration has elapsed, a single probe decides whether
+ * the circuit closes again or stays open for another period. The probe runs on a background thread, so no caller waits on it, whatever
+ * its deadline.
+ */
+public class CircuitBreaker {
+
+    /**
+     * States of the circuit.
+     */
+    public static enum State {
+        /**
+         * Requests flow normally.
+         */
+        CLOSED,
+
+        /**
+         * Requests fail immediately.
+         */
+        OPEN,
+
+        /**
+         * A probe is checking whether the service recovered; requests fail immediately.
+         */
+        HALF_OPEN;
+    }
+
+    /**
+     * Health check run when the circuit is half-open.
+     */
+    public interface Probe {
+        /**
+         * @return True if the service is healthy.
+         */
+        boolean probe();
+    }
+
+    /**
+     * Runs probes. Threads are only kept while probes are running.
+     */
+    private static final ExecutorService PROBE_EXECUTOR = Executors.newCachedThreadPool(new DaemonThreadFactory("LoginTC-probe"));
+
+    private final int failureThreshold;
+    private final long openDuration;
+    private final Probe probe;
+
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final Map<State, AtomicLong> transitions = new EnumMap<State, AtomicLong>(State.class);
+    private volatile State state = State.CLOSED;
+    private volatile long openedAt = 0;
+    private volatile Thread probeThread = null;
+
+    /**
+     * @param failureThreshold Number of consecutive failures that opens the circuit.
+     * @param openDuration Time the circuit stays open before it is probed.
+     * @param unit The time unit of the open duration.
+     * @param probe Health check run when the circuit is half-open, or null to let the next request through as the probe.
+     */
+    public CircuitBreaker(int failureThreshold, long openDuration, TimeUnit unit, Probe probe) {
+        this.failureThreshold = failureThreshold;
+        this.openDuration = unit.toNanos(openDuration);
+        this.probe = probe;
+
+        for (State value : State.values()) {
+            transitions.put(value, new AtomicLong());
+        }
+    }
+
+    /**
+     * @return The current state.
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @param to The target state.
+     * @return The number of times the circuit entered the state.
+     */
+    public long getTransitionCount(State to) {
+        return transitions.get(to).get();
+    }
+
+    /**
+     * @return The number of consecutive failures recorded while closed.
+     */
+    public int getConsecutiveFailures() {
+        return consecutiveFailures.get();
+    }
+
+    /**
+     * @return True if the request may be sent, false if it must fail fast.
+     */
+    boolean allowRequest() {
+        State current = state;
+
+        if (current == State.CLOSED || isProbeThread()) {
+            return true;
+        }
+
+        if (current == State.HALF_OPEN || System.nanoTime() - openedAt < openDuration) {
+            return false;
+        }
+
+        if (!transition(State.OPEN, State.HALF_OPEN)) {
+            return false;
+        }
+
+        if (probe == null) {
+            return true;
+        }
+
+        PROBE_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                runProbe();
+            }
+        });
+
+        return false;
+    }
+
+    /**
+     * Run the probe of a half-open circuit and close or reopen the circuit with its outcome.
+     */
+    private void runProbe() {
+        boolean healthy = false;
+        probeThread = Thread.currentThread();
+
+        try {
+            healthy = probe.probe();
+        } catch (RuntimeException e) {
+            healthy = false;
+        } finally {
+            probeThread = null;
+        }
+
+        if (healthy) {
+            consecutiveFailures.set(0);
+            transition(State.HALF_OPEN, State.CLOSED);
+        } else {
+            open(State.HALF_OPEN);
+        }
+    }
+
+    /**
+     * @return True if the current thread is running the probe. Probe requests bypass the circuit and are not recorded.
+     */
+    boolean isProbeThread() {
+        return probeThread == Thread.currentThread();
+    }
+
+    void recordSuccess() {
+        if (isProbeThread()) {
+            return;
+        }
+
+        consecutiveFailures.set(0);
+        transition(State.HALF_OPEN, State.CLOSED);
+    }
+
+    void recordFailure() {
+        if (isProbeThread()) {
+            return;
+        }
+
+        if (!open(State.HALF_OPEN) && consecutiveFailures.incrementAndGet() >= failureThreshold) {
+            open(State.CLOSED);
+        }
+    }
+
+    /**
+     * Record a request that ended without showing whether the service is healthy, such as one cut short by the caller's deadline. It
+     * counts as neither a success nor a failure; if it was the trial request of a half-open circuit, the circuit returns to open and the
+     * next request is let through as the trial instead.
+     */
+    void recordIgnored() {
+        if (isProbeThread()) {
+            return;
+        }
+
+        transition(State.HALF_OPEN, State.OPEN);
+    }
+
+    private synchronized boolean open(State from) {
+        if (state != from) {
+            return false;
+        }
+
+        openedAt = System.nanoTime();
+        return transition(from, State.OPEN);
+    }
+
+    private synchronized boolean transition(State from, State to) {
+        if (state != from) {
+            return false;
+        }
+
+        state = to;
+        transitions.get(to).incrementAndGet();
+        return true;
+    }
+}
@@ -0,0 +1,27 @@
+package com.cyphercor.logintc;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread factory for the client's background threads. Threads are daemons so that an unclosed client never prevents the JVM from
+ * exiting.
+ */
+class DaemonThreadFactory implements ThreadFactory {
+    private final String prefix;
+    private final AtomicInteger counter = new AtomicInteger();
+
+    /**
+     * @param name The thread name prefix.
+     */
+    public DaemonThreadFactory(String name) {
+        this.prefix = name;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, String.format("%s-%d", prefix, counter.incrementAndGet()));
+        thread.setDaemon(true);
+        return thread;
+    }
+}
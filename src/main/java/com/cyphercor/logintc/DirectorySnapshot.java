@@ -0,0 +1,362 @@
+package com.cyphercor.logintc;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import com.cyphercor.logintc.LoginTC.LoginTCException;
+import com.cyphercor.logintc.resource.BypassCode;
+import com.cyphercor.logintc.resource.Domain;
+import com.cyphercor.logintc.resource.HardwareToken;
+import com.cyphercor.logintc.resource.User;
+
+/**
+ * Point-in-time copy of an organization's directory: users, the domains they belong to, hardware tokens and bypass code metadata. A
+ * snapshot can be written to a compact binary file and loaded from it with memory-mapped I/O, so that a node can start from the last
+ * snapshot and refresh from the API afterwards.
+ * <p>
+ * Bypass codes are secrets and are not part of a snapshot; only their metadata is kept and {@link BypassCode#getCode()} is null.
+ */
+public class DirectorySnapshot {
+    private static final int MAGIC = 0x4c544344; // "LTCD"
+    private static final int VERSION = 2;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final long createdAt;
+    private final List<User> users;
+    private final List<Domain> domains;
+    private final List<HardwareToken> hardwareTokens;
+    private final List<BypassCode> bypassCodes;
+
+    /**
+     * @param createdAt The time the snapshot was taken, in milliseconds since the epoch.
+     * @param users The users.
+     * @param domains The domains.
+     * @param hardwareTokens The hardware tokens.
+     * @param bypassCodes The bypass codes.
+     */
+    public DirectorySnapshot(long createdAt, List<User> users, List<Domain> domains, List<HardwareToken> hardwareTokens,
+            List<BypassCode> bypassCodes) {
+        this.createdAt = createdAt;
+        this.users = Collections.unmodifiableList(users);
+        this.domains = Collections.unmodifiableList(domains);
+        this.hardwareTokens = Collections.unmodifiableList(hardwareTokens);
+        this.bypassCodes = Collections.unmodifiableList(bypassCodes);
+    }
+
+    /**
+     * Take a snapshot of the organization. Users and hardware tokens are exported with concurrent page requests; domains are fetched for
+     * the users that reference them. Bypass codes are taken from the users that reference them without a request per user, so only
+     * their identifier and user are known.
+     *
+     * @param client The LoginTC client.
+     * @param parallelism The maximum number of pages fetched concurrently.
+     * @return The snapshot.
+     * @throws LoginTCException if a call fails.
+     */
+    public static DirectorySnapshot capture(LoginTC client, int parallelism) throws LoginTCException {
+        long createdAt = System.currentTimeMillis();
+        List<User> users = client.exportUsers(parallelism);
+        List<HardwareToken> hardwareTokens = client.exportHardwareTokens(parallelism);
+        Set<String> domainIds = new LinkedHashSet<String>();
+        List<BypassCode> bypassCodes = new ArrayList<BypassCode>();
+
+        for (User user : users) {
+            if (user.getDomains() != null) {
+                domainIds.addAll(user.getDomains());
+            }
+
+            if (user.getBypassCodes() != null) {
+                for (String bypassCodeId : user.getBypassCodes()) {
+                    bypassCodes.add(new BypassCode(bypassCodeId, null, null, user.getId(), null, null));
+                }
+            }
+        }
+
+        List<Domain> domains = new ArrayList<Domain>();
+
+        for (String domainId : domainIds) {
+            domains.add(client.getDomain(domainId));
+        }
+
+        return new DirectorySnapshot(createdAt, users, domains, hardwareTokens, bypassCodes);
+    }
+
+    /**
+     * @return The time the snapshot was taken.
+     */
+    public Date getCreatedAt() {
+        return new Date(createdAt);
+    }
+
+    public List<User> getUsers() {
+        return users;
+    }
+
+    public List<Domain> getDomains() {
+        return domains;
+    }
+
+    public List<HardwareToken> getHardwareTokens() {
+        return hardwareTokens;
+    }
+
+    public List<BypassCode> getBypassCodes() {
+        return bypassCodes;
+    }
+
+    /**
+     * Write the snapshot to a file. The file is written next to the target and moved into place, so readers never see a partial
+     * snapshot.
+     *
+     * @param file The snapshot file.
+     * @throws IOException If the file cannot be written.
+     */
+    public void write(Path file) throws IOException {
+        Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+
+        try {
+            OutputStream fileOut = Files.newOutputStream(temp);
+            CRC32 crc = new CRC32();
+            DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(fileOut, 64 * 1024), crc));
+
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(createdAt);
+
+                out.writeInt(users.size());
+
+                for (User user : users) {
+                    writeString(out, user.getId());
+                    writeString(out, user.getUsername());
+                    writeString(out, user.getEmail());
+                    writeString(out, user.getName());
+                    writeStrings(out, user.getDomains());
+                    writeStrings(out, user.getBypassCodes());
+                    writeString(out, user.getHardware());
+                }
+
+                out.writeInt(domains.size());
+
+                for (Domain domain : domains) {
+                    writeString(out, domain.getId());
+                    writeString(out, domain.getName());
+                    writeString(out, domain.getType());
+                    writeString(out, domain.getKeyType());
+                    writeInteger(out, domain.getMaxAllowedRetries());
+                    writeInteger(out, domain.getRequestTimeout());
+                    writeInteger(out, domain.getActivationCodeExpiration());
+                    writeBoolean(out, domain.getRequestPollingEnabled());
+                    writeBoolean(out, domain.getBypassEnabled());
+                }
+
+                out.writeInt(hardwareTokens.size());
+
+                for (HardwareToken hardwareToken : hardwareTokens) {
+                    writeString(out, hardwareToken.getId());
+                    writeString(out, hardwareToken.getAlias());
+                    writeString(out, hardwareToken.getSerialNumber());
+                    writeString(out, hardwareToken.getType());
+                    writeString(out, hardwareToken.getTimeStep());
+                    writeString(out, hardwareToken.getSyncState());
+                    writeString(out, hardwareToken.getUser());
+                }
+
+                out.writeInt(bypassCodes.size());
+
+                for (BypassCode bypassCode : bypassCodes) {
+                    writeString(out, bypassCode.getId());
+                    out.writeLong(bypassCode.getDtExpiry() != null ? bypassCode.getDtExpiry().getTime() : Long.MIN_VALUE);
+                    writeString(out, bypassCode.getUser());
+                    writeInteger(out, bypassCode.getUsesAllowed());
+                    writeInteger(out, bypassCode.getUsesRemaining());
+                }
+
+                out.flush();
+                new DataOutputStream(fileOut).writeLong(crc.getValue());
+            } finally {
+                out.close();
+            }
+
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Load a snapshot written by {@link #write(Path)}. The file is mapped into memory rather than read through a stream.
+     *
+     * @param file The snapshot file.
+     * @return The snapshot.
+     * @throws IOException If the file cannot be read or is not a valid snapshot.
+     */
+    public static DirectorySnapshot read(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+
+        try {
+            long size = channel.size();
+
+            if (size < 24 || size > Integer.MAX_VALUE) {
+                throw new IOException(String.format("Invalid snapshot size %d", size));
+            }
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            ByteBuffer content = buffer.duplicate();
+            content.limit((int) size - 8);
+            CRC32 crc = new CRC32();
+            crc.update(content);
+
+            if (crc.getValue() != buffer.getLong((int) size - 8)) {
+                throw new IOException("Snapshot checksum mismatch");
+            }
+
+            buffer.limit((int) size - 8);
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("Not a LoginTC directory snapshot");
+            }
+
+            long createdAt = buffer.getLong();
+
+            List<User> users = new ArrayList<User>();
+
+            for (int i = 0, count = readCount(buffer); i < count; i++) {
+                users.add(new User(readString(buffer), readString(buffer), readString(buffer), readString(buffer), readStrings(buffer),
+                        readStrings(buffer), readString(buffer)));
+            }
+
+            List<Domain> domains = new ArrayList<Domain>();
+
+            for (int i = 0, count = readCount(buffer); i < count; i++) {
+                domains.add(new Domain(readString(buffer), readString(buffer), readString(buffer), readString(buffer), readInteger(buffer),
+                        readInteger(buffer), readInteger(buffer), readBoolean(buffer), readBoolean(buffer)));
+            }
+
+            List<HardwareToken> hardwareTokens = new ArrayList<HardwareToken>();
+
+            for (int i = 0, count = readCount(buffer); i < count; i++) {
+                hardwareTokens.add(new HardwareToken(readString(buffer), readString(buffer), readString(buffer), readString(buffer),
+                        readString(buffer), readString(buffer), readString(buffer)));
+            }
+
+            List<BypassCode> bypassCodes = new ArrayList<BypassCode>();
+
+            for (int i = 0, count = readCount(buffer); i < count; i++) {
+                String id = readString(buffer);
+                long dtExpiry = buffer.getLong();
+                bypassCodes.add(new BypassCode(id, null, dtExpiry != Long.MIN_VALUE ? new Date(dtExpiry) : null, readString(buffer),
+                        readInteger(buffer), readInteger(buffer)));
+            }
+
+            return new DirectorySnapshot(createdAt, users, domains, hardwareTokens, bypassCodes);
+        } catch (RuntimeException e) {
+            throw new IOException("Malformed snapshot", e);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeStrings(DataOutputStream out, List<String> values) throws IOException {
+        if (values == null) {
+            out.writeInt(-1);
+            return;
+        }
+
+        out.writeInt(values.size());
+
+        for (String value : values) {
+            writeString(out, value);
+        }
+    }
+
+    private static void writeInteger(DataOutputStream out, Integer value) throws IOException {
+        out.writeBoolean(value != null);
+
+        if (value != null) {
+            out.writeInt(value);
+        }
+    }
+
+    private static void writeBoolean(DataOutputStream out, Boolean value) throws IOException {
+        out.writeByte(value == null ? -1 : value ? 1 : 0);
+    }
+
+    private static int readCount(ByteBuffer buffer) throws IOException {
+        int count = buffer.getInt();
+
+        // Every element takes at least one byte, which bounds the count of a valid file
+        if (count < 0 || count > buffer.remaining()) {
+            throw new IOException(String.format("Invalid element count %d", count));
+        }
+
+        return count;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+
+        if (length < 0) {
+            return null;
+        }
+
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static List<String> readStrings(ByteBuffer buffer) throws IOException {
+        if (buffer.getInt(buffer.position()) < 0) {
+            buffer.getInt();
+            return null;
+        }
+
+        int count = readCount(buffer);
+        List<String> values = new ArrayList<String>(count);
+
+        for (int i = 0; i < count; i++) {
+            values.add(readString(buffer));
+        }
+
+        return values;
+    }
+
+    private static Integer readInteger(ByteBuffer buffer) {
+        return buffer.get() != 0 ? buffer.getInt() : null;
+    }
+
+    private static Boolean readBoolean(ByteBuffer buffer) {
+        byte value = buffer.get();
+        return value < 0 ? null : value == 1;
+    }
+}
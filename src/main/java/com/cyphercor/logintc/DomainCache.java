@@ -0,0 +1,240 @@
+package com.cyphercor.logintc;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.cyphercor.logintc.AdminRestClient.TaggedResponse;
+import com.cyphercor.logintc.LoginTC.LoginTCException;
+import com.cyphercor.logintc.resource.Domain;
+
+/**
+ * In-process cache of domain settings and domain images. Entries are fresh for a fixed time. After that they are still served, for at most
+ * the maximum staleness, while a single background request revalidates them. Revalidation is conditional on the entity tag of the cached
+ * version, so an unchanged resource costs a 304 response without a body.
+ */
+public class DomainCache {
+
+    /**
+     * Revalidates entries in the background. Threads are created on demand and exit when idle.
+     */
+    private static final ExecutorService REVALIDATION = Executors.newCachedThreadPool(new DaemonThreadFactory("LoginTC-revalidate"));
+
+    /**
+     * Fetch of a cached resource.
+     */
+    interface Loader<T> {
+        /**
+         * @param etag The entity tag of the cached version, or null if none.
+         * @return The resource, or null if it still matches the entity tag.
+         * @throws LoginTCException If the call fails.
+         */
+        TaggedResponse<T> load(String etag) throws LoginTCException;
+    }
+
+    /**
+     * A cached resource. Revalidation replaces the entry.
+     */
+    private static class Entry<T> {
+        private final T value;
+        private final String etag;
+        private final long fetchedAt;
+        private final AtomicBoolean revalidating = new AtomicBoolean();
+
+        Entry(T value, String etag) {
+            this(value, etag, System.nanoTime());
+        }
+
+        Entry(T value, String etag, long fetchedAt) {
+            this.value = value;
+            this.etag = etag;
+            this.fetchedAt = fetchedAt;
+        }
+    }
+
+    private final long ttl;
+    private final long maxStale;
+
+    private final Map<String, Entry<Domain>> domains = new ConcurrentHashMap<String, Entry<Domain>>();
+    private final Map<String, Entry<byte[]>> images = new ConcurrentHashMap<String, Entry<byte[]>>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong revalidations = new AtomicLong();
+    private final AtomicLong notModified = new AtomicLong();
+
+    /**
+     * @param ttl Time a cached entry is served without revalidation.
+     * @param maxStale Additional time a stale entry is served while it is revalidated in the background. Past it, the entry is fetched
+     *            before it is served.
+     * @param unit The time unit of the ttl and maximum staleness.
+     */
+    public DomainCache(long ttl, long maxStale, TimeUnit unit) {
+        if (ttl <= 0 || maxStale < 0) {
+            throw new IllegalArgumentException("ttl must be positive and maxStale not negative");
+        }
+
+        this.ttl = unit.toNanos(ttl);
+        this.maxStale = unit.toNanos(maxStale);
+    }
+
+    /**
+     * @return The number of lookups served from the cache, fresh or stale.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return The number of lookups that had to wait for a fetch.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return The number of revalidation requests sent.
+     */
+    public long getRevalidationCount() {
+        return revalidations.get();
+    }
+
+    /**
+     * @return The number of revalidations answered with 304 Not Modified.
+     */
+    public long getNotModifiedCount() {
+        return notModified.get();
+    }
+
+    /**
+     * Remove all entries.
+     */
+    public void clear() {
+        domains.clear();
+        images.clear();
+    }
+
+    /**
+     * @param domainId The domain identifier.
+     */
+    void invalidate(String domainId) {
+        domains.remove(domainId);
+        images.remove(domainId);
+    }
+
+    /**
+     * Add a domain obtained elsewhere, such as from a snapshot. The entry is already stale, so the first lookup serves it and revalidates
+     * it. Existing entries are kept.
+     *
+     * @param domain The domain.
+     */
+    void seed(Domain domain) {
+        domains.putIfAbsent(domain.getId(), new Entry<Domain>(domain, null, System.nanoTime() - ttl));
+    }
+
+    Domain getDomain(String domainId, Loader<Domain> loader) throws LoginTCException {
+        Domain domain = get(domains, domainId, loader);
+        return new Domain(domain.getId(), domain.getName(), domain.getType(), domain.getKeyType(), domain.getMaxAllowedRetries(),
+                domain.getRequestTimeout(), domain.getActivationCodeExpiration(), domain.getRequestPollingEnabled(),
+                domain.getBypassEnabled());
+    }
+
+    byte[] getImage(String domainId, Loader<byte[]> loader) throws LoginTCException {
+        return get(images, domainId, loader).clone();
+    }
+
+    private <T> T get(Map<String, Entry<T>> entries, String key, Loader<T> loader) throws LoginTCException {
+        Entry<T> entry = entries.get(key);
+
+        if (entry != null) {
+            long age = System.nanoTime() - entry.fetchedAt;
+
+            if (age < ttl) {
+                hits.incrementAndGet();
+                return entry.value;
+            }
+
+            if (age < ttl + maxStale) {
+                hits.incrementAndGet();
+                revalidateInBackground(entries, key, entry, loader);
+                return entry.value;
+            }
+        }
+
+        misses.incrementAndGet();
+
+        if (entry != null) {
+            return revalidate(entries, key, entry, loader).value;
+        }
+
+        TaggedResponse<T> response = loader.load(null);
+        entries.put(key, new Entry<T>(response.getBody(), response.getETag()));
+        return response.getBody();
+    }
+
+    private <T> void revalidateInBackground(final Map<String, Entry<T>> entries, final String key, final Entry<T> entry,
+            final Loader<T> loader) {
+        if (!entry.revalidating.compareAndSet(false, true)) {
+            return;
+        }
+
+        REVALIDATION.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    revalidate(entries, key, entry, loader);
+                } catch (LoginTCException e) {
+                    // Keep serving the stale entry; the next lookup past its ttl tries again
+                } finally {
+                    entry.revalidating.set(false);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return The entry replacing the revalidated entry.
+     */
+    private <T> Entry<T> revalidate(Map<String, Entry<T>> entries, String key, Entry<T> entry, Loader<T> loader)
+            throws LoginTCException {
+        revalidations.incrementAndGet();
+
+        try {
+            TaggedResponse<T> response = loader.load(entry.etag);
+            Entry<T> revalidated;
+
+            if (response == null) {
+                notModified.incrementAndGet();
+                revalidated = new Entry<T>(entry.value, entry.etag);
+            } else {
+                revalidated = new Entry<T>(response.getBody(), response.getETag());
+            }
+
+            entries.replace(key, entry, revalidated);
+            return revalidated;
+        } catch (LoginTCException e) {
+            if (isGone(e)) {
+                entries.remove(key, entry);
+            }
+
+            throw e;
+        }
+    }
+
+    /**
+     * @return True if the failure means the domain no longer exists or is no longer accessible. Other failures, such as an unavailable
+     *         server, keep the stale entry.
+     */
+    private static boolean isGone(LoginTCException e) {
+        if (!(e instanceof LoginTC.ApiLoginTCException)) {
+            return false;
+        }
+
+        String errorCode = ((LoginTC.ApiLoginTCException) e).getErrorCode();
+        return errorCode.startsWith("api.error.notfound") || errorCode.startsWith("api.error.forbidden");
+    }
+}
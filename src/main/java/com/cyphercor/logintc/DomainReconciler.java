@@ -0,0 +1,385 @@
+package com.cyphercor.logintc;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.cyphercor.logintc.LoginTC.ApiLoginTCException;
+import com.cyphercor.logintc.LoginTC.LoginTCException;
+import com.cyphercor.logintc.LoginTC.UncheckedLoginTCException;
+import com.cyphercor.logintc.resource.User;
+
+/**
+ * Keeps a domain's users in sync with a desired list, such as a directory group, by applying only the difference. Unlike
+ * {@link LoginTC#setDomainUsers(String, List)}, which uploads the whole list, the reconciler scans the domain, compares each user by
+ * username and a fingerprint of the email address and name, and then creates, updates, adds and removes only the users that differ.
+ * <p>
+ * Reconciliation is split into {@link #plan(String, List)}, which makes no changes and can be inspected, and {@link #apply(Plan)}.
+ */
+public class DomainReconciler {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * A domain user as seen by the scan.
+     */
+    private static class Member {
+        private final String userId;
+        private final long fingerprint;
+
+        Member(String userId, long fingerprint) {
+            this.userId = userId;
+            this.fingerprint = fingerprint;
+        }
+    }
+
+    /**
+     * The changes needed to bring a domain in line with the desired users.
+     */
+    public static class Plan {
+        private final String domainId;
+        private final List<User> additions;
+        private final List<User> updates;
+        private final List<User> removals;
+        private final int unchanged;
+        private final long scanTime;
+
+        Plan(String domainId, List<User> additions, List<User> updates, List<User> removals, int unchanged, long scanTime) {
+            this.domainId = domainId;
+            this.additions = Collections.unmodifiableList(additions);
+            this.updates = Collections.unmodifiableList(updates);
+            this.removals = Collections.unmodifiableList(removals);
+            this.unchanged = unchanged;
+            this.scanTime = scanTime;
+        }
+
+        public String getDomainId() {
+            return domainId;
+        }
+
+        /**
+         * @return Desired users not in the domain. They are created in the organization if they do not exist.
+         */
+        public List<User> getAdditions() {
+            return additions;
+        }
+
+        /**
+         * @return Domain users whose email address or name differ, with the identifier of the existing user and the desired values.
+         */
+        public List<User> getUpdates() {
+            return updates;
+        }
+
+        /**
+         * @return Domain users not in the desired list.
+         */
+        public List<User> getRemovals() {
+            return removals;
+        }
+
+        /**
+         * @return The number of domain users already as desired.
+         */
+        public int getUnchanged() {
+            return unchanged;
+        }
+
+        /**
+         * @param unit The time unit of the result.
+         * @return Time taken to scan the domain and compute the plan.
+         */
+        public long getScanTime(TimeUnit unit) {
+            return unit.convert(scanTime, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Plan [domainId=%s, additions=%d, updates=%d, removals=%d, unchanged=%d, scanTime=%dms]", domainId,
+                    additions.size(), updates.size(), removals.size(), unchanged, getScanTime(TimeUnit.MILLISECONDS));
+        }
+    }
+
+    /**
+     * The outcome of applying a plan. Each user is applied independently; a failure is recorded and the other users are still applied.
+     */
+    public static class Result {
+        private final Plan plan;
+        private final int created;
+        private final int updated;
+        private final int added;
+        private final int removed;
+        private final Map<String, LoginTCException> failures;
+        private final long applyTime;
+
+        Result(Plan plan, int created, int updated, int added, int removed, Map<String, LoginTCException> failures, long applyTime) {
+            this.plan = plan;
+            this.created = created;
+            this.updated = updated;
+            this.added = added;
+            this.removed = removed;
+            this.failures = Collections.unmodifiableMap(failures);
+            this.applyTime = applyTime;
+        }
+
+        public Plan getPlan() {
+            return plan;
+        }
+
+        /**
+         * @return The number of users created in the organization.
+         */
+        public int getCreated() {
+            return created;
+        }
+
+        /**
+         * @return The number of users whose email address or name was updated.
+         */
+        public int getUpdated() {
+            return updated;
+        }
+
+        /**
+         * @return The number of users added to the domain.
+         */
+        public int getAdded() {
+            return added;
+        }
+
+        /**
+         * @return The number of users removed from the domain.
+         */
+        public int getRemoved() {
+            return removed;
+        }
+
+        /**
+         * @return The failures, by username.
+         */
+        public Map<String, LoginTCException> getFailures() {
+            return failures;
+        }
+
+        /**
+         * @param unit The time unit of the result.
+         * @return Time taken to apply the plan.
+         */
+        public long getApplyTime(TimeUnit unit) {
+            return unit.convert(applyTime, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Result [created=%d, updated=%d, added=%d, removed=%d, failures=%d, applyTime=%dms]", created, updated,
+                    added, removed, failures.size(), getApplyTime(TimeUnit.MILLISECONDS));
+        }
+    }
+
+    private final LoginTC client;
+    private final int parallelism;
+
+    /**
+     * @param client The LoginTC client.
+     * @param parallelism The maximum number of calls made concurrently when applying a plan.
+     */
+    public DomainReconciler(LoginTC client, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        }
+
+        this.client = client;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Reconcile a domain's users with a desired list.
+     *
+     * @param domainId The target domain identifier.
+     * @param users The users that should belong to the domain. Only username, email and name are used.
+     * @return The result.
+     * @throws LoginTCException if the domain cannot be scanned.
+     */
+    public Result reconcile(String domainId, List<User> users) throws LoginTCException {
+        return apply(plan(domainId, users));
+    }
+
+    /**
+     * Scan a domain and compute the changes needed to match a desired list. Only the identifier and a fingerprint of each domain user are
+     * kept during the scan.
+     *
+     * @param domainId The target domain identifier.
+     * @param users The users that should belong to the domain. Only username, email and name are used; the last of duplicate usernames
+     *            wins.
+     * @return The plan.
+     * @throws LoginTCException if the domain cannot be scanned.
+     */
+    public Plan plan(String domainId, List<User> users) throws LoginTCException {
+        long start = System.nanoTime();
+        Map<String, User> desired = new LinkedHashMap<String, User>();
+
+        for (User user : users) {
+            desired.put(user.getUsername(), user);
+        }
+
+        Map<String, Member> members = new HashMap<String, Member>();
+
+        try {
+            for (User user : client.iterateDomainUsers(domainId)) {
+                members.put(user.getUsername(), new Member(user.getId(), fingerprint(user)));
+            }
+        } catch (UncheckedLoginTCException e) {
+            throw e.getCause();
+        }
+
+        List<User> additions = new ArrayList<User>();
+        List<User> updates = new ArrayList<User>();
+        List<User> removals = new ArrayList<User>();
+        int unchanged = 0;
+
+        for (User user : desired.values()) {
+            Member member = members.remove(user.getUsername());
+
+            if (member == null) {
+                additions.add(user);
+            } else if (member.fingerprint != fingerprint(user)) {
+                updates.add(new User(member.userId, user.getUsername(), user.getEmail(), user.getName(), null, null, null));
+            } else {
+                unchanged++;
+            }
+        }
+
+        for (Map.Entry<String, Member> entry : members.entrySet()) {
+            removals.add(new User(entry.getValue().userId, entry.getKey(), null, null, null, null, null));
+        }
+
+        return new Plan(domainId, additions, updates, removals, unchanged, System.nanoTime() - start);
+    }
+
+    /**
+     * Apply a plan. The domain may have changed since the plan was computed; such conflicts are reported as failures of the users
+     * involved.
+     *
+     * @param plan The plan.
+     * @return The result.
+     * @throws LoginTCException if interrupted while applying the plan.
+     */
+    public Result apply(final Plan plan) throws LoginTCException {
+        long start = System.nanoTime();
+        final String domainId = plan.getDomainId();
+        final AtomicInteger created = new AtomicInteger();
+        final AtomicInteger updated = new AtomicInteger();
+        final AtomicInteger added = new AtomicInteger();
+        final AtomicInteger removed = new AtomicInteger();
+        final Map<String, LoginTCException> failures = new ConcurrentHashMap<String, LoginTCException>();
+        BoundedExecutor executor = new BoundedExecutor("LoginTC-reconcile", parallelism, parallelism);
+
+        try {
+            for (final User user : plan.getRemovals()) {
+                executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            client.removeDomainUser(domainId, user.getId());
+                            removed.incrementAndGet();
+                        } catch (LoginTCException e) {
+                            failures.put(user.getUsername(), e);
+                        }
+                    }
+                });
+            }
+
+            for (final User user : plan.getUpdates()) {
+                executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            client.updateUser(user.getId(), user.getEmail(), user.getName());
+                            updated.incrementAndGet();
+                        } catch (LoginTCException e) {
+                            failures.put(user.getUsername(), e);
+                        }
+                    }
+                });
+            }
+
+            for (final User user : plan.getAdditions()) {
+                executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            User existing = findUser(user.getUsername());
+
+                            if (existing == null) {
+                                existing = client.createUser(user.getUsername(), user.getEmail(), user.getName());
+                                created.incrementAndGet();
+                            } else if (fingerprint(existing) != fingerprint(user)) {
+                                client.updateUser(existing.getId(), user.getEmail(), user.getName());
+                                updated.incrementAndGet();
+                            }
+
+                            client.addDomainUser(domainId, existing.getId());
+                            added.incrementAndGet();
+                        } catch (LoginTCException e) {
+                            failures.put(user.getUsername(), e);
+                        }
+                    }
+                });
+            }
+
+            executor.awaitCompletion();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw client.new InternalLoginTCException(e);
+        } finally {
+            executor.close();
+        }
+
+        return new Result(plan, created.get(), updated.get(), added.get(), removed.get(), new HashMap<String, LoginTCException>(failures),
+                System.nanoTime() - start);
+    }
+
+    /**
+     * @return The organization user, or null if none has the username.
+     */
+    private User findUser(String username) throws LoginTCException {
+        try {
+            return client.getUserByUsername(username);
+        } catch (ApiLoginTCException e) {
+            if (e.getErrorCode().startsWith("api.error.notfound")) {
+                return null;
+            }
+
+            throw e;
+        }
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the user's email address and name, the attributes reconciled for a username.
+     */
+    static long fingerprint(User user) {
+        long hash = 0xcbf29ce484222325L;
+        hash = fingerprint(hash, user.getEmail());
+        hash = fingerprint(hash, user.getName());
+        return hash;
+    }
+
+    private static long fingerprint(long hash, String value) {
+        if (value == null) {
+            return (hash ^ 0xff) * 0x100000001b3L;
+        }
+
+        for (byte b : value.getBytes(UTF_8)) {
+            hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+        }
+
+        // Separator, so that moving characters between fields changes the hash
+        return (hash ^ 0xfe) * 0x100000001b3L;
+    }
+}
@@ -0,0 +1,91 @@
+package com.cyphercor.logintc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Writes downloads to files. The data is transferred through a {@link FileChannel} to a temporary file in the same directory, which then
+ * atomically replaces the file, so the file is never left partially written. The temporary file is created with default permissions,
+ * rather than the owner-only permissions of {@link Files#createTempFile}, so the file is as readable as any other file written there.
+ */
+final class FileTransfer {
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private FileTransfer() {
+    }
+
+    /**
+     * @param in The data. The stream is closed.
+     * @param length The expected number of bytes, or -1 if unknown. The file is not replaced if the stream ends early.
+     * @param file The file to write.
+     * @return The number of bytes written.
+     * @throws IOException If the stream cannot be read, ends early or the file cannot be written. The temporary file is removed.
+     */
+    static long transfer(InputStream in, long length, Path file) throws IOException {
+        ReadableByteChannel source = Channels.newChannel(in);
+
+        try {
+            Path temp = createTemp(file);
+
+            try {
+                long total = 0;
+                FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE);
+
+                try {
+                    // A blocking source channel only transfers nothing at the end of the stream
+                    for (long count; (count = channel.transferFrom(source, total, CHUNK_SIZE)) > 0;) {
+                        total += count;
+                    }
+                } finally {
+                    channel.close();
+                }
+
+                // A connection closed early ends the stream as if it were complete
+                checkLength(length, total);
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                return total;
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } finally {
+            source.close();
+        }
+    }
+
+    /**
+     * @return A new empty file next to the file, with default permissions.
+     */
+    private static Path createTemp(Path file) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+
+        for (;;) {
+            Path temp = directory.resolve(String.format("%s.%016x.tmp", file.getFileName(), ThreadLocalRandom.current().nextLong()));
+
+            try {
+                return Files.createFile(temp);
+            } catch (FileAlreadyExistsException e) {
+                // Try another name
+            }
+        }
+    }
+
+    /**
+     * @param length The expected number of bytes, or -1 if unknown.
+     * @param total The number of bytes received.
+     * @throws IOException If fewer bytes were received than expected.
+     */
+    static void checkLength(long length, long total) throws IOException {
+        if (length >= 0 && total < length) {
+            throw new IOException(String.format("Expected %d bytes but received %d", length, total));
+        }
+    }
+}
@@ -0,0 +1,504 @@
+package com.cyphercor.logintc;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.cyphercor.logintc.LoginTC.ApiLoginTCException;
+import com.cyphercor.logintc.LoginTC.LoginTCException;
+import com.cyphercor.logintc.resource.HardwareToken;
+
+/**
+ * Imports hardware tokens from a vendor seed file. The file is read line by line, so it is never held in memory as a whole, and tokens
+ * are created concurrently.
+ * <p>
+ * The file is CSV with the columns serialNumber, type, timeStep, seed and optionally alias and username. A first line naming the
+ * columns, blank lines and lines starting with # are skipped. Fields may be quoted with double quotes. When a username is given the
+ * token is associated with that user.
+ * <p>
+ * Progress is recorded in a checkpoint file: on its first line the line up to which every row has been created or rejected by the API or
+ * by validation, followed by the line of each later row that is also done, one per line. Only a client error response (4xx other than
+ * 408 and 429) counts as a rejection. Rows that fail for another reason, such as a timeout, throttling or an unavailable server, are not
+ * done, so importing the same file with the same checkpoint retries them and skips every done row, continuing where the previous import
+ * stopped. A row counts as done once its token is created, even if the association with the user then fails; such rows are reported as
+ * association failures and are not retried by a resumed import.
+ */
+public class HardwareTokenImporter {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int CHECKPOINT_INTERVAL = 1000;
+
+    /**
+     * A row that could not be imported.
+     */
+    public static class Failure {
+        private final long lineNumber;
+        private final String serialNumber;
+        private final String hardwareTokenId;
+        private final String message;
+        private final LoginTCException error;
+
+        Failure(long lineNumber, String serialNumber, String hardwareTokenId, String message, LoginTCException error) {
+            this.lineNumber = lineNumber;
+            this.serialNumber = serialNumber;
+            this.hardwareTokenId = hardwareTokenId;
+            this.message = message;
+            this.error = error;
+        }
+
+        /**
+         * @return The line of the row, starting at 1.
+         */
+        public long getLineNumber() {
+            return lineNumber;
+        }
+
+        /**
+         * @return The serial number of the row, or null if the row could not be parsed.
+         */
+        public String getSerialNumber() {
+            return serialNumber;
+        }
+
+        /**
+         * @return The created token if only its association failed, otherwise null.
+         */
+        public String getHardwareTokenId() {
+            return hardwareTokenId;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        /**
+         * @return The failed call, or null if the row is invalid.
+         */
+        public LoginTCException getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Failure [lineNumber=%d, serialNumber=%s, message=%s]", lineNumber, serialNumber, message);
+        }
+    }
+
+    /**
+     * The outcome of an import.
+     */
+    public static class Result {
+        private final int created;
+        private final int associated;
+        private final long resumedAfter;
+        private final long checkpoint;
+        private final List<Failure> failures;
+        private final List<Failure> associationFailures;
+
+        Result(int created, int associated, long resumedAfter, long checkpoint, List<Failure> failures,
+                List<Failure> associationFailures) {
+            this.created = created;
+            this.associated = associated;
+            this.resumedAfter = resumedAfter;
+            this.checkpoint = checkpoint;
+            this.failures = Collections.unmodifiableList(failures);
+            this.associationFailures = Collections.unmodifiableList(associationFailures);
+        }
+
+        /**
+         * @return The number of tokens created.
+         */
+        public int getCreated() {
+            return created;
+        }
+
+        /**
+         * @return The number of tokens associated with a user.
+         */
+        public int getAssociated() {
+            return associated;
+        }
+
+        /**
+         * @return The line the import resumed after, 0 if it started from the beginning.
+         */
+        public long getResumedAfter() {
+            return resumedAfter;
+        }
+
+        /**
+         * @return The line up to which the file is done.
+         */
+        public long getCheckpoint() {
+            return checkpoint;
+        }
+
+        /**
+         * @return The rows that could not be imported, in completion order.
+         */
+        public List<Failure> getFailures() {
+            return failures;
+        }
+
+        /**
+         * @return The rows whose token was created but could not be associated with the user, in completion order.
+         */
+        public List<Failure> getAssociationFailures() {
+            return associationFailures;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Result [created=%d, associated=%d, resumedAfter=%d, checkpoint=%d, failures=%d, associationFailures=%d]",
+                    created, associated, resumedAfter, checkpoint, failures.size(), associationFailures.size());
+        }
+    }
+
+    /**
+     * Tracks the lines in progress, the line up to which all rows are done and the done rows after it.
+     */
+    private static class Progress {
+        private final Path file;
+        private final long resumedAfter;
+        private final TreeSet<Long> outstanding = new TreeSet<Long>();
+        private final TreeSet<Long> finished;
+        private long lastRead;
+        private int sinceWrite = 0;
+        private boolean closed = false;
+
+        private Progress(Path file, long resumedAfter, TreeSet<Long> finished) {
+            this.file = file;
+            this.resumedAfter = resumedAfter;
+            this.finished = finished;
+            this.lastRead = resumedAfter;
+        }
+
+        /**
+         * @param file The checkpoint file, or null for none.
+         * @return The progress recorded in the file, or none if there is no file.
+         * @throws IOException If the file cannot be read.
+         */
+        static Progress load(Path file) throws IOException {
+            long resumedAfter = 0;
+            TreeSet<Long> finished = new TreeSet<Long>();
+
+            if (file != null && Files.exists(file)) {
+                boolean first = true;
+
+                for (String line : Files.readAllLines(file, UTF_8)) {
+                    if (line.trim().isEmpty()) {
+                        continue;
+                    }
+
+                    if (first) {
+                        resumedAfter = Long.parseLong(line.trim());
+                        first = false;
+                    } else {
+                        finished.add(Long.valueOf(line.trim()));
+                    }
+                }
+            }
+
+            return new Progress(file, resumedAfter, finished);
+        }
+
+        long getResumedAfter() {
+            return resumedAfter;
+        }
+
+        /**
+         * @return True if the line was done by a previous import.
+         */
+        synchronized boolean isDone(long lineNumber) {
+            return lineNumber <= resumedAfter || finished.contains(lineNumber);
+        }
+
+        synchronized void read(long lineNumber) {
+            lastRead = lineNumber;
+        }
+
+        synchronized void start(long lineNumber) {
+            outstanding.add(lineNumber);
+            lastRead = lineNumber;
+        }
+
+        synchronized void done(long lineNumber) throws IOException {
+            // A task still running when the import ended must not move the final checkpoint
+            if (closed) {
+                return;
+            }
+
+            outstanding.remove(lineNumber);
+            finished.add(lineNumber);
+
+            if (++sinceWrite >= CHECKPOINT_INTERVAL) {
+                write();
+            }
+        }
+
+        synchronized long checkpoint() {
+            return outstanding.isEmpty() ? lastRead : outstanding.first() - 1;
+        }
+
+        synchronized void write() throws IOException {
+            sinceWrite = 0;
+
+            long checkpoint = checkpoint();
+            finished.headSet(checkpoint, true).clear();
+
+            if (file != null) {
+                StringBuilder content = new StringBuilder(20 * (finished.size() + 1));
+                content.append(checkpoint).append('\n');
+
+                for (Long lineNumber : finished) {
+                    content.append(lineNumber).append('\n');
+                }
+
+                Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+                Files.write(temp, content.toString().getBytes(UTF_8));
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+
+        /**
+         * Write the final checkpoint. Rows reported done afterwards are ignored.
+         */
+        synchronized void close() throws IOException {
+            closed = true;
+            write();
+        }
+    }
+
+    private final LoginTC client;
+    private final int parallelism;
+
+    /**
+     * @param client The LoginTC client.
+     * @param parallelism The maximum number of tokens created concurrently.
+     */
+    public HardwareTokenImporter(LoginTC client, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        }
+
+        this.client = client;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Import the tokens of a seed file.
+     *
+     * @param in The seed file.
+     * @param checkpoint The checkpoint file, or null for none. If it exists the rows it records as done are skipped; it is updated as
+     *            the import progresses and when it ends.
+     * @return The result.
+     * @throws IOException If the seed file cannot be read or the checkpoint cannot be read or written.
+     * @throws LoginTCException if interrupted.
+     */
+    public Result importTokens(Reader in, Path checkpoint) throws IOException, LoginTCException {
+        final Progress progress = Progress.load(checkpoint);
+        final AtomicInteger created = new AtomicInteger();
+        final AtomicInteger associated = new AtomicInteger();
+        final List<Failure> failures = Collections.synchronizedList(new ArrayList<Failure>());
+        final List<Failure> associationFailures = Collections.synchronizedList(new ArrayList<Failure>());
+        final IOException[] checkpointError = new IOException[1];
+
+        BufferedReader reader = new BufferedReader(in);
+        BoundedExecutor executor = new BoundedExecutor("LoginTC-import", parallelism, parallelism);
+
+        try {
+            long lineNumber = 0;
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+
+                if (progress.isDone(lineNumber) || isSkipped(line, lineNumber)) {
+                    progress.read(lineNumber);
+                    continue;
+                }
+
+                final long row = lineNumber;
+                progress.start(row);
+
+                List<String> fields;
+
+                try {
+                    fields = validate(parse(line));
+                } catch (IllegalArgumentException e) {
+                    failures.add(new Failure(row, null, null, e.getMessage(), null));
+                    progress.done(row);
+                    continue;
+                }
+
+                final List<String> values = fields;
+
+                executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        HardwareToken hardwareToken;
+
+                        try {
+                            hardwareToken = client.createHardwareToken(values.get(4), values.get(0), values.get(1), values.get(2),
+                                    values.get(3));
+                            created.incrementAndGet();
+                        } catch (LoginTCException e) {
+                            failures.add(new Failure(row, values.get(0), null, e.getMessage(), e));
+
+                            if (isRejected(e)) {
+                                done(row);
+                            }
+
+                            return;
+                        }
+
+                        // The token exists now, so a resumed import must not create it again whatever happens to the association
+                        done(row);
+
+                        if (values.get(5) != null) {
+                            try {
+                                client.associateHardwareToken(client.getUserByUsername(values.get(5)).getId(), hardwareToken.getId());
+                                associated.incrementAndGet();
+                            } catch (LoginTCException e) {
+                                associationFailures.add(new Failure(row, values.get(0), hardwareToken.getId(), e.getMessage(), e));
+                            }
+                        }
+                    }
+
+                    private void done(long lineNumber) {
+                        try {
+                            progress.done(lineNumber);
+                        } catch (IOException e) {
+                            synchronized (checkpointError) {
+                                checkpointError[0] = e;
+                            }
+                        }
+                    }
+                });
+            }
+
+            executor.awaitCompletion();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw client.new InternalLoginTCException(e);
+        } finally {
+            executor.close();
+            progress.close();
+        }
+
+        synchronized (checkpointError) {
+            if (checkpointError[0] != null) {
+                throw checkpointError[0];
+            }
+        }
+
+        return new Result(created.get(), associated.get(), progress.getResumedAfter(), progress.checkpoint(), new ArrayList<Failure>(failures),
+                new ArrayList<Failure>(associationFailures));
+    }
+
+    private static boolean isSkipped(String line, long lineNumber) {
+        String trimmed = line.trim();
+        return trimmed.isEmpty() || trimmed.startsWith("#")
+                || (lineNumber == 1 && trimmed.toLowerCase(Locale.ENGLISH).startsWith("serialnumber"));
+    }
+
+    /**
+     * @return True if the API definitively rejected the request, so that sending it again would fail the same way.
+     */
+    private static boolean isRejected(LoginTCException e) {
+        if (!(e instanceof ApiLoginTCException)) {
+            return false;
+        }
+
+        Integer statusCode = ((ApiLoginTCException) e).getStatusCode();
+        return statusCode != null && statusCode >= 400 && statusCode < 500 && statusCode != 408 && statusCode != 429;
+    }
+
+    /**
+     * @return The columns serialNumber, type, timeStep, seed, alias and username, the optional ones null if absent or empty.
+     */
+    private static List<String> validate(List<String> fields) {
+        if (fields.size() < 4 || fields.size() > 6) {
+            throw new IllegalArgumentException(String.format("Expected 4 to 6 columns, found %d", fields.size()));
+        }
+
+        while (fields.size() < 6) {
+            fields.add(null);
+        }
+
+        for (int i = 4; i < 6; i++) {
+            if (fields.get(i) != null && fields.get(i).isEmpty()) {
+                fields.set(i, null);
+            }
+        }
+
+        if (fields.get(0).isEmpty()) {
+            throw new IllegalArgumentException("Missing serial number");
+        }
+
+        fields.set(1, fields.get(1).toUpperCase(Locale.ENGLISH));
+
+        if (!fields.get(1).equals("TOTP6") && !fields.get(1).equals("TOTP8")) {
+            throw new IllegalArgumentException(String.format("Invalid type %s", fields.get(1)));
+        }
+
+        if (!fields.get(2).matches("[1-9][0-9]{0,5}")) {
+            throw new IllegalArgumentException(String.format("Invalid time step %s", fields.get(2)));
+        }
+
+        // The seed is a secret and is never included in messages
+        if (!fields.get(3).matches("([0-9a-fA-F]{2})+")) {
+            throw new IllegalArgumentException("Seed is not hexadecimal");
+        }
+
+        return fields;
+    }
+
+    /**
+     * @param line A CSV line.
+     * @return The fields of the line, trimmed outside quotes.
+     */
+    static List<String> parse(String line) {
+        List<String> fields = new ArrayList<String>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString().trim());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+
+        if (quoted) {
+            throw new IllegalArgumentException("Unterminated quoted field");
+        }
+
+        fields.add(field.toString().trim());
+        return fields;
+    }
+}
@@ -0,0 +1,163 @@
+package com.cyphercor.logintc;
+
+import java.text.ParseException;
+import java.util.Date;
+
+/**
+ * Parser of the ISO-8601 timestamps sent by the API, such as 2014-01-31T17:05:00+0000. Stateless and therefore safe to share between
+ * threads, unlike {@link java.text.SimpleDateFormat}, and it allocates nothing but the result.
+ * <p>
+ * Accepts yyyy-MM-dd'T'HH:mm:ss, optionally followed by fractional seconds, and a zone of Z, +HH, +HHMM or +HH:MM.
+ */
+final class Iso8601 {
+
+    private Iso8601() {
+    }
+
+    /**
+     * @param text The timestamp.
+     * @return The instant.
+     * @throws ParseException If the text is not a valid timestamp.
+     */
+    static Date parse(String text) throws ParseException {
+        if (text == null) {
+            throw new ParseException("Missing timestamp", 0);
+        }
+
+        int year = digits(text, 0, 4);
+        expect(text, 4, '-');
+        int month = digits(text, 5, 2);
+        expect(text, 7, '-');
+        int day = digits(text, 8, 2);
+        expect(text, 10, 'T');
+        int hour = digits(text, 11, 2);
+        expect(text, 13, ':');
+        int minute = digits(text, 14, 2);
+        expect(text, 16, ':');
+        int second = digits(text, 17, 2);
+        int pos = 19;
+        int millis = 0;
+
+        if (pos < text.length() && text.charAt(pos) == '.') {
+            int start = ++pos;
+
+            while (pos < text.length() && isDigit(text.charAt(pos))) {
+                // Only the first three digits are significant
+                if (pos - start < 3) {
+                    millis = millis * 10 + (text.charAt(pos) - '0');
+                }
+
+                pos++;
+            }
+
+            if (pos == start) {
+                throw new ParseException(String.format("Invalid fraction in %s", text), pos);
+            }
+
+            for (int i = pos - start; i < 3; i++) {
+                millis *= 10;
+            }
+        }
+
+        if (month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month) || hour > 23 || minute > 59 || second > 59) {
+            throw new ParseException(String.format("Invalid timestamp %s", text), 0);
+        }
+
+        int offset = offset(text, pos);
+        long days = daysFromEpoch(year, month, day);
+        long seconds = days * 86400 + hour * 3600 + minute * 60 + second - offset;
+
+        return new Date(seconds * 1000 + millis);
+    }
+
+    /**
+     * @return The zone offset at the position, in seconds.
+     */
+    private static int offset(String text, int pos) throws ParseException {
+        if (pos == text.length() - 1 && text.charAt(pos) == 'Z') {
+            return 0;
+        }
+
+        if (pos >= text.length() || (text.charAt(pos) != '+' && text.charAt(pos) != '-')) {
+            throw new ParseException(String.format("Missing zone in %s", text), pos);
+        }
+
+        int sign = text.charAt(pos) == '-' ? -1 : 1;
+        int hours = digits(text, pos + 1, 2);
+        int minutes = 0;
+        int remaining = text.length() - pos - 3;
+
+        if (remaining == 2) {
+            minutes = digits(text, pos + 3, 2);
+        } else if (remaining == 3) {
+            expect(text, pos + 3, ':');
+            minutes = digits(text, pos + 4, 2);
+        } else if (remaining != 0) {
+            throw new ParseException(String.format("Invalid zone in %s", text), pos);
+        }
+
+        if (hours > 18 || minutes > 59) {
+            throw new ParseException(String.format("Invalid zone in %s", text), pos);
+        }
+
+        return sign * (hours * 3600 + minutes * 60);
+    }
+
+    private static int digits(String text, int pos, int count) throws ParseException {
+        if (pos + count > text.length()) {
+            throw new ParseException(String.format("Truncated timestamp %s", text), pos);
+        }
+
+        int value = 0;
+
+        for (int i = pos; i < pos + count; i++) {
+            char c = text.charAt(i);
+
+            if (!isDigit(c)) {
+                throw new ParseException(String.format("Expected digit in %s", text), i);
+            }
+
+            value = value * 10 + (c - '0');
+        }
+
+        return value;
+    }
+
+    private static void expect(String text, int pos, char c) throws ParseException {
+        if (pos >= text.length() || text.charAt(pos) != c) {
+            throw new ParseException(String.format("Expected '%c' in %s", c, text), pos);
+        }
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0 ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    /**
+     * Days since 1970-01-01 of a proleptic Gregorian date.
+     */
+    private static long daysFromEpoch(int year, int month, int day) {
+        // Count years from March so that the leap day ends the year
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+
+        return era * 146097 + dayOfEra - 719468;
+    }
+}
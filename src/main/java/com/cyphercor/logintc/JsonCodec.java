@@ -0,0 +1,133 @@
+package com.cyphercor.logintc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Encoder and decoder of the JSON exchanged with the API. Responses are decoded with a pull {@link Parser} and requests are written with a
+ * {@link Generator}, so a codec never has to build a document tree unless it wants to.
+ * <p>
+ * {@link StreamingJsonCodec} is the default. {@link OrgJsonCodec} keeps the behaviour of the org.json library used by earlier versions.
+ *
+ * @see LoginTC#setJsonCodec(JsonCodec)
+ */
+public interface JsonCodec {
+
+    /**
+     * The kinds of tokens a parser can be positioned at.
+     */
+    public static enum Token {
+        BEGIN_ARRAY, END_ARRAY, BEGIN_OBJECT, END_OBJECT, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT;
+    }
+
+    /**
+     * Pull parser over a single JSON document.
+     */
+    public interface Parser extends Closeable {
+
+        /**
+         * @return The kind of the next token, without consuming it.
+         * @throws IOException If the input cannot be read or is malformed.
+         */
+        Token peek() throws IOException;
+
+        void beginArray() throws IOException;
+
+        void endArray() throws IOException;
+
+        void beginObject() throws IOException;
+
+        void endObject() throws IOException;
+
+        /**
+         * @return True if the current array or object has another element.
+         * @throws IOException If the input cannot be read or is malformed.
+         */
+        boolean hasNext() throws IOException;
+
+        String nextName() throws IOException;
+
+        /**
+         * @return The next value as a string. Numbers and booleans are returned as their literal text. Null is returned as null, except
+         *         by {@link OrgJsonCodec}, which returns "null" as org.json does.
+         * @throws IOException If the input cannot be read or the next value is not a scalar.
+         */
+        String nextString() throws IOException;
+
+        int nextInt() throws IOException;
+
+        boolean nextBoolean() throws IOException;
+
+        /**
+         * Skip the next value, including nested arrays and objects.
+         *
+         * @throws IOException If the input cannot be read or is malformed.
+         */
+        void skipValue() throws IOException;
+
+        /**
+         * @param message Description of the problem.
+         * @return An exception reporting that the document is not as expected, to be thrown by the caller.
+         */
+        IOException syntaxError(String message);
+    }
+
+    /**
+     * Writer of a single JSON document.
+     */
+    public interface Generator {
+
+        Generator beginArray();
+
+        Generator endArray();
+
+        Generator beginObject();
+
+        Generator endObject();
+
+        /**
+         * @param name The name of the next object member.
+         * @return This generator.
+         */
+        Generator name(String name);
+
+        /**
+         * @param value A string, or null to write JSON null.
+         * @return This generator.
+         */
+        Generator value(String value);
+
+        Generator value(long value);
+
+        Generator value(boolean value);
+
+        /**
+         * Write an object member, or nothing if the value is null.
+         *
+         * @param name The member name.
+         * @param value The member value.
+         * @return This generator.
+         */
+        default Generator member(String name, String value) {
+            return value != null ? name(name).value(value) : this;
+        }
+
+        /**
+         * @return The document.
+         * @throws IllegalStateException If the document is incomplete.
+         */
+        String toJson();
+    }
+
+    /**
+     * @param in The document.
+     * @return A parser reading the document. Closing the parser closes the input.
+     */
+    Parser newParser(Reader in);
+
+    /**
+     * @return A generator for a new document.
+     */
+    Generator newGenerator();
+}
@@ -0,0 +1,475 @@
+package com.cyphercor.logintc;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+import com.cyphercor.logintc.JsonCodec.Token;
+
+/**
+ * Pull parser reading JSON tokens straight from a character stream, so that API responses can be decoded into resources without
+ * building an intermediate tree.
+ * <p>
+ * Values are read leniently in the same way as org.json: strings may be read as numbers or booleans and numbers or booleans may be read
+ * as strings. Null is the exception: it is read as null, where org.json's {@code getString}, which earlier versions of this client
+ * decoded responses with, returns the string "null". A user without a hardware token, for example, now has a null
+ * {@link com.cyphercor.logintc.resource.User#getHardware()} rather than "null".
+ */
+class JsonReader implements JsonCodec.Parser {
+    static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Exception for input that is not valid JSON or does not have the expected structure.
+     */
+    static class MalformedJsonException extends IOException {
+        private static final long serialVersionUID = 1915409727962133478L;
+
+        public MalformedJsonException(String message) {
+            super(message);
+        }
+    }
+
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_ARRAY = 2;
+    private static final int NONEMPTY_ARRAY = 3;
+    private static final int EMPTY_OBJECT = 4;
+    private static final int DANGLING_NAME = 5;
+    private static final int NONEMPTY_OBJECT = 6;
+
+    private final Reader in;
+    private final char[] buffer;
+    private int pos = 0;
+    private int limit = 0;
+
+    private final StringBuilder scratch = new StringBuilder();
+    private int[] stack = new int[16];
+    private int stackSize = 0;
+    private Token peeked = null;
+
+    /**
+     * @param in The JSON input.
+     */
+    public JsonReader(Reader in) {
+        this(in, new char[BUFFER_SIZE]);
+    }
+
+    /**
+     * @param in The JSON input.
+     * @param buffer The read buffer, which the reader uses exclusively until closed.
+     */
+    JsonReader(Reader in, char[] buffer) {
+        this.in = in;
+        this.buffer = buffer;
+        stack[stackSize++] = EMPTY_DOCUMENT;
+    }
+
+    /**
+     * @return The kind of the next token, without consuming it.
+     * @throws IOException If the input cannot be read or is malformed.
+     */
+    public Token peek() throws IOException {
+        if (peeked != null) {
+            return peeked;
+        }
+
+        int scope = stack[stackSize - 1];
+        int c;
+
+        switch (scope) {
+            case EMPTY_ARRAY:
+                stack[stackSize - 1] = NONEMPTY_ARRAY;
+                c = nextNonWhitespace();
+
+                if (c == ']') {
+                    return peeked = Token.END_ARRAY;
+                }
+
+                pos--;
+                break;
+            case NONEMPTY_ARRAY:
+                c = nextNonWhitespace();
+
+                if (c == ']') {
+                    return peeked = Token.END_ARRAY;
+                } else if (c != ',') {
+                    throw syntaxError("Expected ',' or ']'");
+                }
+                break;
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                stack[stackSize - 1] = DANGLING_NAME;
+                c = nextNonWhitespace();
+
+                if (c == '}') {
+                    return peeked = Token.END_OBJECT;
+                }
+
+                if (scope == NONEMPTY_OBJECT) {
+                    if (c != ',') {
+                        throw syntaxError("Expected ',' or '}'");
+                    }
+
+                    c = nextNonWhitespace();
+                }
+
+                if (c != '"') {
+                    throw syntaxError("Expected name");
+                }
+
+                return peeked = Token.NAME;
+            case DANGLING_NAME:
+                stack[stackSize - 1] = NONEMPTY_OBJECT;
+
+                if (nextNonWhitespace() != ':') {
+                    throw syntaxError("Expected ':'");
+                }
+                break;
+            case EMPTY_DOCUMENT:
+                stack[stackSize - 1] = NONEMPTY_DOCUMENT;
+                break;
+            default:
+                if (!skipWhitespace()) {
+                    return peeked = Token.END_DOCUMENT;
+                }
+
+                throw syntaxError("Expected end of document");
+        }
+
+        c = nextNonWhitespace();
+
+        switch (c) {
+            case '{':
+                return peeked = Token.BEGIN_OBJECT;
+            case '[':
+                return peeked = Token.BEGIN_ARRAY;
+            case '"':
+                return peeked = Token.STRING;
+            case 't':
+            case 'f':
+                pos--;
+                return peeked = Token.BOOLEAN;
+            case 'n':
+                pos--;
+                return peeked = Token.NULL;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    pos--;
+                    return peeked = Token.NUMBER;
+                }
+
+                throw syntaxError("Unexpected character");
+        }
+    }
+
+    public void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    public void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+        stackSize--;
+    }
+
+    public void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    public void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+        stackSize--;
+    }
+
+    /**
+     * @return True if the current array or object has another element.
+     * @throws IOException If the input cannot be read or is malformed.
+     */
+    public boolean hasNext() throws IOException {
+        Token token = peek();
+        return token != Token.END_ARRAY && token != Token.END_OBJECT && token != Token.END_DOCUMENT;
+    }
+
+    /**
+     * @return The name of the next object member.
+     * @throws IOException If the input cannot be read or is malformed.
+     */
+    public String nextName() throws IOException {
+        expect(Token.NAME);
+        return readString();
+    }
+
+    /**
+     * @return The next value as a string, or null if the value is null.
+     * @throws IOException If the input cannot be read or the value is an array or object.
+     */
+    public String nextString() throws IOException {
+        Token token = peek();
+        peeked = null;
+
+        switch (token) {
+            case STRING:
+                return readString();
+            case NUMBER:
+            case BOOLEAN:
+                return readLiteral(token);
+            case NULL:
+                readLiteral(token);
+                return null;
+            default:
+                throw syntaxError("Expected a string but was " + token);
+        }
+    }
+
+    /**
+     * @return The next value as an int.
+     * @throws IOException If the input cannot be read or the value is not a number.
+     */
+    public int nextInt() throws IOException {
+        Token token = peek();
+        peeked = null;
+
+        String value;
+
+        if (token == Token.NUMBER) {
+            value = readLiteral(token);
+        } else if (token == Token.STRING) {
+            value = readString();
+        } else {
+            throw syntaxError("Expected a number but was " + token);
+        }
+
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            try {
+                return (int) Double.parseDouble(value);
+            } catch (NumberFormatException de) {
+                throw syntaxError("Expected a number but was " + value);
+            }
+        }
+    }
+
+    /**
+     * @return The next value as a boolean.
+     * @throws IOException If the input cannot be read or the value is not a boolean.
+     */
+    public boolean nextBoolean() throws IOException {
+        String value = nextString();
+
+        if ("true".equalsIgnoreCase(value)) {
+            return true;
+        } else if ("false".equalsIgnoreCase(value)) {
+            return false;
+        }
+
+        throw syntaxError("Expected a boolean but was " + value);
+    }
+
+    /**
+     * Skip the next value, including nested arrays and objects.
+     *
+     * @throws IOException If the input cannot be read or is malformed.
+     */
+    public void skipValue() throws IOException {
+        Token token = peek();
+
+        if (token == Token.BEGIN_ARRAY) {
+            beginArray();
+
+            while (hasNext()) {
+                skipValue();
+            }
+
+            endArray();
+        } else if (token == Token.BEGIN_OBJECT) {
+            beginObject();
+
+            while (hasNext()) {
+                nextName();
+                skipValue();
+            }
+
+            endObject();
+        } else {
+            nextString();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * @param message The error description.
+     * @return An exception describing a syntax error at the current position.
+     */
+    @Override
+    public MalformedJsonException syntaxError(String message) {
+        return new MalformedJsonException(message);
+    }
+
+    private void expect(Token expected) throws IOException {
+        Token token = peek();
+
+        if (token != expected) {
+            throw syntaxError("Expected " + expected + " but was " + token);
+        }
+
+        peeked = null;
+    }
+
+    private void push(int scope) {
+        if (stackSize == stack.length) {
+            stack = Arrays.copyOf(stack, stackSize * 2);
+        }
+
+        stack[stackSize++] = scope;
+    }
+
+    private boolean fill() throws IOException {
+        if (pos < limit) {
+            return true;
+        }
+
+        int read = in.read(buffer, 0, buffer.length);
+
+        if (read <= 0) {
+            return false;
+        }
+
+        pos = 0;
+        limit = read;
+        return true;
+    }
+
+    private boolean skipWhitespace() throws IOException {
+        while (fill()) {
+            char c = buffer[pos];
+
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return true;
+            }
+
+            pos++;
+        }
+
+        return false;
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        if (!skipWhitespace()) {
+            throw syntaxError("Unexpected end of input");
+        }
+
+        return buffer[pos++];
+    }
+
+    /**
+     * Read a string whose opening quote has been consumed.
+     */
+    private String readString() throws IOException {
+        scratch.setLength(0);
+
+        while (true) {
+            if (!fill()) {
+                throw syntaxError("Unterminated string");
+            }
+
+            int start = pos;
+
+            while (pos < limit) {
+                char c = buffer[pos++];
+
+                if (c == '"') {
+                    if (scratch.length() == 0) {
+                        return new String(buffer, start, pos - start - 1);
+                    }
+
+                    scratch.append(buffer, start, pos - start - 1);
+                    return scratch.toString();
+                } else if (c == '\\') {
+                    scratch.append(buffer, start, pos - start - 1);
+                    scratch.append(readEscape());
+                    start = pos;
+                }
+            }
+
+            scratch.append(buffer, start, pos - start);
+        }
+    }
+
+    private char readEscape() throws IOException {
+        if (!fill()) {
+            throw syntaxError("Unterminated escape sequence");
+        }
+
+        char c = buffer[pos++];
+
+        switch (c) {
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                int value = 0;
+
+                for (int i = 0; i < 4; i++) {
+                    if (!fill()) {
+                        throw syntaxError("Unterminated escape sequence");
+                    }
+
+                    int digit = Character.digit(buffer[pos++], 16);
+
+                    if (digit < 0) {
+                        throw syntaxError("Invalid unicode escape");
+                    }
+
+                    value = (value << 4) | digit;
+                }
+
+                return (char) value;
+            case '"':
+            case '\\':
+            case '/':
+                return c;
+            default:
+                throw syntaxError("Invalid escape sequence");
+        }
+    }
+
+    /**
+     * Read a number, boolean or null literal.
+     */
+    private String readLiteral(Token token) throws IOException {
+        scratch.setLength(0);
+
+        while (fill()) {
+            char c = buffer[pos];
+
+            if (c == ',' || c == ']' || c == '}' || c == ':' || c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                break;
+            }
+
+            scratch.append(c);
+            pos++;
+        }
+
+        String literal = scratch.toString();
+
+        if ((token == Token.NULL && !literal.equals("null"))
+                || (token == Token.BOOLEAN && !literal.equals("true") && !literal.equals("false"))) {
+            throw syntaxError("Invalid literal " + literal);
+        }
+
+        return literal;
+    }
+}
@@ -0,0 +1,189 @@
+package com.cyphercor.logintc;
+
+import java.util.Arrays;
+
+/**
+ * Generator appending JSON text directly to a buffer, without building a tree. Misuse, such as a value without a name inside an object,
+ * fails with an {@link IllegalStateException}.
+ */
+class JsonWriter implements JsonCodec.Generator {
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_ARRAY = 2;
+    private static final int NONEMPTY_ARRAY = 3;
+    private static final int EMPTY_OBJECT = 4;
+    private static final int DANGLING_NAME = 5;
+    private static final int NONEMPTY_OBJECT = 6;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final StringBuilder out;
+    private int[] stack = new int[16];
+    private int stackSize = 0;
+
+    /**
+     * @param out The buffer the document is appended to.
+     */
+    JsonWriter(StringBuilder out) {
+        this.out = out;
+        stack[stackSize++] = EMPTY_DOCUMENT;
+    }
+
+    @Override
+    public JsonWriter beginArray() {
+        beforeValue();
+        push(EMPTY_ARRAY);
+        out.append('[');
+        return this;
+    }
+
+    @Override
+    public JsonWriter endArray() {
+        return close(EMPTY_ARRAY, NONEMPTY_ARRAY, ']');
+    }
+
+    @Override
+    public JsonWriter beginObject() {
+        beforeValue();
+        push(EMPTY_OBJECT);
+        out.append('{');
+        return this;
+    }
+
+    @Override
+    public JsonWriter endObject() {
+        return close(EMPTY_OBJECT, NONEMPTY_OBJECT, '}');
+    }
+
+    @Override
+    public JsonWriter name(String name) {
+        int scope = stack[stackSize - 1];
+
+        if (scope == NONEMPTY_OBJECT) {
+            out.append(',');
+        } else if (scope != EMPTY_OBJECT) {
+            throw new IllegalStateException("Name outside of an object");
+        }
+
+        stack[stackSize - 1] = DANGLING_NAME;
+        string(name);
+        out.append(':');
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(String value) {
+        beforeValue();
+
+        if (value == null) {
+            out.append("null");
+        } else {
+            string(value);
+        }
+
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(long value) {
+        beforeValue();
+        out.append(value);
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(boolean value) {
+        beforeValue();
+        out.append(value);
+        return this;
+    }
+
+    @Override
+    public String toJson() {
+        if (stackSize != 1 || stack[0] != NONEMPTY_DOCUMENT) {
+            throw new IllegalStateException("Incomplete document");
+        }
+
+        return out.toString();
+    }
+
+    private void beforeValue() {
+        switch (stack[stackSize - 1]) {
+            case EMPTY_DOCUMENT:
+                stack[stackSize - 1] = NONEMPTY_DOCUMENT;
+                break;
+            case EMPTY_ARRAY:
+                stack[stackSize - 1] = NONEMPTY_ARRAY;
+                break;
+            case NONEMPTY_ARRAY:
+                out.append(',');
+                break;
+            case DANGLING_NAME:
+                stack[stackSize - 1] = NONEMPTY_OBJECT;
+                break;
+            default:
+                throw new IllegalStateException("Value without a name or after the end of the document");
+        }
+    }
+
+    private JsonWriter close(int empty, int nonempty, char bracket) {
+        int scope = stack[stackSize - 1];
+
+        if (scope != empty && scope != nonempty) {
+            throw new IllegalStateException("Nesting problem");
+        }
+
+        stackSize--;
+        out.append(bracket);
+        return this;
+    }
+
+    private void push(int scope) {
+        if (stackSize == stack.length) {
+            stack = Arrays.copyOf(stack, stackSize * 2);
+        }
+
+        stack[stackSize++] = scope;
+    }
+
+    private void string(String value) {
+        out.append('"');
+
+        int length = value.length();
+        int start = 0;
+
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            String escape;
+
+            if (c == '"') {
+                escape = "\\\"";
+            } else if (c == '\\') {
+                escape = "\\\\";
+            } else if (c == '\n') {
+                escape = "\\n";
+            } else if (c == '\r') {
+                escape = "\\r";
+            } else if (c == '\t') {
+                escape = "\\t";
+            } else if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                escape = null;
+            } else {
+                continue;
+            }
+
+            out.append(value, start, i);
+
+            if (escape != null) {
+                out.append(escape);
+            } else {
+                out.append("\\u").append(HEX[c >> 12]).append(HEX[(c >> 8) & 0xf]).append(HEX[(c >> 4) & 0xf]).append(HEX[c & 0xf]);
+            }
+
+            start = i + 1;
+        }
+
+        out.append(value, start, length);
+        out.append('"');
+    }
+}
@@ -1,21 +1,33 @@
 
 package com.cyphercor.logintc;
 
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-import org.json.JSONTokener;
+import org.apache.http.HttpEntity;
 
 import com.cyphercor.logintc.AdminRestClient.AdminRestClientException;
+import com.cyphercor.logintc.AdminRestClient.CircuitOpenAdminRestClientException;
+import com.cyphercor.logintc.AdminRestClient.DeadlineExceededAdminRestClientException;
 import com.cyphercor.logintc.AdminRestClient.RestAdminRestClientException;
+import com.cyphercor.logintc.AdminRestClient.TaggedResponse;
 import com.cyphercor.logintc.resource.BypassCode;
 import com.cyphercor.logintc.resource.Domain;
 import com.cyphercor.logintc.resource.HardwareToken;
@@ -27,12 +39,25 @@ import com.cyphercor.logintc.resource.User;
 /**
  * LoginTC Admin client to manage LoginTC users, domains, tokens and sessions.
  */
-public class LoginTC {
+public class LoginTC implements Closeable {
 
     private static final String NAME = "LoginTC-Java";
     private static final String VERSION = "1.1.4";
 
-    private static final SimpleDateFormat DATE_FORMAT_ISO8601 = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
+    /**
+     * Classes of API endpoints that can be rate limited independently.
+     */
+    public static enum Endpoint {
+        /**
+         * Session creation, polling and cancellation.
+         */
+        SESSIONS,
+
+        /**
+         * All other endpoints (users, domains, tokens, bypass codes, hardware tokens).
+         */
+        ADMIN;
+    }
 
     /**
      * A generic LoginTC client exception.
@@ -84,16 +109,27 @@ public class LoginTC {
 
         private String errorCode = null;
         private String errorMessage = null;
+        private Integer statusCode = null;
 
         /**
          * @param errorCode The error code.
          * @param errorMessage The error message.
          */
         public ApiLoginTCException(String errorCode, String errorMessage) {
+            this(errorCode, errorMessage, null);
+        }
+
+        /**
+         * @param errorCode The error code.
+         * @param errorMessage The error message.
+         * @param statusCode The HTTP status code of the response, or null if unknown.
+         */
+        public ApiLoginTCException(String errorCode, String errorMessage, Integer statusCode) {
             super(String.format("%s: %s", errorCode, errorMessage));
 
             this.errorCode = errorCode;
             this.errorMessage = errorMessage;
+            this.statusCode = statusCode;
         }
 
         /**
@@ -109,6 +145,14 @@ public class LoginTC {
         public String getErrorMessage() {
             return this.errorMessage;
         }
+
+        /**
+         * @return The HTTP status code of the response, or null if the error was not read from a response, such as a failed lookup
+         *         repeated from the negative cache.
+         */
+        public Integer getStatusCode() {
+            return this.statusCode;
+        }
     }
 
     /**
@@ -125,6 +169,65 @@ public class LoginTC {
         public NoTokenLoginTCException(String errorCode, String errorMessage) {
             super(errorCode, errorMessage);
         }
+
+        /**
+         * @param errorCode The error code.
+         * @param errorMessage The error message.
+         * @param statusCode The HTTP status code of the response, or null if unknown.
+         */
+        public NoTokenLoginTCException(String errorCode, String errorMessage, Integer statusCode) {
+            super(errorCode, errorMessage, statusCode);
+        }
+    }
+
+    /**
+     * Exception for requests rejected without being sent because the circuit breaker is open.
+     */
+    public class CircuitOpenLoginTCException extends LoginTCException {
+        private static final long serialVersionUID = -2202395796126271542L;
+
+        /**
+         * @param throwable The nested throwable.
+         */
+        public CircuitOpenLoginTCException(Throwable throwable) {
+            super(throwable);
+        }
+    }
+
+    /**
+     * Exception for calls that did not complete before their deadline.
+     */
+    public class DeadlineExceededLoginTCException extends LoginTCException {
+        private static final long serialVersionUID = 4570165917396457466L;
+
+        /**
+         * @param throwable The nested throwable.
+         */
+        public DeadlineExceededLoginTCException(Throwable throwable) {
+            super(throwable);
+        }
+    }
+
+    /**
+     * Unchecked wrapper of a LoginTCException thrown while iterating over paginated listings.
+     */
+    public class UncheckedLoginTCException extends RuntimeException {
+        private static final long serialVersionUID = -1843519427780569330L;
+
+        /**
+         * @param cause The failure of the call.
+         */
+        public UncheckedLoginTCException(LoginTCException cause) {
+            super(cause);
+        }
+
+        /**
+         * @return The failure of the call.
+         */
+        @Override
+        public LoginTCException getCause() {
+            return (LoginTCException) super.getCause();
+        }
     }
 
     /**
@@ -134,35 +237,100 @@ public class LoginTC {
         protected LoginTCException createException(RestAdminRestClientException restAdminClientException) {
             LoginTCException exception = new InternalLoginTCException(restAdminClientException);
 
+            String body = restAdminClientException.getBody();
+
+            if (body == null) {
+                return exception;
+            }
+
             try {
-                JSONObject jsonObject = getJson(restAdminClientException.getBody());
-                JSONArray errorsArray = jsonObject.getJSONArray("errors");
+                JsonCodec.Parser reader = jsonCodec.newParser(new StringReader(body));
 
-                JSONObject jsonError = errorsArray.getJSONObject(0);
-                String errorCode = jsonError.getString("code");
-                String errorMessage = jsonError.getString("message");
+                try {
+                    String[] error = readFirstError(reader);
 
-                if (errorCode.equals("api.error.notfound.token")) {
-                    exception = new NoTokenLoginTCException(errorCode, errorMessage);
-                } else {
-                    exception = new ApiLoginTCException(errorCode, errorMessage);
+                    if (error[0] != null && error[1] != null) {
+                        exception = createException(error[0], error[1], restAdminClientException.getStatusCode());
+                    }
+                } finally {
+                    reader.close();
                 }
-            } catch (JSONException e) {
+            } catch (IOException e) {
                 return exception;
             }
 
             return exception;
         }
 
-        protected LoginTCException createException(AdminRestClientException e) {
-            return new InternalLoginTCException(e);
+        /**
+         * @return The code and message of the first error of an error response.
+         */
+        private String[] readFirstError(JsonCodec.Parser reader) throws IOException {
+            String[] error = new String[2];
+
+            reader.beginObject();
+
+            while (reader.hasNext()) {
+                if (!reader.nextName().equals("errors")) {
+                    reader.skipValue();
+                    continue;
+                }
+
+                reader.beginArray();
+
+                if (reader.hasNext()) {
+                    reader.beginObject();
+
+                    while (reader.hasNext()) {
+                        String name = reader.nextName();
+
+                        if (name.equals("code")) {
+                            error[0] = reader.nextString();
+                        } else if (name.equals("message")) {
+                            error[1] = reader.nextString();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+
+                    reader.endObject();
+                }
+
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+
+                reader.endArray();
+            }
+
+            reader.endObject();
+
+            return error;
+        }
+
+        protected ApiLoginTCException createException(String errorCode, String errorMessage) {
+            return createException(errorCode, errorMessage, null);
+        }
+
+        protected ApiLoginTCException createException(String errorCode, String errorMessage, Integer statusCode) {
+            if (errorCode.equals("api.error.notfound.token")) {
+                return new NoTokenLoginTCException(errorCode, errorMessage, statusCode);
+            }
+
+            return new ApiLoginTCException(errorCode, errorMessage, statusCode);
         }
 
-        protected LoginTCException createException(JSONException e) {
+        protected LoginTCException createException(AdminRestClientException e) {
+            if (e instanceof CircuitOpenAdminRestClientException) {
+                return new CircuitOpenLoginTCException(e);
+            } else if (e instanceof DeadlineExceededAdminRestClientException) {
+                return new DeadlineExceededLoginTCException(e);
+            }
+
             return new InternalLoginTCException(e);
         }
 
-        protected LoginTCException createException(ParseException e) {
+        protected LoginTCException createException(IOException e) {
             return new InternalLoginTCException(e);
         }
     }
@@ -183,25 +351,251 @@ public class LoginTC {
     private LoginTCExceptionFactory exceptionFactory = null;
 
     /**
-     * Serialize a string into JSON.
-     * 
-     * @param json JSON string.
-     * @return The parsed JSON object.
-     * @throws JSONException If the input is not valid JSON
+     * Caches shared by a client and the clients derived from it.
+     */
+    private static class Caches {
+        private volatile UserCache users = null;
+        private volatile DomainCache domains = null;
+        private volatile NegativeCache negative = null;
+    }
+
+    private Caches caches = null;
+
+    /**
+     * Codec of the JSON exchanged with the API.
+     */
+    private volatile JsonCodec jsonCodec = new StreamingJsonCodec();
+
+
+    private void invalidateUser(String userId) {
+        UserCache userCache = caches.users;
+
+        if (userCache != null) {
+            userCache.invalidate(userId);
+        }
+    }
+
+    private void invalidateUsers(Predicate<User> predicate) {
+        UserCache userCache = caches.users;
+
+        if (userCache != null) {
+            userCache.invalidate(predicate);
+        }
+    }
+
+    /**
+     * Invalidate the current members of a domain and the users whose membership is being set, which may be created.
      */
-    private JSONObject getJson(String json) throws JSONException {
-        return (JSONObject) new JSONTokener(json).nextValue();
+    private void invalidateDomainUsers(final String domainId, List<User> users) {
+        final Set<String> usernames = new HashSet<String>();
+
+        for (User user : users) {
+            usernames.add(user.getUsername());
+        }
+
+        invalidateUsers(user -> usernames.contains(user.getUsername())
+                || (user.getDomains() != null && user.getDomains().contains(domainId)));
+
+        for (String username : usernames) {
+            invalidateNotFoundUsername(username);
+        }
     }
 
     /**
-     * Serialize a string into JSON.
+     * Fail a lookup locally if it failed recently because the user or token does not exist.
      * 
-     * @param json JSON string.
-     * @return The parsed JSON array.
-     * @throws JSONException If the input is not valid JSON
+     * @param key The lookup, or null if it is not cached.
+     * @return The negative cache generation to pass to {@link #rememberNotFound(String, long, LoginTCException)}.
+     * @throws LoginTCException the remembered failure.
      */
-    private JSONArray getJsonArray(String json) throws JSONException {
-        return (JSONArray) new JSONTokener(json).nextValue();
+    private long failFast(String key) throws LoginTCException {
+        NegativeCache negativeCache = caches.negative;
+
+        if (key == null || negativeCache == null) {
+            return 0;
+        }
+
+        NegativeCache.Failure failure = negativeCache.get(key);
+
+        if (failure != null) {
+            throw exceptionFactory.createException(failure.getErrorCode(), failure.getErrorMessage());
+        }
+
+        return negativeCache.getGeneration();
+    }
+
+    /**
+     * @param groups The groups the lookup is invalidated with, such as {@link #usernameGroup(String)} for a lookup by username.
+     * @return The exception, after remembering it if it reports a missing user or token.
+     */
+    private LoginTCException rememberNotFound(String key, long generation, LoginTCException e, String... groups) {
+        NegativeCache negativeCache = caches.negative;
+
+        if (key != null && negativeCache != null && e instanceof ApiLoginTCException) {
+            ApiLoginTCException apiException = (ApiLoginTCException) e;
+            String errorCode = apiException.getErrorCode();
+
+            if (errorCode.equals("api.error.notfound.token") || errorCode.equals("api.error.notfound.user")) {
+                negativeCache.put(key, errorCode, apiException.getErrorMessage(), generation, groups);
+            }
+        }
+
+        return e;
+    }
+
+    /**
+     * Forget the failed token lookups of a user who was just issued a token in the domain. A lookup by username is only found through the
+     * user cache; if the user is not cached, the failed lookups by username of the whole domain are forgotten.
+     */
+    private void invalidateNotFoundToken(String domainId, String userId) {
+        NegativeCache negativeCache = caches.negative;
+
+        if (negativeCache == null) {
+            return;
+        }
+
+        UserCache userCache = caches.users;
+        String username = userCache != null ? userCache.getUsername(userId) : null;
+
+        if (username != null) {
+            negativeCache.invalidate(tokenKey(domainId, userId));
+            negativeCache.invalidate(tokenKeyByUsername(domainId, username));
+        } else {
+            negativeCache.invalidate(tokenKey(domainId, userId), tokenGroupByUsername(domainId));
+        }
+    }
+
+    private static String tokenKey(String domainId, String userId) {
+        return String.format("token/%s/id/%s", domainId, userId);
+    }
+
+    private static String tokenKeyByUsername(String domainId, String username) {
+        return String.format("token/%s/username/%s", domainId, username);
+    }
+
+    private static String userKey(String userId) {
+        return String.format("user/id/%s", userId);
+    }
+
+    private static String userKeyByUsername(String username) {
+        return String.format("user/username/%s", username);
+    }
+
+    /**
+     * @return The group of the lookups by username, forgotten once a user is created under it.
+     */
+    private static String usernameGroup(String username) {
+        return String.format("username/%s", username);
+    }
+
+    /**
+     * @return The group of all token lookups by username in a domain.
+     */
+    private static String tokenGroupByUsername(String domainId) {
+        return String.format("token/%s", domainId);
+    }
+
+    /**
+     * Forget the failed lookups of a user created under the username: the user lookup and the token lookups remembered under it.
+     */
+    private void invalidateNotFoundUsername(String username) {
+        NegativeCache negativeCache = caches.negative;
+
+        if (negativeCache != null) {
+            negativeCache.invalidate(userKeyByUsername(username), usernameGroup(username));
+        }
+    }
+
+    /**
+     * A paginated listing call.
+     */
+    private interface Pager<T> {
+        List<T> getPage(int page) throws LoginTCException;
+    }
+
+    /**
+     * @param pager The listing call.
+     * @return The listing as a lazily fetched, prefetching iterable. Each iterator scans the listing from the first page.
+     */
+    private <T> Iterable<T> iterate(final Pager<T> pager) {
+        return new Iterable<T>() {
+            @Override
+            public Iterator<T> iterator() {
+                return pageIterator(pager);
+            }
+        };
+    }
+
+    /**
+     * @param pager The listing call.
+     * @return The listing as a lazily fetched, prefetching stream. Closing the stream cancels the page being prefetched.
+     */
+    private <T> Stream<T> stream(Pager<T> pager) {
+        PageIterator<T> iterator = pageIterator(pager);
+        Spliterator<T> spliterator = Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL);
+
+        return StreamSupport.stream(spliterator, false).onClose(iterator::close);
+    }
+
+    /**
+     * @param pager The listing call.
+     * @param parallelism The maximum number of pages fetched concurrently.
+     * @param sink Receiver of the listing, in page order.
+     * @throws LoginTCException if a call fails.
+     */
+    private <T> void export(Pager<T> pager, int parallelism, Consumer<? super T> sink) throws LoginTCException {
+        try {
+            new PageFanOut<T>(pageSource(pager), parallelism).run(sink);
+        } catch (UncheckedLoginTCException e) {
+            throw e.getCause();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InternalLoginTCException(e);
+        }
+    }
+
+    private <T> PageIterator<T> pageIterator(Pager<T> pager) {
+        return new PageIterator<T>(pageSource(pager));
+    }
+
+    private <T> PageIterator.PageSource<T> pageSource(final Pager<T> pager) {
+        return new PageIterator.PageSource<T>() {
+            @Override
+            public List<T> getPage(int page) {
+                try {
+                    return pager.getPage(page);
+                } catch (LoginTCException e) {
+                    throw new UncheckedLoginTCException(e);
+                }
+            }
+        };
+    }
+
+    private Pager<User> usersPager() {
+        return new Pager<User>() {
+            @Override
+            public List<User> getPage(int page) throws LoginTCException {
+                return getUsers(page);
+            }
+        };
+    }
+
+    private Pager<User> domainUsersPager(final String domainId) {
+        return new Pager<User>() {
+            @Override
+            public List<User> getPage(int page) throws LoginTCException {
+                return getDomainUsers(domainId, page);
+            }
+        };
+    }
+
+    private Pager<HardwareToken> hardwareTokensPager() {
+        return new Pager<HardwareToken>() {
+            @Override
+            public List<HardwareToken> getPage(int page) throws LoginTCException {
+                return getHardwareTokens(page);
+            }
+        };
     }
 
     /**
@@ -236,6 +630,7 @@ public class LoginTC {
      */
     public LoginTC(String apiKey, String host, Boolean secure, AdminRestClient adminRestClient) {
         this.exceptionFactory = new LoginTCExceptionFactory();
+        this.caches = new Caches();
 
         if (adminRestClient == null) {
             Integer port = null;
@@ -260,6 +655,30 @@ public class LoginTC {
         this.adminRestClient = adminRestClient;
     }
 
+    /**
+     * @param client The client to derive from.
+     * @param adminRestClient The LoginTC Admin REST client of the derived client.
+     */
+    private LoginTC(LoginTC client, AdminRestClient adminRestClient) {
+        this.exceptionFactory = new LoginTCExceptionFactory();
+        this.adminRestClient = adminRestClient;
+        this.caches = client.caches;
+        this.jsonCodec = client.jsonCodec;
+    }
+
+    /**
+     * Get a client whose calls are bounded by a deadline. Each call, including rate limiting, retries and backoff, fails with
+     * {@link DeadlineExceededLoginTCException} if it does not complete within the timeout. The returned client shares this client's
+     * connections and configuration; closing either closes both.
+     * 
+     * @param timeout Maximum duration of each call.
+     * @param unit The time unit of the timeout.
+     * @return A client bounded by the deadline.
+     */
+    public LoginTC withDeadline(long timeout, TimeUnit unit) {
+        return new LoginTC(this, adminRestClient.withCallTimeout(unit.toMillis(timeout)));
+    }
+
     /**
      * @param proxyHost The proxy host.
      * @param proxyPort The proxy port.
@@ -278,6 +697,238 @@ public class LoginTC {
         adminRestClient.setProxy(proxyHost, proxyPort, proxyUser, proxyPassword);
     }
 
+    /**
+     * Configure the connection pool. Connections are reused across threads, so a single client can safely be shared by concurrent
+     * callers.
+     * 
+     * @param maxTotal The maximum number of pooled connections. Default 20.
+     * @param maxPerRoute The maximum number of pooled connections to the LoginTC host. Default 20.
+     */
+    public void setMaxConnections(int maxTotal, int maxPerRoute) {
+        adminRestClient.setMaxConnections(maxTotal, maxPerRoute);
+    }
+
+    /**
+     * @param idleTimeout Time after which idle pooled connections are closed. Default 30 seconds.
+     * @param unit The time unit of the idle timeout.
+     */
+    public void setConnectionIdleTimeout(long idleTimeout, TimeUnit unit) {
+        adminRestClient.setConnectionIdleTimeout(unit.toMillis(idleTimeout));
+    }
+
+    /**
+     * @param keepAlive Maximum time a connection is kept alive for reuse when the server does not specify one. Default 30 seconds.
+     * @param unit The time unit of the keep-alive.
+     */
+    public void setConnectionKeepAlive(long keepAlive, TimeUnit unit) {
+        adminRestClient.setConnectionKeepAlive(unit.toMillis(keepAlive));
+    }
+
+    /**
+     * Configure transport timeouts. Defaults: 10 seconds to connect, 30 seconds between two packets of a response and 10 seconds to
+     * lease a pooled connection. The connect and socket timeouts are capped at {@link Integer#MAX_VALUE} milliseconds, about 24 days.
+     * 
+     * @param connectTimeout Time to establish a connection, 0 for no limit.
+     * @param socketTimeout Maximum time between two packets of a response, 0 for no limit.
+     * @param connectionRequestTimeout Time to lease a connection from the pool, 0 for no limit.
+     * @param unit The time unit of the timeouts.
+     */
+    public void setTimeouts(long connectTimeout, long socketTimeout, long connectionRequestTimeout, TimeUnit unit) {
+        adminRestClient.setTimeouts(toIntMillis(connectTimeout, unit), toIntMillis(socketTimeout, unit),
+                unit.toMillis(connectionRequestTimeout));
+    }
+
+    private static int toIntMillis(long duration, TimeUnit unit) {
+        return (int) Math.min(Integer.MAX_VALUE, unit.toMillis(duration));
+    }
+
+    /**
+     * Limit the request rate to a class of endpoints. Requests above the rate wait for their turn instead of failing.
+     * 
+     * @param endpoint The class of endpoints to limit.
+     * @param permitsPerSecond The sustained number of requests per second, or 0 to disable limiting. Default unlimited.
+     * @param burst The number of requests that may be sent back to back after a quiet period.
+     */
+    public void setRateLimit(Endpoint endpoint, double permitsPerSecond, int burst) {
+        adminRestClient.setRateLimit(endpoint, permitsPerSecond, burst);
+    }
+
+    /**
+     * Configure retries of throttled (429) and unavailable (502, 503, 504) responses. A Retry-After header sent by the server is
+     * honoured, otherwise retries back off exponentially with jitter. Default 3 retries, backing off from 250ms to 5s within 15s.
+     * 
+     * @param maxRetries Maximum number of retries, 0 to disable retries.
+     * @param initialBackoff Delay before the first retry.
+     * @param maxBackoff Maximum delay between two retries.
+     * @param maxRetryTime Time after the first attempt past which no retry is started.
+     * @param unit The time unit of the delays.
+     */
+    public void setRetryPolicy(int maxRetries, long initialBackoff, long maxBackoff, long maxRetryTime, TimeUnit unit) {
+        adminRestClient.setRetryPolicy(maxRetries, unit.toMillis(initialBackoff), unit.toMillis(maxBackoff), unit.toMillis(maxRetryTime));
+    }
+
+    /**
+     * Guard requests with a circuit breaker. After failureThreshold consecutive transport errors or 5xx responses, requests fail
+     * immediately with {@link CircuitOpenLoginTCException} for the open duration. The circuit is then probed with {@link #getPing()} on a
+     * background thread and closes again if the ping succeeds; requests made while the ping runs fail immediately too.
+     * 
+     * @param failureThreshold Number of consecutive failures that opens the circuit, or 0 to disable the circuit breaker.
+     * @param openDuration Time the circuit stays open before it is probed.
+     * @param unit The time unit of the open duration.
+     */
+    public void setCircuitBreaker(int failureThreshold, long openDuration, TimeUnit unit) {
+        if (failureThreshold <= 0) {
+            adminRestClient.setCircuitBreaker(null);
+            return;
+        }
+
+        adminRestClient.setCircuitBreaker(new CircuitBreaker(failureThreshold, openDuration, unit, new CircuitBreaker.Probe() {
+            @Override
+            public boolean probe() {
+                try {
+                    return getPing();
+                } catch (LoginTCException e) {
+                    return false;
+                }
+            }
+        }));
+    }
+
+    /**
+     * @return The circuit breaker, to inspect its state and transition counts, or null if disabled.
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return adminRestClient.getCircuitBreaker();
+    }
+
+    /**
+     * Let identical concurrent GET requests, such as simultaneous lookups of the same user, domain or token, share a single request.
+     * Calls with a deadline are never shared, since a shared request would end at the deadline of whichever call started it.
+     * 
+     * @param enabled True to coalesce requests.
+     */
+    public void setRequestCoalescing(boolean enabled) {
+        adminRestClient.setRequestCoalescing(enabled);
+    }
+
+    /**
+     * Cache users looked up with {@link #getUser(String)}, {@link #getUserByUsername(String)} and
+     * {@link #getDomainUser(String, String)}. Calls through this client that modify users invalidate the affected entries; changes made
+     * elsewhere are picked up once the entries expire.
+     * 
+     * @param maxSize The maximum number of cached users, 0 to disable caching.
+     * @param ttl Time after which a cached user is fetched again.
+     * @param unit The time unit of the ttl.
+     */
+    public void setUserCache(int maxSize, long ttl, TimeUnit unit) {
+        caches.users = maxSize > 0 ? new UserCache(maxSize, ttl, unit) : null;
+    }
+
+    /**
+     * @return The user cache, or null if disabled.
+     */
+    public UserCache getUserCache() {
+        return caches.users;
+    }
+
+    /**
+     * Cache domain settings and domain images looked up with {@link #getDomain(String)} and {@link #getDomainImage(String)}. Once an
+     * entry is older than the ttl it is still served while it is revalidated in the background, using If-None-Match when the server
+     * provides an ETag.
+     * 
+     * @param ttl Time a cached entry is served without revalidation, 0 to disable caching.
+     * @param maxStale Additional time a stale entry is served while it is revalidated.
+     * @param unit The time unit of the ttl and maximum staleness.
+     */
+    public void setDomainCache(long ttl, long maxStale, TimeUnit unit) {
+        caches.domains = ttl > 0 ? new DomainCache(ttl, maxStale, unit) : null;
+    }
+
+    /**
+     * @return The domain cache, or null if disabled.
+     */
+    public DomainCache getDomainCache() {
+        return caches.domains;
+    }
+
+    /**
+     * Remember lookups that fail because the user does not exist or has no token, and fail repeated lookups locally for the ttl. Covers
+     * {@link #getUser(String)}, {@link #getUserByUsername(String)}, {@link #getUserToken(String, String)} and session creation without a
+     * bypass code or OTP. Creating the user or the user's token through this client clears the affected entries.
+     * 
+     * @param maxSize The maximum number of remembered failures, 0 to disable.
+     * @param ttl Time a failure is repeated locally.
+     * @param unit The time unit of the ttl.
+     */
+    public void setNegativeCache(int maxSize, long ttl, TimeUnit unit) {
+        caches.negative = maxSize > 0 ? new NegativeCache(maxSize, ttl, unit) : null;
+    }
+
+    /**
+     * @return The negative cache, or null if disabled.
+     */
+    public NegativeCache getNegativeCache() {
+        return caches.negative;
+    }
+
+    /**
+     * Set the codec used to encode requests and decode responses, {@link StreamingJsonCodec} by default. Clients derived from this client
+     * afterwards, such as with {@link #withDeadline(long, TimeUnit)}, use the same codec.
+     * <p>
+     * Session creation requests, sent for every login, are always written straight to UTF-8 and do not go through the codec.
+     * 
+     * @param jsonCodec The codec.
+     */
+    public void setJsonCodec(JsonCodec jsonCodec) {
+        if (jsonCodec == null) {
+            throw new IllegalArgumentException("jsonCodec must not be null");
+        }
+
+        this.jsonCodec = jsonCodec;
+    }
+
+    /**
+     * @return The codec used to encode requests and decode responses.
+     */
+    public JsonCodec getJsonCodec() {
+        return jsonCodec;
+    }
+
+    /**
+     * Seed the enabled caches from a snapshot, so that a freshly started client can answer lookups without paging the API. Users are
+     * served until the user cache ttl has elapsed since the snapshot was taken, so a snapshot older than the ttl seeds no users; domains
+     * are revalidated on their first lookup.
+     * 
+     * @param snapshot The directory snapshot.
+     */
+    public void warmUp(DirectorySnapshot snapshot) {
+        UserCache users = caches.users;
+        DomainCache domains = caches.domains;
+
+        if (users != null) {
+            long generation = users.getGeneration();
+            long age = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - snapshot.getCreatedAt().getTime());
+
+            for (User user : snapshot.getUsers()) {
+                users.put(user, generation, age);
+            }
+        }
+
+        if (domains != null) {
+            for (Domain domain : snapshot.getDomains()) {
+                domains.seed(domain);
+            }
+        }
+    }
+
+    /**
+     * Close all pooled connections and release background resources. The client must not be used afterwards.
+     */
+    @Override
+    public void close() {
+        adminRestClient.shutdown();
+    }
+
     /**
      * Get user info.
      * 
@@ -286,39 +937,38 @@ public class LoginTC {
      * @throws LoginTCException if the call fails.
      */
     public User getUser(String userId) throws LoginTCException {
-        User user = null;
-
-        try {
-            JSONObject jsonObject = getJson(adminRestClient.get(String.format("/api/users/%s", userId)));
-            JSONArray jsonDomains = jsonObject.getJSONArray("domains");
+        UserCache userCache = caches.users;
 
-            List<String> domains = new ArrayList<String>();
+        if (userCache == null) {
+            return fetchUser(userId);
+        }
 
-            for (int i = 0; i < jsonDomains.length(); i++) {
-                domains.add(jsonDomains.getString(i));
-            }
+        User user = userCache.get(userId);
 
-            List<String> bypassCodes = new ArrayList<String>();
+        if (user == null) {
+            long generation = userCache.getGeneration();
+            user = fetchUser(userId);
+            userCache.put(user, generation);
+        }
 
-            if (jsonObject.has("bypasscodes")) {
-                JSONArray jsonBypassCodes = jsonObject.getJSONArray("bypasscodes");
+        return user;
+    }
 
-                for (int i = 0; i < jsonBypassCodes.length(); i++) {
-                    bypassCodes.add(jsonBypassCodes.getString(i));
-                }
-            }
+    /**
+     * Get user info from the API, bypassing the user cache.
+     */
+    private User fetchUser(String userId) throws LoginTCException {
+        String negativeKey = userKey(userId);
+        long negativeGeneration = failFast(negativeKey);
 
-            String id = jsonObject.getString("id");
-            String username = jsonObject.getString("username");
-            String email = jsonObject.getString("email");
-            String name = jsonObject.getString("name");
-            String hardware = jsonObject.getString("hardware");
+        User user = null;
 
-            user = new User(id, username, email, name, domains, bypassCodes, hardware);
-        } catch (JSONException e) {
+        try {
+            user = ResourceMapper.USER.read(jsonCodec, adminRestClient.get(String.format("/api/users/%s", userId)));
+        } catch (IOException e) {
             throw exceptionFactory.createException(e);
         } catch (RestAdminRestClientException e) {
-            throw exceptionFactory.createException(e);
+            throw rememberNotFound(negativeKey, negativeGeneration, exceptionFactory.createException(e));
         } catch (AdminRestClientException e) {
             throw exceptionFactory.createException(e);
         }
@@ -334,39 +984,39 @@ public class LoginTC {
      * @throws LoginTCException if the call fails.
      */
     public User getUserByUsername(String username) throws LoginTCException {
-        User user = null;
-
-        try {
-            JSONObject jsonObject = getJson(adminRestClient.get(String.format("/api/users"), String.format("username=%s", username)));
-            JSONArray jsonDomains = jsonObject.getJSONArray("domains");
+        UserCache userCache = caches.users;
 
-            List<String> domains = new ArrayList<String>();
+        if (userCache == null) {
+            return fetchUserByUsername(username);
+        }
 
-            for (int i = 0; i < jsonDomains.length(); i++) {
-                domains.add(jsonDomains.getString(i));
-            }
+        User user = userCache.getByUsername(username);
 
-            List<String> bypassCodes = new ArrayList<String>();
+        if (user == null) {
+            long generation = userCache.getGeneration();
+            user = fetchUserByUsername(username);
+            userCache.put(user, generation);
+        }
 
-            if (jsonObject.has("bypasscodes")) {
-                JSONArray jsonBypassCodes = jsonObject.getJSONArray("bypasscodes");
+        return user;
+    }
 
-                for (int i = 0; i < jsonBypassCodes.length(); i++) {
-                    bypassCodes.add(jsonBypassCodes.getString(i));
-                }
-            }
+    /**
+     * Get user info from the API, bypassing the user cache.
+     */
+    private User fetchUserByUsername(String username) throws LoginTCException {
+        String negativeKey = userKeyByUsername(username);
+        long negativeGeneration = failFast(negativeKey);
 
-            String id = jsonObject.getString("id");
-            String userUsername = jsonObject.getString("username");
-            String email = jsonObject.getString("email");
-            String name = jsonObject.getString("name");
-            String hardware = jsonObject.getString("hardware");
+        User user = null;
 
-            user = new User(id, userUsername, email, name, domains, bypassCodes, hardware);
-        } catch (JSONException e) {
+        try {
+            user = ResourceMapper.USER.read(jsonCodec,
+                    adminRestClient.get(String.format("/api/users"), String.format("username=%s", username)));
+        } catch (IOException e) {
             throw exceptionFactory.createException(e);
         } catch (RestAdminRestClientException e) {
-            throw exceptionFactory.createException(e);
+            throw rememberNotFound(negativeKey, negativeGeneration, exceptionFactory.createException(e));
         } catch (AdminRestClientException e) {
             throw exceptionFactory.createException(e);
         }
@@ -392,45 +1042,59 @@ public class LoginTC {
      * @throws LoginTCException if the call fails.
      */
     public List<User> getUsers(Integer page) throws LoginTCException {
-        List<User> users = new ArrayList<User>();
         try {
-            JSONArray jsonArray = getJsonArray(adminRestClient.get(String.format("/api/users"), String.format("page=%d", page)));
-
-            for (int i = 0; i < jsonArray.length(); i++) {
-                JSONObject userObject = jsonArray.getJSONObject(i);
-                JSONArray jsonDomains = userObject.getJSONArray("domains");
-                List<String> domains = new ArrayList<String>();
-                for (int j = 0; j < jsonDomains.length(); j++) {
-                    domains.add(jsonDomains.getString(j));
-                }
-                List<String> bypassCodes = new ArrayList<String>();
-
-                if (userObject.has("bypasscodes")) {
-                    JSONArray jsonBypassCodes = userObject.getJSONArray("bypasscodes");
-
-                    for (int k = 0; k < jsonBypassCodes.length(); k++) {
-                        bypassCodes.add(jsonBypassCodes.getString(k));
-                    }
-                }
-                String id = userObject.getString("id");
-                String username = userObject.getString("username");
-                String email = userObject.getString("email");
-                String name = userObject.getString("name");
-                String hardware = userObject.getString("hardware");
-
-                users.add(new User(id, username, email, name, domains, bypassCodes, hardware));
-            }
-        } catch (JSONException e) {
-            throw exceptionFactory.createException(e);
+            return adminRestClient.get(String.format("/api/users"), String.format("page=%d", page), ResourceMapper.USER.list(jsonCodec));
         } catch (RestAdminRestClientException e) {
             throw exceptionFactory.createException(e);
         } catch (AdminRestClientException e) {
             throw exceptionFactory.createException(e);
         }
+    }
+
+    /**
+     * Get all users from organization. Pages are fetched as the iteration reaches them, the next page in the background. Failures are
+     * thrown as {@link UncheckedLoginTCException}.
+     * 
+     * @return Iterable over all users
+     */
+    public Iterable<User> iterateUsers() {
+        return iterate(usersPager());
+    }
+
+    /**
+     * Get all users from organization as a stream. See {@link #iterateUsers()}.
+     * 
+     * @return Stream of all users
+     */
+    public Stream<User> streamUsers() {
+        return stream(usersPager());
+    }
 
+    /**
+     * Get all users from organization, fetching pages concurrently.
+     * 
+     * @param parallelism The maximum number of pages fetched concurrently
+     * @return List of all users, in page order
+     * @throws LoginTCException if the call fails.
+     */
+    public List<User> exportUsers(int parallelism) throws LoginTCException {
+        List<User> users = new ArrayList<User>();
+        exportUsers(parallelism, users::add);
         return users;
     }
 
+    /**
+     * Get all users from organization, fetching pages concurrently. Users are passed to the sink in page order from the calling thread;
+     * only the pages in flight are held in memory.
+     * 
+     * @param parallelism The maximum number of pages fetched concurrently
+     * @param sink Receiver of the users
+     * @throws LoginTCException if the call fails.
+     */
+    public void exportUsers(int parallelism, Consumer<? super User> sink) throws LoginTCException {
+        export(usersPager(), parallelism, sink);
+    }
+
     /**
      * Create a new user.
      * 
@@ -441,46 +1105,22 @@ public class LoginTC {
      * @throws LoginTCException if the call fails.
      */
     public User createUser(String username, String email, String name) throws LoginTCException {
+        String requestedUsername = username;
         User user = null;
 
         try {
-            JSONObject jsonObject = new JSONObject();
-            jsonObject.put("username", username);
-            jsonObject.put("email", email);
-            jsonObject.put("name", name);
-
-            jsonObject = getJson(adminRestClient.post("/api/users", jsonObject.toString()));
-            JSONArray jsonDomains = jsonObject.getJSONArray("domains");
-
-            List<String> domains = new ArrayList<String>();
-
-            for (int i = 0; i < jsonDomains.length(); i++) {
-                domains.add(jsonDomains.getString(i));
-            }
-
-            List<String> bypassCodes = new ArrayList<String>();
-
-            if (jsonObject.has("bypasscodes")) {
-                JSONArray jsonBypassCodes = jsonObject.getJSONArray("bypasscodes");
-
-                for (int i = 0; i < jsonBypassCodes.length(); i++) {
-                    bypassCodes.add(jsonBypassCodes.getString(i));
-                }
-            }
-
-            String id = jsonObject.getString("id");
-            username = jsonObject.getString("username");
-            email = jsonObject.getString("email");
-            name = jsonObject.getString("name");
-            String hardware = jsonObject.getString("hardware");
+            String body = jsonCodec.newGenerator().beginObject().member("username", username).member("email", email).member("name", name)
+                    .endObject().toJson();
 
-            user = new User(id, username, email, name, domains, bypassCodes, hardware);
-        } catch (JSONException e) {
+            user = ResourceMapper.USER.read(jsonCodec, adminRestClient.post("/api/users", body));
+        } catch (IOException e) {
             throw exceptionFactory.createException(e);
         } catch (RestAdminRestClientException e) {
             throw exceptionFactory.createException(e);
         } catch (AdminRestClientException e) {
             throw exceptionFactory.createException(e);
+        } finally {
+            invalidateNotFoundUsername(requestedUsername);
         }
 
         return user;
@@ -499,48 +1139,17 @@ public class LoginTC {
         User user = null;
 
         try {
-            JSONObject jsonObject = new JSONObject();
+            String body = jsonCodec.newGenerator().beginObject().member("email", email).member("name", name).endObject().toJson();
 
-            if (email != null) {
-                jsonObject.put("email", email);
-            }
-
-            if (name != null) {
-                jsonObject.put("name", name);
-            }
-
-            jsonObject = getJson(adminRestClient.put(String.format("/api/users/%s", userId), jsonObject.toString()));
-            JSONArray jsonDomains = jsonObject.getJSONArray("domains");
-
-            List<String> domains = new ArrayList<String>();
-
-            for (int i = 0; i < jsonDomains.length(); i++) {
-                domains.add(jsonDomains.getString(i));
-            }
-
-            List<String> bypassCodes = new ArrayList<String>();
-
-            if (jsonObject.has("bypasscodes")) {
-                JSONArray jsonBypassCodes = jsonObject.getJSONArray("bypasscodes");
-
-                for (int i = 0; i < jsonBypassCodes.length(); i++) {
-                    bypassCodes.add(jsonBypassCodes.getString(i));
-                }
-            }
-
-            String id = jsonObject.getString("id");
-            String username = jsonObject.getString("username");
-            email = jsonObject.getString("email");
-            name = jsonObject.getString("name");
-            String hardware = jsonObject.getString("hardware");
-
-            user = new User(id, username, email, name, domains, bypassCodes, hardware);
-        } catch (JSONException e) {
+            user = ResourceMapper.USER.read(jsonCodec, adminRestClient.put(String.format("/api/users/%s", userId), body));
+        } catch (IOException e) {
             throw exceptionFactory.createException(e);
         } catch (RestAdminRestClientException e) {
             throw exceptionFactory.createException(e);
         } catch (AdminRestClientException e) {
             throw exceptionFactory.createException(e);
+        } finally {
+            invalidateUser(userId);
         }
 
         return user;
@@ -559,6 +1168,8 @@ public class LoginTC {
             throw exceptionFactory.createException(e);
         } catch (AdminRestClientException e) {
             throw exceptionFactory.createException(e);
+        } finally {
+            invalidateUser(userId);
         }
     }
 
@@ -576,6 +1187,8 @@ public class LoginTC {
             throw exceptionFactory.createException(e);
         } catch (AdminRestClientException e) {
             throw exceptionFactory.createException(e);
+        } finally {
+            invalidateUser(userId);
         }
     }
 
@@ -590,23 +1203,20 @@ public class LoginTC {
      */
     public void setDomainUsers(String domainId, List<User> users) throws LoginTCException {
         try {
-            JSONArray jsonArray = new JSONArray();
+            JsonCodec.Generator generator = jsonCodec.newGenerator().beginArray();
 
             for (User user : users) {
-                JSONObject jsonObject = new JSONObject();
-                jsonObject.put("username", user.getUsername());
-                jsonObject.put("email", user.getEmail());
-                jsonObject.put("name", user.getName());
-                jsonArray.put(jsonObject);
+                generator.beginObject().member("username", user.getUsername()).member("email", user.getEmail())
+                        .member("name", user.getName()).endObject();
             }
 
-            adminRestClient.put(String.format("/api/domains/%s/users", domainId), jsonArray.toString());
-        } catch (JSONException e) {
-            throw exceptionFactory.createException(e);
+            adminRestClient.put(String.format("/api/domains/%s/users", domainId), generator.endArray().toJson());
         } catch (RestAdminRestClientException e) {
             throw exceptionFactory.createException(e);
         } catch (AdminRestClientException e) {
             throw exceptionFactory.createException(e);
+        } finally {
+            invalidateDomainUsers(domainId, users);
         }
     }
 
@@ -624,6 +1234,8 @@ public class LoginTC {
             throw exceptionFactory.createException(e);
         } catch (AdminRestClientException e) {
             throw exceptionFactory.createException(e);
+        } finally {
+            invalidateUser(userId);
         }
     }
 
@@ -639,18 +1251,16 @@ public class LoginTC {
         Token token = null;
 
         try {
-            JSONObject jsonObject = getJson(adminRestClient.put(String.format("/api/domains/%s/users/%s/token", domainId, userId), null));
-
-            Token.State state = Token.State.valueOf((String) jsonObject.getString("state").toUpperCase(Locale.ENGLISH));
-            String code = jsonObject.has("code") ? jsonObject.getString("code") : null;
-
-            token = new Token(state, code);
-        } catch (JSONException e) {
+            token = ResourceMapper.TOKEN.read(jsonCodec,
+                    adminRestClient.put(String.format("/api/domains/%s/users/%s/token", domainId, userId), null));
+        } catch (IOException e) {
             throw exceptionFactory.createException(e);
         } catch (RestAdminRestClientException e) {
             throw exceptionFactory.createException(e);
         } catch (AdminRestClientException e) {
             throw exceptionFactory.createException(e);
+        } finally {
+            invalidateNotFoundToken(domainId, userId);
         }
 
         return token;
@@ -665,19 +1275,18 @@ public class LoginTC {
      * @throws LoginTCException if the call fails.
      */
     public Token getUserToken(String domainId, String userId) throws LoginTCException {
+        String negativeKey = tokenKey(domainId, userId);
+        long negativeGeneration = failFast(negativeKey);
+
         Token token = null;
 
         try {
-            JSONObject jsonObject = getJson(adminRestClient.get(String.format("/api/domains/%s/users/%s/token", domainId, userId)));
-
-            Token.State state = Token.State.valueOf((String) jsonObject.getString("state").toUpperCase(Locale.ENGLISH));
-            String code = jsonObject.has("code") ? jsonObject.getString("code") : null;
-
-            token = new Token(state, code);
-        } catch (JSONException e) {
+            token = ResourceMapper.TOKEN.read(jsonCodec,
+                    adminRestClient.get(String.format("/api/domains/%s/users/%s/token", domainId, userId)));
+        } catch (IOException e) {
             throw exceptionFactory.createException(e);
         } catch (RestAdminRestClientException e) {
-            throw exceptionFactory.createException(e);
+            throw rememberNotFound(negativeKey, negativeGeneration, exceptionFactory.createException(e));
         } catch (AdminRestClientException e) {
             throw exceptionFactory.createException(e);
         }
@@ -734,47 +1343,17 @@ public class LoginTC {
             String otp)
             throws NoTokenLoginTCException,
             LoginTCException {
+        String negativeKey = bypassCode == null && otp == null ? tokenKey(domainId, userId) : null;
+        long negativeGeneration = failFast(negativeKey);
+
         Session session = null;
 
         try {
-            JSONObject jsonObject = new JSONObject();
-            JSONArray attributesArray = new JSONArray();
-
-            if (attributes != null) {
-                for (Map.Entry<String, String> entry : attributes.entrySet()) {
-                    JSONObject attributeObject = new JSONObject();
-                    attributeObject.put("key", entry.getKey());
-                    attributeObject.put("value", entry.getValue());
-                    attributesArray.put(attributeObject);
-                }
-            }
-
-            JSONObject jsonUserObject = new JSONObject();
-            jsonUserObject.put("id", userId);
-
-            jsonObject.put("user", jsonUserObject);
-            jsonObject.put("attributes", attributesArray);
-
-            if (ipAddress != null && !ipAddress.isEmpty()) {
-                jsonObject.put("ipAddress", ipAddress);
-            }
-
-            if (bypassCode != null) {
-                jsonObject.put("bypasscode", bypassCode);
-            } else if (otp != null) {
-                jsonObject.put("otp", otp);
-            }
-
-            jsonObject = getJson(adminRestClient.post(String.format("/api/domains/%s/sessions", domainId), jsonObject.toString()));
-
-            String id = jsonObject.getString("id");
-            Session.State state = Session.State.valueOf((String) jsonObject.getString("state").toUpperCase(Locale.ENGLISH));
-
-            session = new Session(id, state);
-        } catch (JSONException e) {
+            session = postSession(domainId, "id", userId, attributes, ipAddress, bypassCode, otp);
+        } catch (IOException e) {
             throw exceptionFactory.createException(e);
         } catch (RestAdminRestClientException e) {
-            throw exceptionFactory.createException(e);
+            throw rememberNotFound(negativeKey, negativeGeneration, exceptionFactory.createException(e));
         } catch (AdminRestClientException e) {
             throw exceptionFactory.createException(e);
         }
@@ -815,47 +1394,18 @@ public class LoginTC {
             String bypassCode, String otp)
             throws NoTokenLoginTCException,
             LoginTCException {
+        String negativeKey = bypassCode == null && otp == null ? tokenKeyByUsername(domainId, username) : null;
+        long negativeGeneration = failFast(negativeKey);
+
         Session session = null;
 
         try {
-            JSONObject jsonObject = new JSONObject();
-            JSONArray attributesArray = new JSONArray();
-
-            if (attributes != null) {
-                for (Map.Entry<String, String> entry : attributes.entrySet()) {
-                    JSONObject attributeObject = new JSONObject();
-                    attributeObject.put("key", entry.getKey());
-                    attributeObject.put("value", entry.getValue());
-                    attributesArray.put(attributeObject);
-                }
-            }
-
-            JSONObject jsonUserObject = new JSONObject();
-            jsonUserObject.put("username", username);
-
-            jsonObject.put("user", jsonUserObject);
-            jsonObject.put("attributes", attributesArray);
-
-            if (ipAddress != null && !ipAddress.isEmpty()) {
-                jsonObject.put("ipAddress", ipAddress);
-            }
-
-            if (bypassCode != null && !bypassCode.isEmpty()) {
-                jsonObject.put("bypasscode", bypassCode);
-            } else if (otp != null && !otp.isEmpty()) {
-                jsonObject.put("otp", otp);
-            }
-
-            jsonObject = getJson(adminRestClient.post(String.format("/api/domains/%s/sessions", domainId), jsonObject.toString()));
-
-            String id = jsonObject.getString("id");
-            Session.State state = Session.State.valueOf((String) jsonObject.getString("state").toUpperCase(Locale.ENGLISH));
-
-            session = new Session(id, state);
-        } catch (JSONException e) {
+            session = postSession(domainId, "username", username, attributes, ipAddress, emptyToNull(bypassCode), emptyToNull(otp));
+        } catch (IOException e) {
             throw exceptionFactory.createException(e);
         } catch (RestAdminRestClientException e) {
-            throw exceptionFactory.createException(e);
+            throw rememberNotFound(negativeKey, negativeGeneration, exceptionFactory.createException(e), usernameGroup(username),
+                    tokenGroupByUsername(domainId));
         } catch (AdminRestClientException e) {
             throw exceptionFactory.createException(e);
         }
@@ -863,6 +1413,24 @@ public class LoginTC {
         return session;
     }
 
+    /**
+     * Post a session creation request, written straight to UTF-8 by {@link SessionRequestWriter}.
+     * 
+     * @param userField The member identifying the user, either "id" or "username".
+     * @param bypassCode The bypass code, or null.
+     * @param otp The one-time password, or null. Ignored if a bypass code is given.
+     */
+    private Session postSession(String domainId, String userField, String user, Map<String, String> attributes, String ipAddress,
+            String bypassCode, String otp) throws IOException, AdminRestClientException {
+        HttpEntity body = SessionRequestWriter.write(userField, user, attributes, ipAddress, bypassCode, otp);
+
+        return ResourceMapper.SESSION.read(jsonCodec, adminRestClient.post(String.format("/api/domains/%s/sessions", domainId), body));
+    }
+
+    private static String emptyToNull(String value) {
+        return value != null && value.isEmpty() ? null : value;
+    }
+
     /**
      * Get a session's information.
      * 
@@ -876,12 +1444,10 @@ public class LoginTC {
         Session session = null;
 
         try {
-            JSONObject jsonObject = getJson(adminRestClient.get(String.format("/api/domains/%s/sessions/%s", domainId, sessionId)));
-
-            Session.State state = Session.State.valueOf((String) jsonObject.getString("state").toUpperCase(Locale.ENGLISH));
+            String body = adminRestClient.get(String.format("/api/domains/%s/sessions/%s", domainId, sessionId));
 
-            session = new Session(sessionId, state);
-        } catch (JSONException e) {
+            session = new Session(sessionId, ResourceMapper.SESSION_STATE.read(jsonCodec, body));
+        } catch (IOException e) {
             throw exceptionFactory.createException(e);
         } catch (RestAdminRestClientException e) {
             throw exceptionFactory.createException(e);
@@ -918,12 +1484,8 @@ public class LoginTC {
     public boolean getPing() throws LoginTCException {
         boolean status = false;
         try {
-            JSONObject jsonObject = getJson(adminRestClient.get("/api/ping"));
-            if (jsonObject.getString("status").equals("OK")) {
-                status = true;
-            }
-
-        } catch (JSONException e) {
+            status = ResourceMapper.PING.read(jsonCodec, adminRestClient.get("/api/ping"));
+        } catch (IOException e) {
             throw exceptionFactory.createException(e);
         } catch (RestAdminRestClientException e) {
             throw exceptionFactory.createException(e);
@@ -941,11 +1503,8 @@ public class LoginTC {
     public Organization getOrganization() throws LoginTCException {
         Organization organization = null;
         try {
-            JSONObject jsonObject = getJson(adminRestClient.get("/api/organization"));
-            String organizationName = jsonObject.getString("name");
-            organization = new Organization(organizationName);
-
-        } catch (JSONException e) {
+            organization = ResourceMapper.ORGANIZATION.read(jsonCodec, adminRestClient.get("/api/organization"));
+        } catch (IOException e) {
             throw exceptionFactory.createException(e);
         } catch (RestAdminRestClientException e) {
             throw exceptionFactory.createException(e);
@@ -963,22 +1522,32 @@ public class LoginTC {
      * @return The requested Domain
      * @throws LoginTCException if the call fails.
      */
-    public Domain getDomain(String domainId) throws LoginTCException {
+    public Domain getDomain(final String domainId) throws LoginTCException {
+        DomainCache domainCache = caches.domains;
+
+        if (domainCache != null) {
+            return domainCache.getDomain(domainId, new DomainCache.Loader<Domain>() {
+                @Override
+                public TaggedResponse<Domain> load(String etag) throws LoginTCException {
+                    try {
+                        TaggedResponse<String> response = adminRestClient.getIfNoneMatch(String.format("/api/domains/%s", domainId), etag);
+                        return response != null ? new TaggedResponse<Domain>(ResourceMapper.DOMAIN.read(jsonCodec, response.getBody()),
+                                response.getETag()) : null;
+                    } catch (IOException e) {
+                        throw exceptionFactory.createException(e);
+                    } catch (RestAdminRestClientException e) {
+                        throw exceptionFactory.createException(e);
+                    } catch (AdminRestClientException e) {
+                        throw exceptionFactory.createException(e);
+                    }
+                }
+            });
+        }
+
         Domain domain = null;
         try {
-            JSONObject jsonObject = getJson(adminRestClient.get(String.format("/api/domains/%s", domainId)));
-            String id = jsonObject.getString("id");
-            String name = jsonObject.getString("name");
-            String type = jsonObject.getString("type");
-            String keyType = jsonObject.getString("keyType");
-            Integer maxAllowedRetries = jsonObject.getInt("maxAllowedRetries");
-            Integer requestTimeout = jsonObject.getInt("requestTimeout");
-            Integer activationCodeExpiration = jsonObject.getInt("activationCodeExpiration");
-            Boolean requestPollingEnabled = jsonObject.getBoolean("requestPollingEnabled");
-            Boolean bypassEnabled = jsonObject.getBoolean("bypassEnabled");
-            domain = new Domain(id, name, type, keyType, maxAllowedRetries, requestTimeout, activationCodeExpiration,
-                    requestPollingEnabled, bypassEnabled);
-        } catch (JSONException e) {
+            domain = ResourceMapper.DOMAIN.read(jsonCodec, adminRestClient.get(String.format("/api/domains/%s", domainId)));
+        } catch (IOException e) {
             throw exceptionFactory.createException(e);
         } catch (RestAdminRestClientException e) {
             throw exceptionFactory.createException(e);
@@ -996,7 +1565,24 @@ public class LoginTC {
      * @return The requested image as a byte array
      * @throws LoginTCException if the call fails.
      */
-    public byte[] getDomainImage(String domainId) throws LoginTCException {
+    public byte[] getDomainImage(final String domainId) throws LoginTCException {
+        DomainCache domainCache = caches.domains;
+
+        if (domainCache != null) {
+            return domainCache.getImage(domainId, new DomainCache.Loader<byte[]>() {
+                @Override
+                public TaggedResponse<byte[]> load(String etag) throws LoginTCException {
+                    try {
+                        return adminRestClient.getBytesIfNoneMatch(String.format("/api/domains/%s/image", domainId), "image/png", etag);
+                    } catch (RestAdminRestClientException e) {
+                        throw exceptionFactory.createException(e);
+                    } catch (AdminRestClientException e) {
+                        throw exceptionFactory.createException(e);
+                    }
+                }
+            });
+        }
+
         byte[] image = null;
         try {
             image = adminRestClient.getBytes(String.format("/api/domains/%s/image", domainId), "image/png");
@@ -1009,6 +1595,66 @@ public class LoginTC {
         return image;
     }
 
+    /**
+     * Get domain image, copied to a stream as it is downloaded rather than held in memory. If the domain cache is enabled the image is
+     * served from the cache instead.
+     * 
+     * @param domainId The domain identifier.
+     * @param out The stream the image is written to. It is not closed.
+     * @return The size of the image in bytes.
+     * @throws LoginTCException if the call fails or the stream cannot be written.
+     */
+    public long getDomainImage(String domainId, OutputStream out) throws LoginTCException {
+        if (caches.domains != null) {
+            byte[] image = getDomainImage(domainId);
+
+            try {
+                out.write(image);
+            } catch (IOException e) {
+                throw exceptionFactory.createException(e);
+            }
+
+            return image.length;
+        }
+
+        try {
+            return adminRestClient.getBytes(String.format("/api/domains/%s/image", domainId), "image/png", out);
+        } catch (RestAdminRestClientException e) {
+            throw exceptionFactory.createException(e);
+        } catch (AdminRestClientException e) {
+            throw exceptionFactory.createException(e);
+        }
+    }
+
+    /**
+     * Get domain image, transferred to a file as it is downloaded rather than held in memory. The file is replaced atomically, so it is
+     * never left partially written. If the domain cache is enabled the image is served from the cache instead.
+     * 
+     * @param domainId The domain identifier.
+     * @param file The file the image is written to.
+     * @return The size of the image in bytes.
+     * @throws LoginTCException if the call fails or the file cannot be written.
+     */
+    public long getDomainImage(String domainId, Path file) throws LoginTCException {
+        if (caches.domains != null) {
+            byte[] image = getDomainImage(domainId);
+
+            try {
+                return FileTransfer.transfer(new ByteArrayInputStream(image), image.length, file);
+            } catch (IOException e) {
+                throw exceptionFactory.createException(e);
+            }
+        }
+
+        try {
+            return adminRestClient.getBytes(String.format("/api/domains/%s/image", domainId), "image/png", file);
+        } catch (RestAdminRestClientException e) {
+            throw exceptionFactory.createException(e);
+        } catch (AdminRestClientException e) {
+            throw exceptionFactory.createException(e);
+        }
+    }
+
     /**
      * Get user info.
      * 
@@ -1018,35 +1664,32 @@ public class LoginTC {
      * @throws LoginTCException if the call fails.
      */
     public User getDomainUser(String domainId, String userId) throws LoginTCException {
-        User user = null;
-        try {
-            JSONObject jsonObject = getJson(adminRestClient.get(String.format("/api/domains/%s/users/%s", domainId, userId)));
-            JSONArray jsonDomains = jsonObject.getJSONArray("domains");
+        UserCache userCache = caches.users;
 
-            List<String> domains = new ArrayList<String>();
-
-            for (int i = 0; i < jsonDomains.length(); i++) {
-                domains.add(jsonDomains.getString(i));
-            }
-
-            List<String> bypassCodes = new ArrayList<String>();
+        if (userCache == null) {
+            return fetchDomainUser(domainId, userId);
+        }
 
-            if (jsonObject.has("bypasscodes")) {
-                JSONArray jsonBypassCodes = jsonObject.getJSONArray("bypasscodes");
+        // A cached user serves the lookup only if it is a member of the domain; otherwise the API decides
+        User user = userCache.get(userId);
 
-                for (int i = 0; i < jsonBypassCodes.length(); i++) {
-                    bypassCodes.add(jsonBypassCodes.getString(i));
-                }
-            }
+        if (user == null || user.getDomains() == null || !user.getDomains().contains(domainId)) {
+            long generation = userCache.getGeneration();
+            user = fetchDomainUser(domainId, userId);
+            userCache.put(user, generation);
+        }
 
-            String id = jsonObject.getString("id");
-            String username = jsonObject.getString("username");
-            String email = jsonObject.getString("email");
-            String name = jsonObject.getString("name");
-            String hardware = jsonObject.getString("hardware");
+        return user;
+    }
 
-            user = new User(id, username, email, name, domains, bypassCodes, hardware);
-        } catch (JSONException e) {
+    /**
+     * Get domain user info from the API, bypassing the user cache.
+     */
+    private User fetchDomainUser(String domainId, String userId) throws LoginTCException {
+        User user = null;
+        try {
+            user = ResourceMapper.USER.read(jsonCodec, adminRestClient.get(String.format("/api/domains/%s/users/%s", domainId, userId)));
+        } catch (IOException e) {
             throw exceptionFactory.createException(e);
         } catch (RestAdminRestClientException e) {
             throw exceptionFactory.createException(e);
@@ -1077,46 +1720,64 @@ public class LoginTC {
      * @throws LoginTCException if the call fails.
      */
     public List<User> getDomainUsers(String domainId, Integer page) throws LoginTCException {
-        List<User> users = new ArrayList<User>();
         try {
-            JSONArray jsonArray = getJsonArray(adminRestClient.get(String.format("/api/domains/%s/users", domainId),
-                    String.format("page=%d", page)));
-
-            for (int i = 0; i < jsonArray.length(); i++) {
-                JSONObject userObject = jsonArray.getJSONObject(i);
-                JSONArray jsonDomains = userObject.getJSONArray("domains");
-                List<String> domains = new ArrayList<String>();
-                for (int j = 0; j < jsonDomains.length(); j++) {
-                    domains.add(jsonDomains.getString(j));
-                }
-                List<String> bypassCodes = new ArrayList<String>();
-
-                if (userObject.has("bypasscodes")) {
-                    JSONArray jsonBypassCodes = userObject.getJSONArray("bypasscodes");
-
-                    for (int k = 0; k < jsonBypassCodes.length(); k++) {
-                        bypassCodes.add(jsonBypassCodes.getString(k));
-                    }
-                }
-                String id = userObject.getString("id");
-                String username = userObject.getString("username");
-                String email = userObject.getString("email");
-                String name = userObject.getString("name");
-                String hardware = userObject.getString("hardware");
-
-                users.add(new User(id, username, email, name, domains, bypassCodes, hardware));
-            }
-        } catch (JSONException e) {
-            throw exceptionFactory.createException(e);
+            return adminRestClient.get(String.format("/api/domains/%s/users", domainId), String.format("page=%d", page),
+                    ResourceMapper.USER.list(jsonCodec));
         } catch (RestAdminRestClientException e) {
             throw exceptionFactory.createException(e);
         } catch (AdminRestClientException e) {
             throw exceptionFactory.createException(e);
         }
+    }
+
+    /**
+     * Get all users from domain. Pages are fetched as the iteration reaches them, the next page in the background. Failures are thrown
+     * as {@link UncheckedLoginTCException}.
+     * 
+     * @param domainId The domain identifier
+     * @return Iterable over all users in the domain
+     */
+    public Iterable<User> iterateDomainUsers(String domainId) {
+        return iterate(domainUsersPager(domainId));
+    }
+
+    /**
+     * Get all users from domain as a stream. See {@link #iterateDomainUsers(String)}.
+     * 
+     * @param domainId The domain identifier
+     * @return Stream of all users in the domain
+     */
+    public Stream<User> streamDomainUsers(String domainId) {
+        return stream(domainUsersPager(domainId));
+    }
 
+    /**
+     * Get all users from domain, fetching pages concurrently.
+     * 
+     * @param domainId The domain identifier
+     * @param parallelism The maximum number of pages fetched concurrently
+     * @return List of all users in the domain, in page order
+     * @throws LoginTCException if the call fails.
+     */
+    public List<User> exportDomainUsers(String domainId, int parallelism) throws LoginTCException {
+        List<User> users = new ArrayList<User>();
+        exportDomainUsers(domainId, parallelism, users::add);
         return users;
     }
 
+    /**
+     * Get all users from domain, fetching pages concurrently. Users are passed to the sink in page order from the calling thread; only
+     * the pages in flight are held in memory.
+     * 
+     * @param domainId The domain identifier
+     * @param parallelism The maximum number of pages fetched concurrently
+     * @param sink Receiver of the users
+     * @throws LoginTCException if the call fails.
+     */
+    public void exportDomainUsers(String domainId, int parallelism, Consumer<? super User> sink) throws LoginTCException {
+        export(domainUsersPager(domainId), parallelism, sink);
+    }
+
     /**
      * Get bypass code info.
      * 
@@ -1128,24 +1789,14 @@ public class LoginTC {
         BypassCode bypassCode = null;
 
         try {
-            JSONObject jsonObject = getJson(adminRestClient.get(String.format("/api/bypasscodes/%s", bypassCodeId)));
-
-            String id = jsonObject.getString("id");
-            String code = jsonObject.getString("code");
-            Date dtExpiry = DATE_FORMAT_ISO8601.parse(jsonObject.getString("dtExpiry"));
-            String user = jsonObject.getString("user");
-            Integer usesAllowed = jsonObject.getInt("usesAllowed");
-            Integer usesRemaining = jsonObject.getInt("usesRemaining");
-
-            bypassCode = new BypassCode(id, code, dtExpiry, user, usesAllowed, usesRemaining);
-        } catch (JSONException e) {
+            bypassCode = ResourceMapper.BYPASS_CODE.read(jsonCodec,
+                    adminRestClient.get(String.format("/api/bypasscodes/%s", bypassCodeId)));
+        } catch (IOException e) {
             throw exceptionFactory.createException(e);
         } catch (RestAdminRestClientException e) {
             throw exceptionFactory.createException(e);
         } catch (AdminRestClientException e) {
             throw exceptionFactory.createException(e);
-        } catch (ParseException e) {
-            throw exceptionFactory.createException(e);
         }
 
         return bypassCode;
@@ -1159,33 +1810,14 @@ public class LoginTC {
      * @throws LoginTCException if the call fails.
      */
     public List<BypassCode> getBypassCodes(String userId) throws LoginTCException {
-        List<BypassCode> bypassCodes = new ArrayList<BypassCode>();
         try {
-            JSONArray jsonArray = getJsonArray(adminRestClient.get(String.format("/api/users/%s/bypasscodes", userId)));
-
-            for (int i = 0; i < jsonArray.length(); i++) {
-                JSONObject jsonObject = jsonArray.getJSONObject(i);
-
-                String id = jsonObject.getString("id");
-                String code = jsonObject.getString("code");
-                Date dtExpiry = DATE_FORMAT_ISO8601.parse(jsonObject.getString("dtExpiry"));
-                String user = jsonObject.getString("user");
-                Integer usesAllowed = jsonObject.getInt("usesAllowed");
-                Integer usesRemaining = jsonObject.getInt("usesRemaining");
-
-                bypassCodes.add(new BypassCode(id, code, dtExpiry, user, usesAllowed, usesRemaining));
-            }
-        } catch (JSONException e) {
-            throw exceptionFactory.createException(e);
+            return adminRestClient.get(String.format("/api/users/%s/bypasscodes", userId), null,
+                    ResourceMapper.BYPASS_CODE.list(jsonCodec));
         } catch (RestAdminRestClientException e) {
             throw exceptionFactory.createException(e);
         } catch (AdminRestClientException e) {
             throw exceptionFactory.createException(e);
-        } catch (ParseException e) {
-            throw exceptionFactory.createException(e);
         }
-
-        return bypassCodes;
     }
 
     /**
@@ -1212,8 +1844,6 @@ public class LoginTC {
         BypassCode bypassCode = null;
 
         try {
-            JSONObject jsonObject = new JSONObject();
-
             if (usesAllowed == null) {
                 usesAllowed = 1;
             }
@@ -1222,27 +1852,19 @@ public class LoginTC {
                 expirationTime = 0;
             }
 
-            jsonObject.put("usesAllowed", usesAllowed);
-            jsonObject.put("expirationTime", expirationTime);
-
-            jsonObject = getJson(adminRestClient.post(String.format("/api/users/%s/bypasscodes", userId), jsonObject.toString()));
+            String body = jsonCodec.newGenerator().beginObject().name("usesAllowed").value(usesAllowed).name("expirationTime")
+                    .value(expirationTime).endObject().toJson();
 
-            String id = jsonObject.getString("id");
-            String code = jsonObject.getString("code");
-            Date dtExpiry = DATE_FORMAT_ISO8601.parse(jsonObject.getString("dtExpiry"));
-            String user = jsonObject.getString("user");
-            usesAllowed = jsonObject.getInt("usesAllowed");
-            Integer usesRemaining = jsonObject.getInt("usesRemaining");
-
-            bypassCode = new BypassCode(id, code, dtExpiry, user, usesAllowed, usesRemaining);
-        } catch (JSONException e) {
+            bypassCode = ResourceMapper.BYPASS_CODE.read(jsonCodec, adminRestClient.post(String.format("/api/users/%s/bypasscodes", userId),
+                    body));
+        } catch (IOException e) {
             throw exceptionFactory.createException(e);
         } catch (RestAdminRestClientException e) {
             throw exceptionFactory.createException(e);
         } catch (AdminRestClientException e) {
             throw exceptionFactory.createException(e);
-        } catch (ParseException e) {
-            throw exceptionFactory.createException(e);
+        } finally {
+            invalidateUser(userId);
         }
 
         return bypassCode;
@@ -1261,6 +1883,8 @@ public class LoginTC {
             throw exceptionFactory.createException(e);
         } catch (AdminRestClientException e) {
             throw exceptionFactory.createException(e);
+        } finally {
+            invalidateUsers(user -> user.getBypassCodes() != null && user.getBypassCodes().contains(bypassCodeId));
         }
     }
 
@@ -1277,6 +1901,8 @@ public class LoginTC {
             throw exceptionFactory.createException(e);
         } catch (AdminRestClientException e) {
             throw exceptionFactory.createException(e);
+        } finally {
+            invalidateUser(userId);
         }
     }
 
@@ -1291,18 +1917,9 @@ public class LoginTC {
         HardwareToken hardwareToken = null;
 
         try {
-            JSONObject jsonObject = getJson(adminRestClient.get(String.format("/api/hardware/%s", hardwareTokenId)));
-
-            String id = jsonObject.getString("id");
-            String alias = jsonObject.getString("alias");
-            String serialNumber = jsonObject.getString("serialNumber");
-            String type = jsonObject.getString("type");
-            String timeStep = jsonObject.getString("timeStep");
-            String syncState = jsonObject.getString("syncState");
-            String user = jsonObject.getString("user");
-
-            hardwareToken = new HardwareToken(id, alias, serialNumber, type, timeStep, syncState, user);
-        } catch (JSONException e) {
+            hardwareToken = ResourceMapper.HARDWARE_TOKEN.read(jsonCodec,
+                    adminRestClient.get(String.format("/api/hardware/%s", hardwareTokenId)));
+        } catch (IOException e) {
             throw exceptionFactory.createException(e);
         } catch (RestAdminRestClientException e) {
             throw exceptionFactory.createException(e);
@@ -1324,18 +1941,9 @@ public class LoginTC {
         HardwareToken hardwareToken = null;
 
         try {
-            JSONObject jsonObject = getJson(adminRestClient.get(String.format("/api/users/%s/hardware", userId)));
-
-            String id = jsonObject.getString("id");
-            String alias = jsonObject.getString("alias");
-            String serialNumber = jsonObject.getString("serialNumber");
-            String type = jsonObject.getString("type");
-            String timeStep = jsonObject.getString("timeStep");
-            String syncState = jsonObject.getString("syncState");
-            String user = jsonObject.getString("user");
-
-            hardwareToken = new HardwareToken(id, alias, serialNumber, type, timeStep, syncState, user);
-        } catch (JSONException e) {
+            hardwareToken = ResourceMapper.HARDWARE_TOKEN.read(jsonCodec,
+                    adminRestClient.get(String.format("/api/users/%s/hardware", userId)));
+        } catch (IOException e) {
             throw exceptionFactory.createException(e);
         } catch (RestAdminRestClientException e) {
             throw exceptionFactory.createException(e);
@@ -1364,35 +1972,60 @@ public class LoginTC {
      * @throws LoginTCException if the call fails.
      */
     public List<HardwareToken> getHardwareTokens(Integer page) throws LoginTCException {
-
-        List<HardwareToken> hardwareTokens = new ArrayList<HardwareToken>();
         try {
-            JSONArray jsonArray = getJsonArray(adminRestClient.get(String.format("/api/hardware"), String.format("page=%d", page)));
-
-            for (int i = 0; i < jsonArray.length(); i++) {
-                JSONObject hardwareTokenObject = jsonArray.getJSONObject(i);
-
-                String id = hardwareTokenObject.getString("id");
-                String alias = hardwareTokenObject.getString("alias");
-                String serialNumber = hardwareTokenObject.getString("serialNumber");
-                String type = hardwareTokenObject.getString("type");
-                String timeStep = hardwareTokenObject.getString("timeStep");
-                String syncState = hardwareTokenObject.getString("syncState");
-                String user = hardwareTokenObject.getString("user");
-
-                hardwareTokens.add(new HardwareToken(id, alias, serialNumber, type, timeStep, syncState, user));
-            }
-        } catch (JSONException e) {
-            throw exceptionFactory.createException(e);
+            return adminRestClient.get(String.format("/api/hardware"), String.format("page=%d", page),
+                    ResourceMapper.HARDWARE_TOKEN.list(jsonCodec));
         } catch (RestAdminRestClientException e) {
             throw exceptionFactory.createException(e);
         } catch (AdminRestClientException e) {
             throw exceptionFactory.createException(e);
         }
+    }
+
+    /**
+     * Get all hardware tokens of an organization. Pages are fetched as the iteration reaches them, the next page in the background.
+     * Failures are thrown as {@link UncheckedLoginTCException}.
+     * 
+     * @return Iterable over all hardware tokens
+     */
+    public Iterable<HardwareToken> iterateHardwareTokens() {
+        return iterate(hardwareTokensPager());
+    }
+
+    /**
+     * Get all hardware tokens of an organization as a stream. See {@link #iterateHardwareTokens()}.
+     * 
+     * @return Stream of all hardware tokens
+     */
+    public Stream<HardwareToken> streamHardwareTokens() {
+        return stream(hardwareTokensPager());
+    }
 
+    /**
+     * Get all hardware tokens of an organization, fetching pages concurrently.
+     * 
+     * @param parallelism The maximum number of pages fetched concurrently
+     * @return List of all hardware tokens, in page order
+     * @throws LoginTCException if the call fails.
+     */
+    public List<HardwareToken> exportHardwareTokens(int parallelism) throws LoginTCException {
+        List<HardwareToken> hardwareTokens = new ArrayList<HardwareToken>();
+        exportHardwareTokens(parallelism, hardwareTokens::add);
         return hardwareTokens;
     }
 
+    /**
+     * Get all hardware tokens of an organization, fetching pages concurrently. Tokens are passed to the sink in page order from the
+     * calling thread; only the pages in flight are held in memory.
+     * 
+     * @param parallelism The maximum number of pages fetched concurrently
+     * @param sink Receiver of the hardware tokens
+     * @throws LoginTCException if the call fails.
+     */
+    public void exportHardwareTokens(int parallelism, Consumer<? super HardwareToken> sink) throws LoginTCException {
+        export(hardwareTokensPager(), parallelism, sink);
+    }
+
     /**
      * Create a new hardware token.
      * 
@@ -1409,29 +2042,11 @@ public class LoginTC {
         HardwareToken hardwareToken = null;
 
         try {
-            JSONObject jsonObject = new JSONObject();
-
-            if (alias != null) {
-                jsonObject.put("alias", alias);
-            }
-
-            jsonObject.put("serialNumber", serialNumber);
-            jsonObject.put("type", type);
-            jsonObject.put("timeStep", timeStep);
-            jsonObject.put("seed", seed);
-
-            jsonObject = getJson(adminRestClient.post(String.format("/api/hardware"), jsonObject.toString()));
-
-            String id = jsonObject.getString("id");
-            alias = jsonObject.getString("alias");
-            serialNumber = jsonObject.getString("serialNumber");
-            type = jsonObject.getString("type");
-            timeStep = jsonObject.getString("timeStep");
-            String syncState = jsonObject.getString("syncState");
-            String user = jsonObject.getString("user");
+            String body = jsonCodec.newGenerator().beginObject().member("alias", alias).member("serialNumber", serialNumber)
+                    .member("type", type).member("timeStep", timeStep).member("seed", seed).endObject().toJson();
 
-            hardwareToken = new HardwareToken(id, alias, serialNumber, type, timeStep, syncState, user);
-        } catch (JSONException e) {
+            hardwareToken = ResourceMapper.HARDWARE_TOKEN.read(jsonCodec, adminRestClient.post(String.format("/api/hardware"), body));
+        } catch (IOException e) {
             throw exceptionFactory.createException(e);
         } catch (RestAdminRestClientException e) {
             throw exceptionFactory.createException(e);
@@ -1454,24 +2069,11 @@ public class LoginTC {
         HardwareToken hardwareToken = null;
 
         try {
-            JSONObject jsonObject = new JSONObject();
-
-            if (alias != null) {
-                jsonObject.put("alias", alias);
-            }
-
-            jsonObject = getJson(adminRestClient.put(String.format("/api/hardware/%s", hardwareTokenId), jsonObject.toString()));
-
-            String id = jsonObject.getString("id");
-            alias = jsonObject.getString("alias");
-            String serialNumber = jsonObject.getString("serialNumber");
-            String type = jsonObject.getString("type");
-            String timeStep = jsonObject.getString("timeStep");
-            String syncState = jsonObject.getString("syncState");
-            String user = jsonObject.getString("user");
+            String body = jsonCodec.newGenerator().beginObject().member("alias", alias).endObject().toJson();
 
-            hardwareToken = new HardwareToken(id, alias, serialNumber, type, timeStep, syncState, user);
-        } catch (JSONException e) {
+            hardwareToken = ResourceMapper.HARDWARE_TOKEN.read(jsonCodec,
+                    adminRestClient.put(String.format("/api/hardware/%s", hardwareTokenId), body));
+        } catch (IOException e) {
             throw exceptionFactory.createException(e);
         } catch (RestAdminRestClientException e) {
             throw exceptionFactory.createException(e);
@@ -1495,6 +2097,8 @@ public class LoginTC {
             throw exceptionFactory.createException(e);
         } catch (AdminRestClientException e) {
             throw exceptionFactory.createException(e);
+        } finally {
+            invalidateUsers(user -> hardwareTokenId.equals(user.getHardware()));
         }
     }
 
@@ -1512,6 +2116,8 @@ public class LoginTC {
             throw exceptionFactory.createException(e);
         } catch (AdminRestClientException e) {
             throw exceptionFactory.createException(e);
+        } finally {
+            invalidateUser(userId);
         }
 
     }
@@ -1529,6 +2135,8 @@ public class LoginTC {
             throw exceptionFactory.createException(e);
         } catch (AdminRestClientException e) {
             throw exceptionFactory.createException(e);
+        } finally {
+            invalidateUser(userId);
         }
     }
 }
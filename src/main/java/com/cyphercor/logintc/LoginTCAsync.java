@@ -0,0 +1,562 @@
+package com.cyphercor.logintc;
+
+import java.io.Closeable;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.cyphercor.logintc.LoginTC.LoginTCException;
+import com.cyphercor.logintc.resource.BypassCode;
+import com.cyphercor.logintc.resource.Domain;
+import com.cyphercor.logintc.resource.HardwareToken;
+import com.cyphercor.logintc.resource.Organization;
+import com.cyphercor.logintc.resource.Session;
+import com.cyphercor.logintc.resource.Token;
+import com.cyphercor.logintc.resource.User;
+
+/**
+ * Asynchronous LoginTC Admin client. Every call is dispatched to an executor and returns a {@link CompletableFuture} that completes with
+ * the same resource the matching {@link LoginTC} method returns, or exceptionally with the same {@link LoginTCException}.
+ * <p>
+ * Calls share the pooled connections of the underlying {@link LoginTC} client, so the executor should have about as many threads as the
+ * pool has connections (see {@link LoginTC#setMaxConnections(int, int)}).
+ */
+public class LoginTCAsync implements Closeable {
+
+    /**
+     * Default number of threads when no executor is provided. Matches the default connection pool size.
+     */
+    private static final int DEFAULT_THREADS = 20;
+
+    /**
+     * A blocking LoginTC call.
+     */
+    private interface Call<T> {
+        T call() throws LoginTCException;
+    }
+
+    private LoginTC client = null;
+    private Executor executor = null;
+    private ExecutorService ownedExecutor = null;
+
+    /**
+     * @param client The LoginTC client used to perform calls.
+     */
+    public LoginTCAsync(LoginTC client) {
+        this.client = client;
+        this.ownedExecutor = Executors.newFixedThreadPool(DEFAULT_THREADS, new DaemonThreadFactory("LoginTC-async"));
+        this.executor = ownedExecutor;
+    }
+
+    /**
+     * @param client The LoginTC client used to perform calls.
+     * @param executor The executor calls are dispatched to. It is not shut down by {@link #close()}.
+     */
+    public LoginTCAsync(LoginTC client, Executor executor) {
+        this.client = client;
+        this.executor = executor;
+    }
+
+    /**
+     * @return The underlying LoginTC client.
+     */
+    public LoginTC getClient() {
+        return client;
+    }
+
+    /**
+     * Shut down the executor if it was created by this client. The underlying LoginTC client is not closed.
+     */
+    @Override
+    public void close() {
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+        }
+    }
+
+    private <T> CompletableFuture<T> submit(final Call<T> call) {
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        future.complete(call.call());
+                    } catch (LoginTCException e) {
+                        future.completeExceptionally(e);
+                    } catch (RuntimeException e) {
+                        future.completeExceptionally(e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+
+        return future;
+    }
+
+    /**
+     * @param userId The user's identifier.
+     * @return Future for the requested user.
+     * @see LoginTC#getUser(String)
+     */
+    public CompletableFuture<User> getUser(String userId) {
+        return submit(() -> client.getUser(userId));
+    }
+
+    /**
+     * @param username The user's username.
+     * @return Future for the requested user.
+     * @see LoginTC#getUserByUsername(String)
+     */
+    public CompletableFuture<User> getUserByUsername(String username) {
+        return submit(() -> client.getUserByUsername(username));
+    }
+
+    /**
+     * @return Future for the first page of users.
+     * @see LoginTC#getUsers()
+     */
+    public CompletableFuture<List<User>> getUsers() {
+        return submit(() -> client.getUsers());
+    }
+
+    /**
+     * @param page Page number to retrieve
+     * @return Future for the requested page of users.
+     * @see LoginTC#getUsers(Integer)
+     */
+    public CompletableFuture<List<User>> getUsers(Integer page) {
+        return submit(() -> client.getUsers(page));
+    }
+
+    /**
+     * @param username The new user's username.
+     * @param email The new user's email address.
+     * @param name The new user's real name.
+     * @return Future for the newly created user.
+     * @see LoginTC#createUser(String, String, String)
+     */
+    public CompletableFuture<User> createUser(String username, String email, String name) {
+        return submit(() -> client.createUser(username, email, name));
+    }
+
+    /**
+     * @param userId The target user's identifier.
+     * @param email The user's new email address. Use null if no change.
+     * @param name The user's new name. Use null if no change.
+     * @return Future for the updated user.
+     * @see LoginTC#updateUser(String, String, String)
+     */
+    public CompletableFuture<User> updateUser(String userId, String email, String name) {
+        return submit(() -> client.updateUser(userId, email, name));
+    }
+
+    /**
+     * @param userId The target user's identifier.
+     * @return Future completing when the user is deleted.
+     * @see LoginTC#deleteUser(String)
+     */
+    public CompletableFuture<Void> deleteUser(String userId) {
+        return submit(() -> {
+            client.deleteUser(userId);
+            return null;
+        });
+    }
+
+    /**
+     * @param domainId The target domain identifier.
+     * @param userId The target user identifier.
+     * @return Future completing when the user is added.
+     * @see LoginTC#addDomainUser(String, String)
+     */
+    public CompletableFuture<Void> addDomainUser(String domainId, String userId) {
+        return submit(() -> {
+            client.addDomainUser(domainId, userId);
+            return null;
+        });
+    }
+
+    /**
+     * @param domainId The target domain identifier.
+     * @param users A list of users that should belong to the domain.
+     * @return Future completing when the domain users are set.
+     * @see LoginTC#setDomainUsers(String, List)
+     */
+    public CompletableFuture<Void> setDomainUsers(String domainId, List<User> users) {
+        return submit(() -> {
+            client.setDomainUsers(domainId, users);
+            return null;
+        });
+    }
+
+    /**
+     * @param domainId The target domain identifier.
+     * @param userId The target user identifier.
+     * @return Future completing when the user is removed.
+     * @see LoginTC#removeDomainUser(String, String)
+     */
+    public CompletableFuture<Void> removeDomainUser(String domainId, String userId) {
+        return submit(() -> {
+            client.removeDomainUser(domainId, userId);
+            return null;
+        });
+    }
+
+    /**
+     * @param domainId The target domain identifier.
+     * @param userId The target user identifier.
+     * @return Future for the newly created token.
+     * @see LoginTC#createUserToken(String, String)
+     */
+    public CompletableFuture<Token> createUserToken(String domainId, String userId) {
+        return submit(() -> client.createUserToken(domainId, userId));
+    }
+
+    /**
+     * @param domainId The target domain identifier.
+     * @param userId The target user identifier.
+     * @return Future for the requested token.
+     * @see LoginTC#getUserToken(String, String)
+     */
+    public CompletableFuture<Token> getUserToken(String domainId, String userId) {
+        return submit(() -> client.getUserToken(domainId, userId));
+    }
+
+    /**
+     * @param domainId The target domain identifier.
+     * @param userId The target user identifier.
+     * @return Future completing when the token is revoked.
+     * @see LoginTC#deleteUserToken(String, String)
+     */
+    public CompletableFuture<Void> deleteUserToken(String domainId, String userId) {
+        return submit(() -> {
+            client.deleteUserToken(domainId, userId);
+            return null;
+        });
+    }
+
+    /**
+     * @param domainId The target domain identifier.
+     * @param userId The target user identifier.
+     * @param attributes Map of attributes to be included in the LoginTC request. Null is permitted for no attributes.
+     * @return Future for the newly created session.
+     * @see LoginTC#createSession(String, String, Map)
+     */
+    public CompletableFuture<Session> createSession(String domainId, String userId, Map<String, String> attributes) {
+        return submit(() -> client.createSession(domainId, userId, attributes));
+    }
+
+    /**
+     * @param domainId The target domain identifier.
+     * @param userId The target user identifier.
+     * @param attributes Map of attributes to be included in the LoginTC request. Null is permitted for no attributes.
+     * @param ipAddress The IP Address of the user originating the request (optional)
+     * @param bypassCode A 9 digit code to bypass device authentication (optional)
+     * @param otp A 6 or 8 digit code instead of device authentication (optional)
+     * @return Future for the newly created session.
+     * @see LoginTC#createSession(String, String, Map, String, String, String)
+     */
+    public CompletableFuture<Session> createSession(String domainId, String userId, Map<String, String> attributes, String ipAddress,
+            String bypassCode, String otp) {
+        return submit(() -> client.createSession(domainId, userId, attributes, ipAddress, bypassCode, otp));
+    }
+
+    /**
+     * @param domainId The target domain identifier.
+     * @param username The target user username.
+     * @param attributes Map of attributes to be included in the LoginTC request. Null is permitted for no attributes.
+     * @return Future for the newly created session.
+     * @see LoginTC#createSessionWithUsername(String, String, Map)
+     */
+    public CompletableFuture<Session> createSessionWithUsername(String domainId, String username, Map<String, String> attributes) {
+        return submit(() -> client.createSessionWithUsername(domainId, username, attributes));
+    }
+
+    /**
+     * @param domainId The target domain identifier.
+     * @param username The target user username.
+     * @param attributes Map of attributes to be included in the LoginTC request. Null is permitted for no attributes.
+     * @param ipAddress The IP Address of the user originating the request (optional)
+     * @param bypassCode A 9 digit code to bypass device authentication (optional)
+     * @param otp A 6 or 8 digit code instead of device authentication (optional)
+     * @return Future for the newly created session.
+     * @see LoginTC#createSessionWithUsername(String, String, Map, String, String, String)
+     */
+    public CompletableFuture<Session> createSessionWithUsername(String domainId, String username, Map<String, String> attributes,
+            String ipAddress, String bypassCode, String otp) {
+        return submit(() -> client.createSessionWithUsername(domainId, username, attributes, ipAddress, bypassCode, otp));
+    }
+
+    /**
+     * @param domainId The target domain identifier.
+     * @param sessionId The target session identifier.
+     * @return Future for the requested session.
+     * @see LoginTC#getSession(String, String)
+     */
+    public CompletableFuture<Session> getSession(String domainId, String sessionId) {
+        return submit(() -> client.getSession(domainId, sessionId));
+    }
+
+    /**
+     * @param domainId The target domain identifier.
+     * @param sessionId The target session identifier.
+     * @return Future completing when the session is cancelled.
+     * @see LoginTC#deleteSession(String, String)
+     */
+    public CompletableFuture<Void> deleteSession(String domainId, String sessionId) {
+        return submit(() -> {
+            client.deleteSession(domainId, sessionId);
+            return null;
+        });
+    }
+
+    /**
+     * @return Future for the ping status (true if OK).
+     * @see LoginTC#getPing()
+     */
+    public CompletableFuture<Boolean> getPing() {
+        return submit(() -> client.getPing());
+    }
+
+    /**
+     * @return Future for the organization.
+     * @see LoginTC#getOrganization()
+     */
+    public CompletableFuture<Organization> getOrganization() {
+        return submit(() -> client.getOrganization());
+    }
+
+    /**
+     * @param domainId The domain identifier.
+     * @return Future for the requested domain.
+     * @see LoginTC#getDomain(String)
+     */
+    public CompletableFuture<Domain> getDomain(String domainId) {
+        return submit(() -> client.getDomain(domainId));
+    }
+
+    /**
+     * @param domainId The domain identifier.
+     * @return Future for the requested image.
+     * @see LoginTC#getDomainImage(String)
+     */
+    public CompletableFuture<byte[]> getDomainImage(String domainId) {
+        return submit(() -> client.getDomainImage(domainId));
+    }
+
+    /**
+     * @param domainId The domain identifier.
+     * @param out The stream the image is written to. It must not be used until the future completes.
+     * @return Future for the size of the image in bytes.
+     * @see LoginTC#getDomainImage(String, OutputStream)
+     */
+    public CompletableFuture<Long> getDomainImage(String domainId, OutputStream out) {
+        return submit(() -> client.getDomainImage(domainId, out));
+    }
+
+    /**
+     * @param domainId The domain identifier.
+     * @param file The file the image is written to.
+     * @return Future for the size of the image in bytes.
+     * @see LoginTC#getDomainImage(String, Path)
+     */
+    public CompletableFuture<Long> getDomainImage(String domainId, Path file) {
+        return submit(() -> client.getDomainImage(domainId, file));
+    }
+
+    /**
+     * @param domainId The domain identifier.
+     * @param userId The user's identifier.
+     * @return Future for the requested user.
+     * @see LoginTC#getDomainUser(String, String)
+     */
+    public CompletableFuture<User> getDomainUser(String domainId, String userId) {
+        return submit(() -> client.getDomainUser(domainId, userId));
+    }
+
+    /**
+     * @param domainId The domain identifier
+     * @return Future for the first page of users in the domain.
+     * @see LoginTC#getDomainUsers(String)
+     */
+    public CompletableFuture<List<User>> getDomainUsers(String domainId) {
+        return submit(() -> client.getDomainUsers(domainId));
+    }
+
+    /**
+     * @param domainId The domain identifier
+     * @param page Page number to retrieve
+     * @return Future for the requested page of users in the domain.
+     * @see LoginTC#getDomainUsers(String, Integer)
+     */
+    public CompletableFuture<List<User>> getDomainUsers(String domainId, Integer page) {
+        return submit(() -> client.getDomainUsers(domainId, page));
+    }
+
+    /**
+     * @param bypassCodeId The bypass code's identifier.
+     * @return Future for the requested bypass code.
+     * @see LoginTC#getBypassCode(String)
+     */
+    public CompletableFuture<BypassCode> getBypassCode(String bypassCodeId) {
+        return submit(() -> client.getBypassCode(bypassCodeId));
+    }
+
+    /**
+     * @param userId The user identifier
+     * @return Future for the user's bypass codes.
+     * @see LoginTC#getBypassCodes(String)
+     */
+    public CompletableFuture<List<BypassCode>> getBypassCodes(String userId) {
+        return submit(() -> client.getBypassCodes(userId));
+    }
+
+    /**
+     * @param userId The user's identifier.
+     * @return Future for the newly created bypass code.
+     * @see LoginTC#createBypassCode(String)
+     */
+    public CompletableFuture<BypassCode> createBypassCode(String userId) {
+        return submit(() -> client.createBypassCode(userId));
+    }
+
+    /**
+     * @param userId The user's identifier.
+     * @param usesAllowed The number of times the bypass code can be used.
+     * @param expirationTime The time in minutes the bypass code is valid (0 means never expires).
+     * @return Future for the newly created bypass code.
+     * @see LoginTC#createBypassCode(String, Integer, Integer)
+     */
+    public CompletableFuture<BypassCode> createBypassCode(String userId, Integer usesAllowed, Integer expirationTime) {
+        return submit(() -> client.createBypassCode(userId, usesAllowed, expirationTime));
+    }
+
+    /**
+     * @param bypassCodeId The target bypass code's identifier.
+     * @return Future completing when the bypass code is deleted.
+     * @see LoginTC#deleteBypassCode(String)
+     */
+    public CompletableFuture<Void> deleteBypassCode(String bypassCodeId) {
+        return submit(() -> {
+            client.deleteBypassCode(bypassCodeId);
+            return null;
+        });
+    }
+
+    /**
+     * @param userId The target user's identifier.
+     * @return Future completing when the bypass codes are deleted.
+     * @see LoginTC#deleteBypassCodes(String)
+     */
+    public CompletableFuture<Void> deleteBypassCodes(String userId) {
+        return submit(() -> {
+            client.deleteBypassCodes(userId);
+            return null;
+        });
+    }
+
+    /**
+     * @param hardwareTokenId The hardware token's identifier.
+     * @return Future for the requested hardware token.
+     * @see LoginTC#getHardwareToken(String)
+     */
+    public CompletableFuture<HardwareToken> getHardwareToken(String hardwareTokenId) {
+        return submit(() -> client.getHardwareToken(hardwareTokenId));
+    }
+
+    /**
+     * @param userId The user's identifier.
+     * @return Future for the user's hardware token.
+     * @see LoginTC#getUserHardwareToken(String)
+     */
+    public CompletableFuture<HardwareToken> getUserHardwareToken(String userId) {
+        return submit(() -> client.getUserHardwareToken(userId));
+    }
+
+    /**
+     * @return Future for the first page of hardware tokens.
+     * @see LoginTC#getHardwareTokens()
+     */
+    public CompletableFuture<List<HardwareToken>> getHardwareTokens() {
+        return submit(() -> client.getHardwareTokens());
+    }
+
+    /**
+     * @param page Page number to retrieve
+     * @return Future for the requested page of hardware tokens.
+     * @see LoginTC#getHardwareTokens(Integer)
+     */
+    public CompletableFuture<List<HardwareToken>> getHardwareTokens(Integer page) {
+        return submit(() -> client.getHardwareTokens(page));
+    }
+
+    /**
+     * @param alias A short-hand mutable name
+     * @param serialNumber The serial number of the hardware token
+     * @param type Can be either TOTP6 or TOTP8
+     * @param timeStep The number of seconds for the time step
+     * @param seed A hexadecimal representation of the TOTP secret
+     * @return Future for the newly created hardware token.
+     * @see LoginTC#createHardwareToken(String, String, String, String, String)
+     */
+    public CompletableFuture<HardwareToken> createHardwareToken(String alias, String serialNumber, String type, String timeStep,
+            String seed) {
+        return submit(() -> client.createHardwareToken(alias, serialNumber, type, timeStep, seed));
+    }
+
+    /**
+     * @param hardwareTokenId The hardware token identifier
+     * @param alias A short-hand mutable name
+     * @return Future for the updated hardware token.
+     * @see LoginTC#updateHardwareToken(String, String)
+     */
+    public CompletableFuture<HardwareToken> updateHardwareToken(String hardwareTokenId, String alias) {
+        return submit(() -> client.updateHardwareToken(hardwareTokenId, alias));
+    }
+
+    /**
+     * @param hardwareTokenId The hardware token's identifier.
+     * @return Future completing when the hardware token is deleted.
+     * @see LoginTC#deleteHardwareToken(String)
+     */
+    public CompletableFuture<Void> deleteHardwareToken(String hardwareTokenId) {
+        return submit(() -> {
+            client.deleteHardwareToken(hardwareTokenId);
+            return null;
+        });
+    }
+
+    /**
+     * @param userId The user's identifier.
+     * @param hardwareTokenId The hardware token's identifier.
+     * @return Future completing when the hardware token is associated.
+     * @see LoginTC#associateHardwareToken(String, String)
+     */
+    public CompletableFuture<Void> associateHardwareToken(String userId, String hardwareTokenId) {
+        return submit(() -> {
+            client.associateHardwareToken(userId, hardwareTokenId);
+            return null;
+        });
+    }
+
+    /**
+     * @param userId The user's identifier.
+     * @return Future completing when the hardware token is disassociated.
+     * @see LoginTC#disassociateHardwareToken(String)
+     */
+    public CompletableFuture<Void> disassociateHardwareToken(String userId) {
+        return submit(() -> {
+            client.disassociateHardwareToken(userId);
+            return null;
+        });
+    }
+}
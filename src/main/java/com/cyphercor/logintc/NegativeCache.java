@@ -0,0 +1,200 @@
+package com.cyphercor.logintc;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of lookups that failed because the user or token does not exist. Repeating such a lookup within the ttl fails locally with the
+ * same error instead of calling the API. The least recently used entry is evicted once the cache is full.
+ */
+public class NegativeCache {
+
+    /**
+     * The API error of a failed lookup.
+     */
+    static class Failure {
+        private final String errorCode;
+        private final String errorMessage;
+        private final String[] groups;
+        private final long expiresAt;
+
+        Failure(String errorCode, String errorMessage, String[] groups, long expiresAt) {
+            this.errorCode = errorCode;
+            this.errorMessage = errorMessage;
+            this.groups = groups;
+            this.expiresAt = expiresAt;
+        }
+
+        String getErrorCode() {
+            return errorCode;
+        }
+
+        String getErrorMessage() {
+            return errorMessage;
+        }
+    }
+
+    private final int maxSize;
+    private final long ttl;
+    private final LinkedHashMap<String, Failure> failures;
+    private final Map<String, Set<String>> groups = new HashMap<String, Set<String>>();
+    private final AtomicLong hits = new AtomicLong();
+    private long generation = 0;
+
+    /**
+     * @param maxSize The maximum number of cached failures.
+     * @param ttl Time a failure is repeated locally.
+     * @param unit The time unit of the ttl.
+     */
+    public NegativeCache(int maxSize, long ttl, TimeUnit unit) {
+        if (maxSize < 1 || ttl <= 0) {
+            throw new IllegalArgumentException("maxSize and ttl must be positive");
+        }
+
+        this.maxSize = maxSize;
+        this.ttl = unit.toNanos(ttl);
+        this.failures = new LinkedHashMap<String, Failure>(16, 0.75f, true) {
+            private static final long serialVersionUID = -2750913645170883441L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Failure> eldest) {
+                if (size() > NegativeCache.this.maxSize) {
+                    unindex(eldest.getKey(), eldest.getValue());
+                    return true;
+                }
+
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return The number of lookups failed locally.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return The number of cached failures, including expired failures not yet evicted.
+     */
+    public synchronized int size() {
+        return failures.size();
+    }
+
+    /**
+     * Remove all failures.
+     */
+    public synchronized void clear() {
+        failures.clear();
+        groups.clear();
+        generation++;
+    }
+
+    /**
+     * @param key The lookup.
+     * @return The cached failure of the lookup, or null if none or expired.
+     */
+    synchronized Failure get(String key) {
+        Failure failure = failures.get(key);
+
+        if (failure == null) {
+            return null;
+        }
+
+        if (System.nanoTime() - failure.expiresAt >= 0) {
+            failures.remove(key);
+            unindex(key, failure);
+            return null;
+        }
+
+        hits.incrementAndGet();
+        return failure;
+    }
+
+    /**
+     * @return The current generation, to be passed to {@link #put(String, String, String, long, String...)} for a lookup started after
+     *         this call.
+     */
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Cache a failure, unless an invalidation happened since the lookup started, in which case the failure may already be outdated.
+     *
+     * @param key The lookup.
+     * @param errorCode The API error code.
+     * @param errorMessage The API error message.
+     * @param generation The generation at the time the lookup started.
+     * @param groups The groups of lookups invalidated together the lookup belongs to, such as lookups by the same username.
+     */
+    synchronized void put(String key, String errorCode, String errorMessage, long generation, String... groups) {
+        if (generation != this.generation) {
+            return;
+        }
+
+        Failure failure = new Failure(errorCode, errorMessage, groups, System.nanoTime() + ttl);
+        Failure previous = failures.put(key, failure);
+
+        if (previous != null) {
+            unindex(key, previous);
+        }
+
+        for (String group : groups) {
+            Set<String> keys = this.groups.get(group);
+
+            if (keys == null) {
+                keys = new HashSet<String>();
+                this.groups.put(group, keys);
+            }
+
+            keys.add(key);
+        }
+    }
+
+    /**
+     * Remove a lookup and the lookups of groups, without scanning the cache.
+     *
+     * @param key The lookup to remove.
+     * @param groups The groups of lookups to remove.
+     */
+    synchronized void invalidate(String key, String... groups) {
+        remove(key);
+
+        for (String group : groups) {
+            Set<String> keys = this.groups.remove(group);
+
+            if (keys != null) {
+                for (String groupKey : keys) {
+                    remove(groupKey);
+                }
+            }
+        }
+
+        generation++;
+    }
+
+    private void remove(String key) {
+        Failure failure = failures.remove(key);
+
+        if (failure != null) {
+            unindex(key, failure);
+        }
+    }
+
+    private void unindex(String key, Failure failure) {
+        for (String group : failure.groups) {
+            Set<String> keys = groups.get(group);
+
+            if (keys != null && keys.remove(key) && keys.isEmpty()) {
+                groups.remove(group);
+            }
+        }
+    }
+}
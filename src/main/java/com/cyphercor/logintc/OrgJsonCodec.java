@@ -0,0 +1,394 @@
+package com.cyphercor.logintc;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/**
+ * Codec backed by the org.json library, as used by earlier versions of this client. Each response is parsed into a document tree which
+ * the parser then walks, so the codec accepts whatever org.json accepts, including its lenient syntax.
+ * <p>
+ * Values are read as org.json's own accessors read them, including a null value read as a string, which is "null" as
+ * {@link JSONObject#getString(String)} returns it. A user without a hardware token, for example, has a
+ * {@link com.cyphercor.logintc.resource.User#getHardware()} of "null" as with earlier versions of this client, where
+ * {@link StreamingJsonCodec} gives null.
+ */
+public class OrgJsonCodec implements JsonCodec {
+
+    @Override
+    public JsonCodec.Parser newParser(Reader in) {
+        return new TreeParser(in);
+    }
+
+    @Override
+    public JsonCodec.Generator newGenerator() {
+        return new TreeGenerator();
+    }
+
+    /**
+     * Position within an array or object of the parsed tree.
+     */
+    private static class Frame {
+        private final JSONObject object;
+        private final Iterator<?> keys;
+        private final JSONArray array;
+        private int index = 0;
+        private String name = null;
+
+        private Frame(JSONObject object) {
+            this.object = object;
+            this.keys = object.keys();
+            this.array = null;
+        }
+
+        private Frame(JSONArray array) {
+            this.object = null;
+            this.keys = null;
+            this.array = array;
+        }
+
+        private boolean hasNext() {
+            return array != null ? index < array.length() : name != null || keys.hasNext();
+        }
+    }
+
+    private static class TreeParser implements JsonCodec.Parser {
+        private final Reader in;
+        private final List<Frame> stack = new ArrayList<Frame>();
+        private Object root;
+        private boolean parsed = false;
+        private boolean consumed = false;
+
+        private TreeParser(Reader in) {
+            this.in = in;
+        }
+
+        @Override
+        public Token peek() throws IOException {
+            if (stack.isEmpty()) {
+                return consumed ? Token.END_DOCUMENT : tokenOf(root());
+            }
+
+            Frame frame = top();
+
+            if (!frame.hasNext()) {
+                return frame.array != null ? Token.END_ARRAY : Token.END_OBJECT;
+            }
+
+            if (frame.object != null && frame.name == null) {
+                return Token.NAME;
+            }
+
+            return tokenOf(current());
+        }
+
+        @Override
+        public void beginArray() throws IOException {
+            push(JSONArray.class, "array");
+        }
+
+        @Override
+        public void endArray() throws IOException {
+            pop(Token.END_ARRAY);
+        }
+
+        @Override
+        public void beginObject() throws IOException {
+            push(JSONObject.class, "object");
+        }
+
+        @Override
+        public void endObject() throws IOException {
+            pop(Token.END_OBJECT);
+        }
+
+        @Override
+        public boolean hasNext() throws IOException {
+            Token token = peek();
+            return token != Token.END_ARRAY && token != Token.END_OBJECT && token != Token.END_DOCUMENT;
+        }
+
+        @Override
+        public String nextName() throws IOException {
+            if (peek() != Token.NAME) {
+                throw syntaxError("Expected a name");
+            }
+
+            Frame frame = top();
+            frame.name = (String) frame.keys.next();
+            return frame.name;
+        }
+
+        @Override
+        public String nextString() throws IOException {
+            // JSONObject.NULL.toString() is "null", as getString returns it
+            return nextScalar().toString();
+        }
+
+        @Override
+        public int nextInt() throws IOException {
+            Object value = nextScalar();
+
+            if (value instanceof Number) {
+                return ((Number) value).intValue();
+            }
+
+            try {
+                return Integer.parseInt(value.toString());
+            } catch (NumberFormatException e) {
+                throw syntaxError(String.format("Expected a number but was %s", value));
+            }
+        }
+
+        @Override
+        public boolean nextBoolean() throws IOException {
+            Object value = nextScalar();
+
+            if (!(value instanceof Boolean)) {
+                throw syntaxError(String.format("Expected a boolean but was %s", value));
+            }
+
+            return (Boolean) value;
+        }
+
+        @Override
+        public void skipValue() throws IOException {
+            if (!hasNext() || peek() == Token.NAME) {
+                throw syntaxError("Expected a value");
+            }
+
+            advance();
+        }
+
+        @Override
+        public IOException syntaxError(String message) {
+            return new IOException(message);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        private Object root() throws IOException {
+            if (!parsed) {
+                try {
+                    root = new JSONTokener(in).nextValue();
+                } catch (JSONException e) {
+                    throw new IOException(e.getMessage(), e);
+                }
+
+                parsed = true;
+            }
+
+            return root;
+        }
+
+        private Frame top() {
+            return stack.get(stack.size() - 1);
+        }
+
+        /**
+         * @return The value the parser is positioned at.
+         */
+        private Object current() throws IOException {
+            if (stack.isEmpty()) {
+                return root();
+            }
+
+            Frame frame = top();
+
+            try {
+                return frame.array != null ? frame.array.get(frame.index) : frame.object.get(frame.name);
+            } catch (JSONException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        }
+
+        /**
+         * Move past the value the parser is positioned at.
+         */
+        private void advance() {
+            if (stack.isEmpty()) {
+                consumed = true;
+                return;
+            }
+
+            Frame frame = top();
+
+            if (frame.array != null) {
+                frame.index++;
+            } else {
+                frame.name = null;
+            }
+        }
+
+        private Object nextScalar() throws IOException {
+            Token token = peek();
+
+            if (token != Token.STRING && token != Token.NUMBER && token != Token.BOOLEAN && token != Token.NULL) {
+                throw syntaxError(String.format("Expected a value but was %s", token));
+            }
+
+            Object value = current();
+            advance();
+            return value;
+        }
+
+        private void push(Class<?> type, String kind) throws IOException {
+            Token token = peek();
+
+            if (token == Token.NAME || token == Token.END_ARRAY || token == Token.END_OBJECT || token == Token.END_DOCUMENT) {
+                throw syntaxError(String.format("Expected an %s but was %s", kind, token));
+            }
+
+            Object value = current();
+
+            if (!type.isInstance(value)) {
+                throw syntaxError(String.format("Expected an %s but was %s", kind, token));
+            }
+
+            advance();
+            stack.add(value instanceof JSONArray ? new Frame((JSONArray) value) : new Frame((JSONObject) value));
+        }
+
+        private void pop(Token expected) throws IOException {
+            if (stack.isEmpty() || peek() != expected) {
+                throw syntaxError(String.format("Expected %s", expected));
+            }
+
+            stack.remove(stack.size() - 1);
+        }
+
+        private static Token tokenOf(Object value) {
+            if (value instanceof JSONObject) {
+                return Token.BEGIN_OBJECT;
+            } else if (value instanceof JSONArray) {
+                return Token.BEGIN_ARRAY;
+            } else if (value == JSONObject.NULL) {
+                return Token.NULL;
+            } else if (value instanceof Number) {
+                return Token.NUMBER;
+            } else if (value instanceof Boolean) {
+                return Token.BOOLEAN;
+            } else {
+                return Token.STRING;
+            }
+        }
+    }
+
+    private static class TreeGenerator implements JsonCodec.Generator {
+        private final List<Object> stack = new ArrayList<Object>();
+        private Object root = null;
+        private String name = null;
+
+        @Override
+        public TreeGenerator beginArray() {
+            JSONArray array = new JSONArray();
+            add(array);
+            stack.add(array);
+            return this;
+        }
+
+        @Override
+        public TreeGenerator endArray() {
+            return end(JSONArray.class);
+        }
+
+        @Override
+        public TreeGenerator beginObject() {
+            JSONObject object = new JSONObject();
+            add(object);
+            stack.add(object);
+            return this;
+        }
+
+        @Override
+        public TreeGenerator endObject() {
+            return end(JSONObject.class);
+        }
+
+        @Override
+        public TreeGenerator name(String name) {
+            if (stack.isEmpty() || !(stack.get(stack.size() - 1) instanceof JSONObject) || this.name != null) {
+                throw new IllegalStateException("Name outside of an object");
+            }
+
+            this.name = name;
+            return this;
+        }
+
+        @Override
+        public TreeGenerator value(String value) {
+            add(value != null ? value : JSONObject.NULL);
+            return this;
+        }
+
+        @Override
+        public TreeGenerator value(long value) {
+            add(value);
+            return this;
+        }
+
+        @Override
+        public TreeGenerator value(boolean value) {
+            add(value);
+            return this;
+        }
+
+        @Override
+        public String toJson() {
+            if (root == null || !stack.isEmpty()) {
+                throw new IllegalStateException("Incomplete document");
+            }
+
+            return root.toString();
+        }
+
+        private void add(Object value) {
+            if (stack.isEmpty()) {
+                if (root != null) {
+                    throw new IllegalStateException("Value after the end of the document");
+                }
+
+                root = value;
+                return;
+            }
+
+            Object parent = stack.get(stack.size() - 1);
+
+            if (parent instanceof JSONArray) {
+                ((JSONArray) parent).put(value);
+                return;
+            }
+
+            if (name == null) {
+                throw new IllegalStateException("Value without a name");
+            }
+
+            try {
+                ((JSONObject) parent).put(name, value);
+            } catch (JSONException e) {
+                throw new IllegalStateException(e.getMessage(), e);
+            }
+
+            name = null;
+        }
+
+        private TreeGenerator end(Class<?> type) {
+            if (stack.isEmpty() || !type.isInstance(stack.get(stack.size() - 1)) || name != null) {
+                throw new IllegalStateException("Nesting problem");
+            }
+
+            stack.remove(stack.size() - 1);
+            return this;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.cyphercor.logintc;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Fetches the pages of a listing concurrently. A window of consecutive pages is in flight at any time; pages are handed to the sink in
+ * page order and the window slides forward as each page is delivered, so at most one window of pages is held in memory.
+ * <p>
+ * The listing ends at the first empty page or the first page shorter than an earlier one; requests for pages past it are cancelled.
+ */
+class PageFanOut<T> {
+    private final PageIterator.PageSource<T> source;
+    private final int parallelism;
+
+    /**
+     * @param source The source of the pages.
+     * @param parallelism The maximum number of pages fetched concurrently.
+     */
+    public PageFanOut(PageIterator.PageSource<T> source, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        }
+
+        this.source = source;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Fetch all pages and pass their contents to the sink in order.
+     *
+     * @param sink Receiver of the contents, called from the current thread.
+     * @return The number of pages fetched.
+     * @throws InterruptedException If interrupted while waiting for a page.
+     */
+    public int run(Consumer<? super T> sink) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, new DaemonThreadFactory("LoginTC-export"));
+        Deque<Future<List<T>>> window = new ArrayDeque<Future<List<T>>>();
+        int nextPage = 1;
+        int pages = 0;
+        int maxPageSize = 0;
+
+        try {
+            while (window.size() < parallelism) {
+                window.add(executor.submit(fetch(nextPage++)));
+            }
+
+            while (true) {
+                List<T> page = await(window.poll());
+                pages++;
+
+                if (page.size() < maxPageSize || page.isEmpty()) {
+                    deliver(page, sink);
+                    return pages;
+                }
+
+                maxPageSize = page.size();
+                window.add(executor.submit(fetch(nextPage++)));
+                deliver(page, sink);
+            }
+        } finally {
+            for (Future<List<T>> pending : window) {
+                pending.cancel(true);
+            }
+
+            executor.shutdownNow();
+        }
+    }
+
+    private Callable<List<T>> fetch(final int page) {
+        return new Callable<List<T>>() {
+            @Override
+            public List<T> call() {
+                return source.getPage(page);
+            }
+        };
+    }
+
+    private void deliver(List<T> page, Consumer<? super T> sink) {
+        for (T item : page) {
+            sink.accept(item);
+        }
+    }
+
+    private List<T> await(Future<List<T>> page) throws InterruptedException {
+        try {
+            return page.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+
+            throw (Error) cause;
+        }
+    }
+}
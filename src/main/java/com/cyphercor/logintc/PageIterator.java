@@ -0,0 +1,142 @@
+package com.cyphercor.logintc;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Iterator over a paginated listing. Pages are fetched lazily, and while a page is being consumed the next one is fetched in the
+ * background, so at most two pages are held at a time.
+ * <p>
+ * The API does not advertise its page size, so the listing ends at the first empty page or the first page shorter than an earlier one.
+ */
+class PageIterator<T> implements Iterator<T>, Closeable {
+
+    /**
+     * Fetches pages for all iterators. Threads are created on demand and exit when idle.
+     */
+    private static final ExecutorService PREFETCH = Executors.newCachedThreadPool(new DaemonThreadFactory("LoginTC-prefetch"));
+
+    /**
+     * Source of the pages of a listing.
+     */
+    interface PageSource<T> {
+        /**
+         * @param page The page number, starting at 1.
+         * @return The page contents, empty past the last page.
+         */
+        List<T> getPage(int page);
+    }
+
+    private final PageSource<T> source;
+
+    private Iterator<T> current = Collections.<T> emptyList().iterator();
+    private Future<List<T>> next = null;
+    private int nextPage = 1;
+    private int maxPageSize = 0;
+    private boolean last = false;
+
+    /**
+     * @param source The source of the pages.
+     */
+    public PageIterator(PageSource<T> source) {
+        this.source = source;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!current.hasNext()) {
+            if (last) {
+                return false;
+            }
+
+            List<T> page = await(next != null ? next : fetch(nextPage, false));
+            next = null;
+            nextPage++;
+
+            if (page.size() < maxPageSize || page.isEmpty()) {
+                last = true;
+            } else {
+                maxPageSize = page.size();
+                next = fetch(nextPage, true);
+            }
+
+            current = page.iterator();
+        }
+
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        return current.next();
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Stop iterating and cancel the background fetch, if any.
+     */
+    @Override
+    public void close() {
+        last = true;
+        current = Collections.<T> emptyList().iterator();
+
+        if (next != null) {
+            next.cancel(true);
+            next = null;
+        }
+    }
+
+    private Future<List<T>> fetch(final int page, boolean background) {
+        FutureTask<List<T>> task = new FutureTask<List<T>>(new Callable<List<T>>() {
+            @Override
+            public List<T> call() {
+                return source.getPage(page);
+            }
+        });
+
+        if (background) {
+            PREFETCH.execute(task);
+        } else {
+            task.run();
+        }
+
+        return task;
+    }
+
+    private List<T> await(Future<List<T>> page) {
+        try {
+            return page.get();
+        } catch (InterruptedException e) {
+            close();
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while waiting for page");
+        } catch (ExecutionException e) {
+            last = true;
+            Throwable cause = e.getCause();
+
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+
+            throw (Error) cause;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.cyphercor.logintc;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedule used by {@link SessionWaiter} to poll a pending session. Polling starts fast right after the session is created and backs off
+ * exponentially, since most users respond within a few seconds and the rest may take the whole request timeout.
+ */
+public class PollingPolicy {
+
+    private static final long DEFAULT_TIMEOUT = TimeUnit.MINUTES.toNanos(2);
+
+    /**
+     * The default policy: first poll after 500ms, backing off by 1.5x up to 5s with 20% jitter, waiting 2 minutes for domains without a
+     * request timeout.
+     */
+    public static final PollingPolicy DEFAULT = new PollingPolicy(500, 1.5, 5000, 0.2, TimeUnit.MILLISECONDS);
+
+    private final long initialInterval;
+    private final double multiplier;
+    private final long maxInterval;
+    private final double jitter;
+    private final long defaultTimeout;
+
+    /**
+     * @param initialInterval Delay before the first poll.
+     * @param multiplier Factor applied to the delay after every poll. Use 1 for a fixed interval.
+     * @param maxInterval Maximum delay between two polls.
+     * @param jitter Fraction of each delay, between 0 and 1, that is randomized to spread polls of sessions created together.
+     * @param unit The time unit of the intervals.
+     */
+    public PollingPolicy(long initialInterval, double multiplier, long maxInterval, double jitter, TimeUnit unit) {
+        this(unit.toNanos(initialInterval), multiplier, unit.toNanos(maxInterval), jitter, DEFAULT_TIMEOUT, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param initialInterval Delay before the first poll.
+     * @param multiplier Factor applied to the delay after every poll. Use 1 for a fixed interval.
+     * @param maxInterval Maximum delay between two polls.
+     * @param jitter Fraction of each delay, between 0 and 1, that is randomized to spread polls of sessions created together.
+     * @param defaultTimeout Time to wait for sessions of a domain that has no request timeout.
+     * @param unit The time unit of the intervals and the timeout.
+     */
+    public PollingPolicy(long initialInterval, double multiplier, long maxInterval, double jitter, long defaultTimeout, TimeUnit unit) {
+        if (multiplier < 1 || jitter < 0 || jitter > 1 || defaultTimeout <= 0) {
+            throw new IllegalArgumentException("multiplier must be at least 1, jitter between 0 and 1 and defaultTimeout positive");
+        }
+
+        this.initialInterval = unit.toNanos(initialInterval);
+        this.multiplier = multiplier;
+        this.maxInterval = unit.toNanos(maxInterval);
+        this.jitter = jitter;
+        this.defaultTimeout = unit.toNanos(defaultTimeout);
+    }
+
+    /**
+     * @param interval Delay between two polls.
+     * @param unit The time unit of the interval.
+     * @return A policy polling at a fixed interval.
+     */
+    public static PollingPolicy fixed(long interval, TimeUnit unit) {
+        return new PollingPolicy(interval, 1, interval, 0, unit);
+    }
+
+    /**
+     * @return Time in nanoseconds to wait for sessions of a domain that has no request timeout.
+     */
+    long getDefaultTimeout() {
+        return defaultTimeout;
+    }
+
+    /**
+     * @param polls Number of polls already made for the session.
+     * @return Delay in nanoseconds before the next poll.
+     */
+    long nextDelay(int polls) {
+        double delay = Math.min(maxInterval, initialInterval * Math.pow(multiplier, polls));
+
+        if (jitter > 0) {
+            delay -= delay * jitter * ThreadLocalRandom.current().nextDouble();
+        }
+
+        return (long) delay;
+    }
+}
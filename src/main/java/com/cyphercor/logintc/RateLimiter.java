@@ -0,0 +1,100 @@
+package com.cyphercor.logintc;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket rate limiter. Callers that exceed the rate are delayed rather than rejected, in the order they arrived, so bursts are
+ * smoothed out before they reach the API.
+ */
+class RateLimiter {
+    private final double permitsPerNano;
+    private final double maxPermits;
+
+    private double storedPermits;
+    private long lastRefill;
+
+    /**
+     * @param permitsPerSecond The sustained number of requests per second.
+     * @param burst The number of requests that may be sent back to back after a quiet period.
+     */
+    public RateLimiter(double permitsPerSecond, int burst) {
+        if (permitsPerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("permitsPerSecond must be positive and burst at least 1");
+        }
+
+        this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.maxPermits = burst;
+        this.storedPermits = burst;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Take a permit, waiting until one is available.
+     *
+     * @return The time waited in nanoseconds.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public long acquire() throws InterruptedException {
+        long wait = reserve(System.nanoTime(), Long.MAX_VALUE);
+
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+
+        return wait;
+    }
+
+    /**
+     * Take a permit if one is available before the deadline, waiting for it.
+     *
+     * @param deadline The deadline as a {@link System#nanoTime()} value.
+     * @return True if a permit was taken, false if none would be available in time. No permit is consumed in that case.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public boolean acquire(long deadline) throws InterruptedException {
+        long now = System.nanoTime();
+        long wait = reserve(now, deadline - now);
+
+        if (wait < 0) {
+            return false;
+        }
+
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+
+        return true;
+    }
+
+    /**
+     * Take a permit. Permits may go negative; the debt is paid back by waiting.
+     *
+     * @param now The current time in nanoseconds.
+     * @return The time in nanoseconds the caller must wait before using the permit.
+     */
+    long reserve(long now) {
+        return reserve(now, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param now The current time in nanoseconds.
+     * @param maxWait The longest acceptable wait in nanoseconds.
+     * @return The time in nanoseconds the caller must wait before using the permit, or -1 if that exceeds maxWait.
+     */
+    synchronized long reserve(long now, long maxWait) {
+        if (now > lastRefill) {
+            storedPermits = Math.min(maxPermits, storedPermits + (now - lastRefill) * permitsPerNano);
+            lastRefill = now;
+        }
+
+        long wait = storedPermits >= 1 ? 0 : (long) Math.ceil((1 - storedPermits) / permitsPerNano);
+
+        if (wait > maxWait) {
+            return -1;
+        }
+
+        storedPermits -= 1;
+
+        return wait;
+    }
+}
@@ -0,0 +1,299 @@
+package com.cyphercor.logintc;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import com.cyphercor.logintc.AdminRestClient.ResponseReader;
+import com.cyphercor.logintc.resource.BypassCode;
+import com.cyphercor.logintc.resource.Domain;
+import com.cyphercor.logintc.resource.HardwareToken;
+import com.cyphercor.logintc.resource.Organization;
+import com.cyphercor.logintc.resource.Session;
+import com.cyphercor.logintc.resource.Token;
+import com.cyphercor.logintc.resource.User;
+
+/**
+ * Decoder of a JSON object into a resource, shared by every call that returns the resource, whether it decodes a response string or a
+ * streamed listing.
+ * <p>
+ * Field names are looked up once in a precomputed table; unknown fields are skipped. A response missing a required field is rejected
+ * as malformed.
+ */
+abstract class ResourceMapper<T> {
+
+    static final ResourceMapper<User> USER = new ResourceMapper<User>("user", 6, "id", "username", "email", "name", "hardware", "domains",
+            "bypasscodes") {
+        @Override
+        protected Object readValue(int field, JsonCodec.Parser reader) throws IOException {
+            return field >= 5 ? readStrings(reader) : reader.nextString();
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        protected User create(Object[] values, JsonCodec.Parser reader) {
+            List<String> bypassCodes = values[6] != null ? (List<String>) values[6] : new ArrayList<String>(0);
+
+            return new User((String) values[0], (String) values[1], (String) values[2], (String) values[3], (List<String>) values[5],
+                    bypassCodes, (String) values[4]);
+        }
+    };
+
+    static final ResourceMapper<HardwareToken> HARDWARE_TOKEN = new ResourceMapper<HardwareToken>("hardware token", 7, "id", "alias",
+            "serialNumber", "type", "timeStep", "syncState", "user") {
+        @Override
+        protected HardwareToken create(Object[] values, JsonCodec.Parser reader) {
+            return new HardwareToken((String) values[0], (String) values[1], (String) values[2], (String) values[3], (String) values[4],
+                    (String) values[5], (String) values[6]);
+        }
+    };
+
+    static final ResourceMapper<BypassCode> BYPASS_CODE = new ResourceMapper<BypassCode>("bypass code", 6, "id", "code", "dtExpiry",
+            "user", "usesAllowed", "usesRemaining") {
+        @Override
+        protected Object readValue(int field, JsonCodec.Parser reader) throws IOException {
+            return field >= 4 ? reader.nextInt() : reader.nextString();
+        }
+
+        @Override
+        protected BypassCode create(Object[] values, JsonCodec.Parser reader) throws IOException {
+            try {
+                return new BypassCode((String) values[0], (String) values[1], Iso8601.parse((String) values[2]), (String) values[3],
+                        (Integer) values[4], (Integer) values[5]);
+            } catch (ParseException e) {
+                throw reader.syntaxError(String.format("Invalid dtExpiry %s", values[2]));
+            }
+        }
+    };
+
+    static final ResourceMapper<Token> TOKEN = new ResourceMapper<Token>("token", 1, "state", "code") {
+        @Override
+        protected Token create(Object[] values, JsonCodec.Parser reader) throws IOException {
+            return new Token(state(Token.State.class, (String) values[0], reader), (String) values[1]);
+        }
+    };
+
+    static final ResourceMapper<Session> SESSION = new ResourceMapper<Session>("session", 2, "id", "state") {
+        @Override
+        protected Session create(Object[] values, JsonCodec.Parser reader) throws IOException {
+            return new Session((String) values[0], state(Session.State.class, (String) values[1], reader));
+        }
+    };
+
+    /**
+     * Decoder of a polled session, whose identifier the caller already knows.
+     */
+    static final ResourceMapper<Session.State> SESSION_STATE = new ResourceMapper<Session.State>("session", 1, "state") {
+        @Override
+        protected Session.State create(Object[] values, JsonCodec.Parser reader) throws IOException {
+            return state(Session.State.class, (String) values[0], reader);
+        }
+    };
+
+    static final ResourceMapper<Domain> DOMAIN = new ResourceMapper<Domain>("domain", 9, "id", "name", "type", "keyType",
+            "maxAllowedRetries", "requestTimeout", "activationCodeExpiration", "requestPollingEnabled", "bypassEnabled") {
+        @Override
+        protected Object readValue(int field, JsonCodec.Parser reader) throws IOException {
+            if (field >= 7) {
+                return reader.nextBoolean();
+            }
+
+            return field >= 4 ? reader.nextInt() : reader.nextString();
+        }
+
+        @Override
+        protected Domain create(Object[] values, JsonCodec.Parser reader) {
+            return new Domain((String) values[0], (String) values[1], (String) values[2], (String) values[3], (Integer) values[4],
+                    (Integer) values[5], (Integer) values[6], (Boolean) values[7], (Boolean) values[8]);
+        }
+    };
+
+    static final ResourceMapper<Organization> ORGANIZATION = new ResourceMapper<Organization>("organization", 1, "name") {
+        @Override
+        protected Organization create(Object[] values, JsonCodec.Parser reader) {
+            return new Organization((String) values[0]);
+        }
+    };
+
+    /**
+     * Decoder of the ping status, true if the status is OK.
+     */
+    static final ResourceMapper<Boolean> PING = new ResourceMapper<Boolean>("ping", 1, "status") {
+        @Override
+        protected Boolean create(Object[] values, JsonCodec.Parser reader) {
+            return "OK".equals(values[0]);
+        }
+    };
+
+    private final String resource;
+    private final int fieldCount;
+    private final int required;
+    private final Map<String, Integer> fieldIndexes = new HashMap<String, Integer>();
+
+    /**
+     * Size of the last decoded list, to presize the next one; listings are paged, so consecutive pages are mostly the same size.
+     */
+    private volatile int listSizeHint = 10;
+
+    /**
+     * @param resource The resource name, for error messages.
+     * @param requiredCount The number of leading fields that are required.
+     * @param fields The field names; a field's value is stored at its index.
+     */
+    private ResourceMapper(String resource, int requiredCount, String... fields) {
+        this.resource = resource;
+        this.fieldCount = fields.length;
+        this.required = (1 << requiredCount) - 1;
+
+        for (int i = 0; i < fields.length; i++) {
+            fieldIndexes.put(fields[i], i);
+        }
+    }
+
+    /**
+     * @param codec The codec to decode with.
+     * @return Decoder of a response holding a single resource.
+     */
+    ResponseReader<T> object(final JsonCodec codec) {
+        return new ResponseReader<T>() {
+            @Override
+            public T read(Reader in) throws IOException {
+                JsonCodec.Parser reader = codec.newParser(in);
+
+                try {
+                    return ResourceMapper.this.read(reader);
+                } finally {
+                    reader.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * @param codec The codec to decode with.
+     * @return Decoder of a response holding an array of resources, decoded element by element.
+     */
+    ResponseReader<List<T>> list(final JsonCodec codec) {
+        return new ResponseReader<List<T>>() {
+            @Override
+            public List<T> read(Reader in) throws IOException {
+                JsonCodec.Parser reader = codec.newParser(in);
+
+                try {
+                    List<T> list = new ArrayList<T>(listSizeHint);
+
+                    reader.beginArray();
+
+                    while (reader.hasNext()) {
+                        list.add(ResourceMapper.this.read(reader));
+                    }
+
+                    reader.endArray();
+
+                    if (!list.isEmpty()) {
+                        listSizeHint = list.size();
+                    }
+
+                    return list;
+                } finally {
+                    reader.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * @param codec The codec to decode with.
+     * @param json A response holding a single resource.
+     * @return The resource.
+     * @throws IOException If the response is malformed.
+     */
+    T read(JsonCodec codec, String json) throws IOException {
+        return object(codec).read(new StringReader(json));
+    }
+
+    /**
+     * @param reader A reader positioned at the start of an object.
+     * @return The resource.
+     * @throws IOException If the object is malformed.
+     */
+    T read(JsonCodec.Parser reader) throws IOException {
+        Object[] values = new Object[fieldCount];
+        int fields = 0;
+
+        reader.beginObject();
+
+        while (reader.hasNext()) {
+            Integer field = fieldIndexes.get(reader.nextName());
+
+            if (field == null) {
+                reader.skipValue();
+            } else {
+                values[field] = readValue(field, reader);
+                fields |= 1 << field;
+            }
+        }
+
+        reader.endObject();
+
+        if ((fields & required) != required) {
+            throw reader.syntaxError(String.format("Missing fields in %s", resource));
+        }
+
+        return create(values, reader);
+    }
+
+    /**
+     * Decode the value of a known field. Values are strings unless overridden.
+     */
+    protected Object readValue(int field, JsonCodec.Parser reader) throws IOException {
+        return reader.nextString();
+    }
+
+    /**
+     * @param values The decoded values, by field index; null for absent optional fields.
+     * @param reader The reader, to report semantic errors.
+     */
+    protected abstract T create(Object[] values, JsonCodec.Parser reader) throws IOException;
+
+    /**
+     * @return The state named, case insensitively, by the value.
+     */
+    static <E extends Enum<E>> E state(Class<E> type, String value, JsonCodec.Parser reader) throws IOException {
+        if (value == null) {
+            throw reader.syntaxError("Missing state");
+        }
+
+        try {
+            return Enum.valueOf(type, value.toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            throw reader.syntaxError(String.format("Unknown state %s", value));
+        }
+    }
+
+    static List<String> readStrings(JsonCodec.Parser reader) throws IOException {
+        reader.beginArray();
+
+        // Fast path for the common empty array, such as a user without bypass codes
+        if (!reader.hasNext()) {
+            reader.endArray();
+            return new ArrayList<String>(0);
+        }
+
+        List<String> strings = new ArrayList<String>();
+
+        while (reader.hasNext()) {
+            strings.add(reader.nextString());
+        }
+
+        reader.endArray();
+
+        return strings;
+    }
+}
@@ -0,0 +1,190 @@
+package com.cyphercor.logintc;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.apache.http.Consts;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+
+/**
+ * Writer of session creation requests, the body posted for every login. The request is encoded as UTF-8 straight into a byte buffer
+ * reused by the thread, without building a document or an intermediate string.
+ * <p>
+ * The returned entity wraps the thread's buffer, so it must be sent before the thread writes another request.
+ */
+final class SessionRequestWriter {
+    private static final int INITIAL_CAPACITY = 512;
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    private static final ContentType JSON_UTF_8 = ContentType.create("application/json", Consts.UTF_8);
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+    private static final ThreadLocal<SessionRequestWriter> WRITERS = new ThreadLocal<SessionRequestWriter>() {
+        @Override
+        protected SessionRequestWriter initialValue() {
+            return new SessionRequestWriter();
+        }
+    };
+
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    private int count = 0;
+
+    private SessionRequestWriter() {
+    }
+
+    /**
+     * @param userField The member identifying the user, either "id" or "username".
+     * @param user The user identifier or username.
+     * @param attributes The request attributes, or null for none.
+     * @param ipAddress The IP address of the user, or null.
+     * @param bypassCode The bypass code, or null.
+     * @param otp The one-time password, or null. Ignored if a bypass code is given.
+     * @return The request body.
+     */
+    static ByteArrayEntity write(String userField, String user, Map<String, String> attributes, String ipAddress, String bypassCode,
+            String otp) {
+        SessionRequestWriter writer = WRITERS.get();
+
+        // Drop a buffer grown by an unusually large request rather than keep it for the thread's lifetime
+        if (writer.buffer.length > MAX_RETAINED_CAPACITY) {
+            writer.buffer = new byte[INITIAL_CAPACITY];
+        }
+
+        writer.count = 0;
+        writer.writeRequest(userField, user, attributes, ipAddress, bypassCode, otp);
+
+        return new ByteArrayEntity(writer.buffer, 0, writer.count, JSON_UTF_8);
+    }
+
+    private void writeRequest(String userField, String user, Map<String, String> attributes, String ipAddress, String bypassCode,
+            String otp) {
+        ascii("{\"user\":{");
+
+        if (user != null) {
+            string(userField);
+            ascii(":");
+            string(user);
+        }
+
+        ascii("},\"attributes\":[");
+
+        if (attributes != null) {
+            boolean first = true;
+
+            for (Map.Entry<String, String> entry : attributes.entrySet()) {
+                ascii(first ? "{" : ",{");
+                first = false;
+
+                if (entry.getKey() != null) {
+                    ascii("\"key\":");
+                    string(entry.getKey());
+                }
+
+                if (entry.getValue() != null) {
+                    ascii(entry.getKey() != null ? ",\"value\":" : "\"value\":");
+                    string(entry.getValue());
+                }
+
+                ascii("}");
+            }
+        }
+
+        ascii("]");
+
+        if (ipAddress != null && !ipAddress.isEmpty()) {
+            ascii(",\"ipAddress\":");
+            string(ipAddress);
+        }
+
+        if (bypassCode != null) {
+            ascii(",\"bypasscode\":");
+            string(bypassCode);
+        } else if (otp != null) {
+            ascii(",\"otp\":");
+            string(otp);
+        }
+
+        ascii("}");
+    }
+
+    private void ascii(String value) {
+        int length = value.length();
+        ensureCapacity(length);
+
+        for (int i = 0; i < length; i++) {
+            buffer[count++] = (byte) value.charAt(i);
+        }
+    }
+
+    /**
+     * Write a quoted string, escaped as JSON and encoded as UTF-8. Unpaired surrogates are replaced with '?', as by
+     * {@link String#getBytes(java.nio.charset.Charset)}.
+     */
+    private void string(String value) {
+        int length = value.length();
+
+        // Worst case of three bytes per char, or six for an escape
+        ensureCapacity(length * 6 + 2);
+        buffer[count++] = '"';
+
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+
+            if (c < 0x80) {
+                if (c == '"' || c == '\\') {
+                    buffer[count++] = '\\';
+                    buffer[count++] = (byte) c;
+                } else if (c == '\n') {
+                    buffer[count++] = '\\';
+                    buffer[count++] = 'n';
+                } else if (c == '\r') {
+                    buffer[count++] = '\\';
+                    buffer[count++] = 'r';
+                } else if (c == '\t') {
+                    buffer[count++] = '\\';
+                    buffer[count++] = 't';
+                } else if (c < 0x20) {
+                    unicodeEscape(c);
+                } else {
+                    buffer[count++] = (byte) c;
+                }
+            } else if (c < 0x800) {
+                buffer[count++] = (byte) (0xc0 | (c >> 6));
+                buffer[count++] = (byte) (0x80 | (c & 0x3f));
+            } else if (c == '\u2028' || c == '\u2029') {
+                unicodeEscape(c);
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer[count++] = (byte) (0xf0 | (codePoint >> 18));
+                buffer[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                buffer[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                buffer[count++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                buffer[count++] = '?';
+            } else {
+                buffer[count++] = (byte) (0xe0 | (c >> 12));
+                buffer[count++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buffer[count++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+
+        buffer[count++] = '"';
+    }
+
+    private void unicodeEscape(char c) {
+        buffer[count++] = '\\';
+        buffer[count++] = 'u';
+        buffer[count++] = HEX[c >> 12];
+        buffer[count++] = HEX[(c >> 8) & 0xf];
+        buffer[count++] = HEX[(c >> 4) & 0xf];
+        buffer[count++] = HEX[c & 0xf];
+    }
+
+    private void ensureCapacity(int extra) {
+        if (count + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, count + extra));
+        }
+    }
+}
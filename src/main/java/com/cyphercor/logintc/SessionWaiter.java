@@ -0,0 +1,258 @@
+package com.cyphercor.logintc;
+
+import java.io.Closeable;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.cyphercor.logintc.LoginTC.ApiLoginTCException;
+import com.cyphercor.logintc.LoginTC.LoginTCException;
+import com.cyphercor.logintc.resource.Domain;
+import com.cyphercor.logintc.resource.Session;
+
+/**
+ * Waits for pending sessions to be approved or denied without blocking a thread per session. All registered sessions are polled from a
+ * single scheduler thread; the polls themselves run on the {@link LoginTCAsync} executor.
+ * <p>
+ * Each session is polled according to the {@link PollingPolicy} of its domain and never past its deadline. When waiting on a
+ * {@link Domain}, the deadline is the domain's request timeout. A poll that fails without an answer from the API, such as on a network
+ * error or an open circuit breaker, is retried on the same schedule, since the user may still respond before the deadline.
+ */
+public class SessionWaiter implements Closeable {
+
+    /**
+     * Receives the outcome of every wait, e.g. to tune polling policies against approval latency.
+     */
+    public interface Listener {
+        /**
+         * @param domainId The domain identifier.
+         * @param sessionId The session identifier.
+         * @param state The last polled state: APPROVED, DENIED, PENDING if the wait timed out, or null if no poll succeeded.
+         * @param polls The number of polls made for the session.
+         * @param elapsed The time in milliseconds from registration to completion.
+         */
+        void onComplete(String domainId, String sessionId, Session.State state, int polls, long elapsed);
+    }
+
+    /**
+     * State of a registered session.
+     */
+    private class Wait implements Runnable {
+        private final String domainId;
+        private final String sessionId;
+        private final long start;
+        private final long deadline;
+        private final PollingPolicy policy;
+        private final CompletableFuture<Session> future = new CompletableFuture<Session>();
+
+        private volatile int polls = 0;
+        private volatile Session.State state = null;
+
+        Wait(String domainId, String sessionId, long start, long deadline) {
+            this.domainId = domainId;
+            this.sessionId = sessionId;
+            this.start = start;
+            this.deadline = deadline;
+            this.policy = getPollingPolicy(domainId);
+        }
+
+        @Override
+        public void run() {
+            if (future.isDone()) {
+                return;
+            }
+
+            polls++;
+            totalPolls.incrementAndGet();
+
+            client.getSession(domainId, sessionId).whenComplete((session, throwable) -> {
+                long remaining = deadline - System.nanoTime();
+
+                if (throwable != null) {
+                    if (remaining <= 0 || !isTransient(throwable)) {
+                        future.completeExceptionally(throwable);
+                    } else {
+                        schedule(this, Math.min(policy.nextDelay(polls), remaining));
+                    }
+
+                    return;
+                }
+
+                state = session.getState();
+
+                if (state != Session.State.PENDING) {
+                    future.complete(session);
+                } else if (remaining <= 0) {
+                    future.completeExceptionally(new TimeoutException(String.format("Session %s is still pending", sessionId)));
+                } else {
+                    schedule(this, Math.min(policy.nextDelay(polls), remaining));
+                }
+            });
+        }
+    }
+
+    private LoginTCAsync client = null;
+    private PollingPolicy defaultPolicy = null;
+    private Listener listener = null;
+    private ScheduledThreadPoolExecutor scheduler = null;
+    private final Map<String, PollingPolicy> domainPolicies = new ConcurrentHashMap<String, PollingPolicy>();
+    private final Set<Wait> waits = ConcurrentHashMap.newKeySet();
+    private final AtomicLong totalPolls = new AtomicLong();
+
+    /**
+     * @param client The asynchronous client used to poll sessions.
+     */
+    public SessionWaiter(LoginTCAsync client) {
+        this(client, PollingPolicy.DEFAULT);
+    }
+
+    /**
+     * @param client The asynchronous client used to poll sessions.
+     * @param pollInterval Time between two polls of the same session.
+     * @param unit The time unit of the poll interval.
+     */
+    public SessionWaiter(LoginTCAsync client, long pollInterval, TimeUnit unit) {
+        this(client, PollingPolicy.fixed(pollInterval, unit));
+    }
+
+    /**
+     * @param client The asynchronous client used to poll sessions.
+     * @param defaultPolicy The polling policy for domains without a specific policy.
+     */
+    public SessionWaiter(LoginTCAsync client, PollingPolicy defaultPolicy) {
+        this.client = client;
+        this.defaultPolicy = defaultPolicy;
+        this.scheduler = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("LoginTC-session-waiter"));
+        this.scheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * @param domainId The domain identifier.
+     * @param policy The polling policy for sessions of the domain, or null to use the default policy.
+     */
+    public void setPollingPolicy(String domainId, PollingPolicy policy) {
+        if (policy == null) {
+            domainPolicies.remove(domainId);
+        } else {
+            domainPolicies.put(domainId, policy);
+        }
+    }
+
+    /**
+     * @param domainId The domain identifier.
+     * @return The polling policy used for sessions of the domain.
+     */
+    public PollingPolicy getPollingPolicy(String domainId) {
+        PollingPolicy policy = domainPolicies.get(domainId);
+        return policy != null ? policy : defaultPolicy;
+    }
+
+    /**
+     * @param listener Listener notified when a wait completes, or null for none.
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Wait for a session to leave the pending state, for at most the domain's request timeout, or the polling policy's default timeout if
+     * the domain has none. Call right after creating the session so the deadline matches the one enforced by LoginTC.
+     *
+     * @param domain The target domain.
+     * @param sessionId The target session identifier.
+     * @return Future completing with the approved or denied session, or exceptionally with a {@link TimeoutException} if the session is
+     *         still pending after the domain's request timeout. A failed poll is retried until then unless the API rejected it, such as
+     *         for an unknown session, which fails the future with the {@link ApiLoginTCException}; if the last poll before the deadline
+     *         failed, the future fails with its exception. Cancelling the future stops polling.
+     */
+    public CompletableFuture<Session> await(Domain domain, String sessionId) {
+        Integer requestTimeout = domain.getRequestTimeout();
+
+        if (requestTimeout == null) {
+            return await(domain.getId(), sessionId, getPollingPolicy(domain.getId()).getDefaultTimeout(), TimeUnit.NANOSECONDS);
+        }
+
+        return await(domain.getId(), sessionId, requestTimeout, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Wait for a session to leave the pending state.
+     *
+     * @param domainId The target domain identifier.
+     * @param sessionId The target session identifier.
+     * @param timeout Maximum time to wait for the user to respond.
+     * @param unit The time unit of the timeout.
+     * @return Future completing with the approved or denied session, or exceptionally with a {@link TimeoutException} if the session is
+     *         still pending after the timeout. A failed poll is retried until then unless the API rejected it, such as for an unknown
+     *         session, which fails the future with the {@link ApiLoginTCException}; if the last poll before the timeout failed, the future
+     *         fails with its exception. Cancelling the future stops polling.
+     */
+    public CompletableFuture<Session> await(String domainId, String sessionId, long timeout, TimeUnit unit) {
+        long start = System.nanoTime();
+        final Wait wait = new Wait(domainId, sessionId, start, start + unit.toNanos(timeout));
+
+        waits.add(wait);
+        wait.future.whenComplete((session, throwable) -> {
+            waits.remove(wait);
+
+            Listener current = listener;
+
+            if (current != null) {
+                long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - wait.start);
+                current.onComplete(wait.domainId, wait.sessionId, wait.state, wait.polls, elapsed);
+            }
+        });
+
+        schedule(wait, Math.min(wait.policy.nextDelay(0), unit.toNanos(timeout)));
+
+        return wait.future;
+    }
+
+    /**
+     * @return The number of sessions currently being waited on.
+     */
+    public int getPendingCount() {
+        return waits.size();
+    }
+
+    /**
+     * @return The number of polls made since the waiter was created.
+     */
+    public long getTotalPolls() {
+        return totalPolls.get();
+    }
+
+    /**
+     * Stop polling. Sessions still pending complete exceptionally with a {@link CancellationException}.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+
+        for (Wait wait : waits) {
+            wait.future.completeExceptionally(new CancellationException("Session waiter closed"));
+        }
+    }
+
+    /**
+     * @return True if the poll failed without an answer from the API, so that polling again may succeed.
+     */
+    private static boolean isTransient(Throwable throwable) {
+        return throwable instanceof LoginTCException && !(throwable instanceof ApiLoginTCException);
+    }
+
+    private void schedule(Wait wait, long delay) {
+        try {
+            scheduler.schedule(wait, delay, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            wait.future.completeExceptionally(e);
+        }
+    }
+}
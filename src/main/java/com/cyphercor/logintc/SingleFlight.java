@@ -0,0 +1,82 @@
+package com.cyphercor.logintc;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.cyphercor.logintc.AdminRestClient.AdminRestClientException;
+import com.cyphercor.logintc.AdminRestClient.InternalAdminRestClientException;
+
+/**
+ * Coalesces identical concurrent calls. The first caller of a key runs the call; callers arriving while it is in flight wait for it and
+ * share its result or failure instead of making their own call. A caller that shares a failure receives its own copy of the exception,
+ * so stack traces and suppressed exceptions added by one caller are not seen by the others. Unchecked exceptions indicate a bug and are
+ * rethrown to every caller as the same instance.
+ */
+class SingleFlight<V> {
+
+    /**
+     * A call that can be shared.
+     */
+    interface Call<V> {
+        V call() throws AdminRestClientException;
+    }
+
+    private final ConcurrentMap<String, FutureTask<V>> inFlight = new ConcurrentHashMap<String, FutureTask<V>>();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * @return The number of callers that shared another caller's call.
+     */
+    long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    /**
+     * @param key Identity of the call; calls with equal keys must be interchangeable.
+     * @param call The call.
+     * @return The result of the call, possibly shared with other callers.
+     * @throws AdminRestClientException If the call fails; a copy of the failure if the call was shared.
+     */
+    V execute(String key, final Call<V> call) throws AdminRestClientException {
+        FutureTask<V> task = new FutureTask<V>(new Callable<V>() {
+            @Override
+            public V call() throws AdminRestClientException {
+                return call.call();
+            }
+        });
+        FutureTask<V> existing = inFlight.putIfAbsent(key, task);
+        boolean joined = existing != null;
+
+        if (joined) {
+            coalesced.incrementAndGet();
+            task = existing;
+        } else {
+            try {
+                task.run();
+            } finally {
+                inFlight.remove(key, task);
+            }
+        }
+
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InternalAdminRestClientException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof AdminRestClientException) {
+                throw joined ? ((AdminRestClientException) cause).copy() : (AdminRestClientException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+
+            throw (Error) cause;
+        }
+    }
+}
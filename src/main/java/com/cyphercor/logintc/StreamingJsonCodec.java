@@ -0,0 +1,76 @@
+package com.cyphercor.logintc;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * The default codec. Responses are parsed token by token straight from the response stream into resources, and requests are written
+ * straight into a string buffer; no document tree is built and numbers are not boxed.
+ * <p>
+ * Each thread keeps one parse buffer and one generator buffer, which are reused by successive calls on that thread.
+ */
+public class StreamingJsonCodec implements JsonCodec {
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    /**
+     * The thread's parse buffer, or null while a parser on the thread holds it.
+     */
+    private static final ThreadLocal<char[]> PARSE_BUFFERS = new ThreadLocal<char[]>() {
+        @Override
+        protected char[] initialValue() {
+            return new char[JsonReader.BUFFER_SIZE];
+        }
+    };
+
+    private static final ThreadLocal<StringBuilder> GENERATE_BUFFERS = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(256);
+        }
+    };
+
+    @Override
+    public JsonCodec.Parser newParser(Reader in) {
+        char[] pooled = PARSE_BUFFERS.get();
+
+        if (pooled == null) {
+            return new JsonReader(in);
+        }
+
+        PARSE_BUFFERS.set(null);
+
+        final char[] buffer = pooled;
+        final Thread owner = Thread.currentThread();
+
+        return new JsonReader(in, buffer) {
+            private boolean released = false;
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    // Only the thread the buffer came from may take it back
+                    if (!released && Thread.currentThread() == owner) {
+                        released = true;
+                        PARSE_BUFFERS.set(buffer);
+                    }
+                }
+            }
+        };
+    }
+
+    @Override
+    public JsonCodec.Generator newGenerator() {
+        StringBuilder buffer = GENERATE_BUFFERS.get();
+
+        // Drop a buffer grown by an unusually large request rather than keep it for the thread's lifetime
+        if (buffer.capacity() > MAX_RETAINED_CAPACITY) {
+            buffer = new StringBuilder(256);
+            GENERATE_BUFFERS.set(buffer);
+        }
+
+        buffer.setLength(0);
+        return new JsonWriter(buffer);
+    }
+}
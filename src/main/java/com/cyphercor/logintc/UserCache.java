@@ -0,0 +1,227 @@
+package com.cyphercor.logintc;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import com.cyphercor.logintc.resource.User;
+
+/**
+ * In-process cache of users, indexed by identifier and by username. Entries expire after a fixed time and the least recently used entry
+ * is evicted once the cache is full.
+ * <p>
+ * Users are copied in and out of the cache, so callers may modify the users they get without affecting other callers.
+ */
+public class UserCache {
+
+    /**
+     * A cached user and the time it expires, as a {@link System#nanoTime()} value.
+     */
+    private static class CachedUser {
+        private final User user;
+        private final long expiresAt;
+
+        CachedUser(User user, long expiresAt) {
+            this.user = user;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final int maxSize;
+    private final long ttl;
+
+    private final LinkedHashMap<String, CachedUser> users;
+    private final Map<String, String> userIds = new HashMap<String, String>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private long generation = 0;
+
+    /**
+     * @param maxSize The maximum number of cached users.
+     * @param ttl Time after which a cached user is fetched again.
+     * @param unit The time unit of the ttl.
+     */
+    public UserCache(int maxSize, long ttl, TimeUnit unit) {
+        if (maxSize < 1 || ttl <= 0) {
+            throw new IllegalArgumentException("maxSize and ttl must be positive");
+        }
+
+        this.maxSize = maxSize;
+        this.ttl = unit.toNanos(ttl);
+        this.users = new LinkedHashMap<String, CachedUser>(16, 0.75f, true) {
+            private static final long serialVersionUID = 5003385493472394917L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedUser> eldest) {
+                if (size() > UserCache.this.maxSize) {
+                    unindex(eldest.getValue().user);
+                    return true;
+                }
+
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return The number of lookups served from the cache.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return The number of lookups that had to be fetched.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return The number of cached users, including expired users not yet evicted.
+     */
+    public synchronized int size() {
+        return users.size();
+    }
+
+    /**
+     * Remove all users.
+     */
+    public synchronized void clear() {
+        users.clear();
+        userIds.clear();
+        generation++;
+    }
+
+    /**
+     * @param userId The user's identifier.
+     * @return A copy of the cached user, or null if not cached or expired.
+     */
+    synchronized User get(String userId) {
+        CachedUser entry = users.get(userId);
+
+        if (entry == null || isExpired(entry)) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        hits.incrementAndGet();
+        return copy(entry.user);
+    }
+
+    /**
+     * @param username The user's username.
+     * @return A copy of the cached user, or null if not cached or expired.
+     */
+    synchronized User getByUsername(String username) {
+        String userId = userIds.get(username);
+
+        if (userId == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        return get(userId);
+    }
+
+    /**
+     * @param userId The user's identifier.
+     * @return The username of the cached user, or null if not cached or expired. Not counted as a lookup.
+     */
+    synchronized String getUsername(String userId) {
+        CachedUser entry = users.get(userId);
+        return entry != null && !isExpired(entry) ? entry.user.getUsername() : null;
+    }
+
+    /**
+     * @return The current generation, to be passed to {@link #put(User, long)} for a user fetched after this call.
+     */
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Cache a user, unless an invalidation happened since the user was fetched, in which case the user may already be stale.
+     *
+     * @param user The fetched user.
+     * @param generation The generation at the time the fetch started.
+     */
+    synchronized void put(User user, long generation) {
+        put(user, generation, 0);
+    }
+
+    /**
+     * Cache a user fetched some time ago, such as one loaded from a snapshot. It expires once the ttl has elapsed since it was fetched,
+     * and is not cached if that already happened.
+     *
+     * @param user The fetched user.
+     * @param generation The generation at the time the fetch started.
+     * @param age Time in nanoseconds since the user was fetched.
+     */
+    synchronized void put(User user, long generation, long age) {
+        if (generation != this.generation || user.getId() == null || age >= ttl) {
+            return;
+        }
+
+        CachedUser previous = users.put(user.getId(), new CachedUser(copy(user), System.nanoTime() + ttl - Math.max(0, age)));
+
+        if (previous != null) {
+            unindex(previous.user);
+        }
+
+        userIds.put(user.getUsername(), user.getId());
+    }
+
+    /**
+     * @param userId The identifier of the user to remove.
+     */
+    synchronized void invalidate(String userId) {
+        CachedUser entry = users.remove(userId);
+
+        if (entry != null) {
+            unindex(entry.user);
+        }
+
+        generation++;
+    }
+
+    /**
+     * @param predicate Condition of the users to remove.
+     */
+    synchronized void invalidate(Predicate<User> predicate) {
+        for (Iterator<CachedUser> iterator = users.values().iterator(); iterator.hasNext();) {
+            CachedUser entry = iterator.next();
+
+            if (predicate.test(entry.user)) {
+                iterator.remove();
+                unindex(entry.user);
+            }
+        }
+
+        generation++;
+    }
+
+    private boolean isExpired(CachedUser entry) {
+        return System.nanoTime() - entry.expiresAt >= 0;
+    }
+
+    private void unindex(User user) {
+        if (user.getId().equals(userIds.get(user.getUsername()))) {
+            userIds.remove(user.getUsername());
+        }
+    }
+
+    private static User copy(User user) {
+        List<String> domains = user.getDomains() != null ? new ArrayList<String>(user.getDomains()) : null;
+        List<String> bypassCodes = user.getBypassCodes() != null ? new ArrayList<String>(user.getBypassCodes()) : null;
+
+        return new User(user.getId(), user.getUsername(), user.getEmail(), user.getName(), domains, bypassCodes, user.getHardware());
+    }
+}
@@ -0,0 +1,598 @@
+package com.cyphercor.logintc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.lang.ref.WeakReference;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.impl.cookie.DateUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.cyphercor.logintc.AdminRestClient.AdminRestClientException;
+import com.cyphercor.logintc.AdminRestClient.CircuitOpenAdminRestClientException;
+import com.cyphercor.logintc.AdminRestClient.DeadlineExceededAdminRestClientException;
+import com.cyphercor.logintc.AdminRestClient.InternalAdminRestClientException;
+import com.cyphercor.logintc.AdminRestClient.RestAdminRestClientException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests for the admin REST client against a local HTTP server replaying scripted responses.
+ */
+public class AdminRestClientTest {
+
+    /**
+     * A scripted response.
+     */
+    private static class Reply {
+        private final int statusCode;
+        private final String[] headers;
+        private final byte[] body;
+
+        /**
+         * @param statusCode The status code.
+         * @param body The body, or null for none.
+         * @param headers Header names and values, alternating.
+         */
+        Reply(int statusCode, byte[] body, String... headers) {
+            this.statusCode = statusCode;
+            this.body = body;
+            this.headers = headers;
+        }
+
+        void send(HttpExchange exchange) throws IOException {
+            for (int i = 0; i < headers.length; i += 2) {
+                exchange.getResponseHeaders().add(headers[i], headers[i + 1]);
+            }
+
+            exchange.sendResponseHeaders(statusCode, body != null ? body.length : -1);
+
+            if (body != null) {
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+            }
+        }
+    }
+
+    /**
+     * Directory for files written by the tests.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Queue<Reply> replies = new ConcurrentLinkedQueue<Reply>();
+    private final List<String> requests = new CopyOnWriteArrayList<String>();
+
+    private ExecutorService serverExecutor = null;
+    private HttpServer server = null;
+    private AdminRestClient client = null;
+
+    /**
+     * @throws IOException If the server cannot be started.
+     */
+    @Before
+    public void initialize() throws IOException {
+        serverExecutor = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(serverExecutor);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.add(exchange.getRequestMethod() + " " + exchange.getRequestURI().getPath());
+
+                try {
+                    Reply reply = replies.poll();
+                    (reply != null ? reply : new Reply(200, "{}".getBytes("UTF-8"))).send(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+
+        client = new AdminRestClient("http", "127.0.0.1", server.getAddress().getPort(), "apiKey", "LoginTC-Java-Test");
+    }
+
+    /**
+     *
+     */
+    @After
+    public void shutdown() {
+        client.shutdown();
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    private void reply(int statusCode, String body, String... headers) throws IOException {
+        replies.add(new Reply(statusCode, body != null ? body.getBytes("UTF-8") : null, headers));
+    }
+
+    /**
+     * A client that is never shut down is not kept reachable by its idle connection eviction.
+     *
+     * @throws Exception If the wait is interrupted.
+     */
+    @Test
+    public void testUnclosedClientCanBeCollected() throws Exception {
+        WeakReference<AdminRestClient> unclosed = new WeakReference<AdminRestClient>(new AdminRestClient("http", "127.0.0.1", server
+                .getAddress().getPort(), "apiKey", "LoginTC-Java-Test"));
+
+        for (int i = 0; i < 100 && unclosed.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+
+        assertNull(unclosed.get());
+    }
+
+    /**
+     * A Retry-After in seconds is honoured instead of the backoff.
+     *
+     * @throws Exception If the call fails.
+     */
+    @Test
+    public void testRetriesThrottledAfterRetryAfterSeconds() throws Exception {
+        client.setRetryPolicy(3, 10000, 10000, 30000);
+        reply(429, "{}", "Retry-After", "1");
+        reply(200, "{\"name\":\"ok\"}");
+
+        long start = System.nanoTime();
+        assertEquals("{\"name\":\"ok\"}", client.get("/api/ping"));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals(2, requests.size());
+        assertTrue(elapsed >= 900 && elapsed < 5000);
+    }
+
+    /**
+     * A Retry-After HTTP date is honoured instead of the backoff.
+     *
+     * @throws Exception If the call fails.
+     */
+    @Test
+    public void testRetriesThrottledAfterRetryAfterDate() throws Exception {
+        client.setRetryPolicy(3, 10000, 10000, 30000);
+        reply(429, "{}", "Retry-After", DateUtils.formatDate(new Date(System.currentTimeMillis() + 2000)));
+        reply(200, "{}");
+
+        long start = System.nanoTime();
+        client.get("/api/ping");
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals(2, requests.size());
+        assertTrue(elapsed >= 500 && elapsed < 5000);
+    }
+
+    /**
+     * @throws Exception If the call fails.
+     */
+    @Test
+    public void testRetriesUnavailable() throws Exception {
+        client.setRetryPolicy(3, 10, 10, 30000);
+        reply(503, "{}");
+        reply(503, "{}");
+        reply(200, "{}");
+
+        client.post("/api/domains/1/sessions", "{}");
+
+        assertEquals(3, requests.size());
+    }
+
+    /**
+     * A bad gateway or gateway timeout may hide a processed request, so a POST is not retried while a GET is.
+     *
+     * @throws Exception If the call fails.
+     */
+    @Test
+    public void testRetriesGatewayErrorsOnlyForGet() throws Exception {
+        client.setRetryPolicy(3, 10, 10, 30000);
+
+        for (int statusCode : new int[] { 502, 504 }) {
+            requests.clear();
+            reply(statusCode, "{}");
+
+            try {
+                client.post("/api/domains/1/sessions", "{}");
+                fail("Expected a " + statusCode);
+            } catch (RestAdminRestClientException e) {
+                assertEquals(statusCode, (int) e.getStatusCode());
+            }
+
+            assertEquals(1, requests.size());
+
+            requests.clear();
+            reply(statusCode, "{}");
+            client.get("/api/domains/1");
+            assertEquals(2, requests.size());
+        }
+    }
+
+    /**
+     * No retry is started when its delay would pass the maximum retry time or the call's deadline.
+     *
+     * @throws Exception If the call fails.
+     */
+    @Test
+    public void testGivesUpPastRetryTimeAndDeadline() throws Exception {
+        client.setRetryPolicy(3, 10, 10, 500);
+        reply(503, "{}", "Retry-After", "1");
+        assertStatusCode(503, client);
+        assertEquals(1, requests.size());
+
+        client.setRetryPolicy(3, 10, 10, 30000);
+        requests.clear();
+        reply(503, "{}", "Retry-After", "1");
+
+        long start = System.nanoTime();
+        assertStatusCode(503, client.withCallTimeout(500));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals(1, requests.size());
+        assertTrue(elapsed < 900);
+    }
+
+    private static void assertStatusCode(int statusCode, AdminRestClient client) throws AdminRestClientException {
+        try {
+            client.get("/api/ping");
+            fail("Expected a " + statusCode);
+        } catch (RestAdminRestClientException e) {
+            assertEquals(statusCode, (int) e.getStatusCode());
+        }
+    }
+
+    /**
+     * The probe of a half-open circuit is answered by its first response, without retries, while the request that triggered it fails
+     * fast.
+     *
+     * @throws Exception If the call fails.
+     */
+    @Test
+    public void testDoesNotRetryProbe() throws Exception {
+        client.setRetryPolicy(3, 10, 10, 30000);
+        CircuitBreaker circuitBreaker = new CircuitBreaker(1, 0, TimeUnit.MILLISECONDS, new CircuitBreaker.Probe() {
+            @Override
+            public boolean probe() {
+                try {
+                    client.get("/api/ping");
+                    return true;
+                } catch (AdminRestClientException e) {
+                    return false;
+                }
+            }
+        });
+        client.setCircuitBreaker(circuitBreaker);
+
+        reply(500, "{}");
+        assertStatusCode(500, client);
+
+        reply(503, "{}");
+
+        try {
+            client.get("/api/domains/1");
+            fail("Expected the circuit to stay open");
+        } catch (CircuitOpenAdminRestClientException e) {
+            // The probe runs in the background
+        }
+
+        for (int i = 0; i < 500 && circuitBreaker.getTransitionCount(CircuitBreaker.State.OPEN) < 2; i++) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(2, circuitBreaker.getTransitionCount(CircuitBreaker.State.OPEN));
+        assertEquals(2, requests.size());
+        assertEquals("GET /api/ping", requests.get(1));
+    }
+
+    /**
+     * The declared charset is honoured, both when the body is buffered and when it is streamed to a reader.
+     *
+     * @throws Exception If the call fails.
+     */
+    @Test
+    public void testDecodesDeclaredCharset() throws Exception {
+        String json = "{\"name\":\"Caf\u00e9 \u00bd\"}";
+        replies.add(new Reply(200, json.getBytes("ISO-8859-1"), "Content-Type", "application/json; charset=ISO-8859-1"));
+        replies.add(new Reply(200, json.getBytes("ISO-8859-1"), "Content-Type", "application/json; charset=ISO-8859-1"));
+
+        assertEquals(json, client.get("/api/ping"));
+        assertEquals(json, client.get("/api/ping", null, new AdminRestClient.ResponseReader<String>() {
+            @Override
+            public String read(Reader reader) throws IOException {
+                StringBuilder body = new StringBuilder();
+
+                for (int c; (c = reader.read()) != -1;) {
+                    body.append((char) c);
+                }
+
+                return body.toString();
+            }
+        }));
+    }
+
+    /**
+     * A body without a declared charset is decoded as UTF-8 rather than the HTTP default of ISO-8859-1.
+     *
+     * @throws Exception If the call fails.
+     */
+    @Test
+    public void testDecodesUtf8ByDefault() throws Exception {
+        String json = "{\"name\":\"Caf\u00e9 \u20ac\"}";
+        replies.add(new Reply(200, json.getBytes("UTF-8"), "Content-Type", "application/json"));
+
+        assertEquals(json, client.get("/api/ping"));
+    }
+
+    /**
+     * @throws Exception If the call fails.
+     */
+    @Test
+    public void testDecodesNoBodyAsEmpty() throws Exception {
+        reply(200, null);
+
+        assertEquals("", client.get("/api/ping"));
+    }
+
+    /**
+     * @throws Exception If the call fails.
+     */
+    @Test
+    public void testDownloadsToFile() throws Exception {
+        byte[] image = new byte[300 * 1024];
+
+        for (int i = 0; i < image.length; i++) {
+            image[i] = (byte) (i * 31);
+        }
+
+        replies.add(new Reply(200, image, "Content-Type", "image/png"));
+        Path file = folder.getRoot().toPath().resolve("image.png");
+
+        assertEquals(image.length, client.getBytes("/api/domains/1/image", "image/png", file));
+        assertArrayEquals(image, Files.readAllBytes(file));
+        assertEquals(1, folder.getRoot().list().length);
+    }
+
+    /**
+     * A download cut short keeps the previous file and leaves no temporary file behind.
+     *
+     * @throws Exception If the file cannot be read.
+     */
+    @Test
+    public void testIncompleteDownloadKeepsFile() throws Exception {
+        client.setTimeouts(1000, 1000, 1000);
+        replies.add(truncatedReply());
+
+        Path file = folder.getRoot().toPath().resolve("image.png");
+        Files.write(file, new byte[] { 1, 2, 3 });
+
+        try {
+            client.getBytes("/api/domains/1/image", "image/png", file);
+            fail("Expected the download to fail");
+        } catch (InternalAdminRestClientException e) {
+            // The connection was closed short of the declared length
+        }
+
+        assertArrayEquals(new byte[] { 1, 2, 3 }, Files.readAllBytes(file));
+        assertEquals(1, folder.getRoot().list().length);
+    }
+
+    /**
+     * @throws Exception If the call fails unexpectedly.
+     */
+    @Test
+    public void testIncompleteDownloadToStreamFails() throws Exception {
+        client.setTimeouts(1000, 1000, 1000);
+        replies.add(truncatedReply());
+
+        try {
+            client.getBytes("/api/domains/1/image", "image/png", new ByteArrayOutputStream());
+            fail("Expected the download to fail");
+        } catch (InternalAdminRestClientException e) {
+            // The connection was closed short of the declared length
+        }
+    }
+
+    /**
+     * @return A reply closing the connection after part of the declared body.
+     */
+    private static Reply truncatedReply() {
+        return new Reply(200, null) {
+            @Override
+            void send(HttpExchange exchange) throws IOException {
+                exchange.sendResponseHeaders(200, 100 * 1024);
+                exchange.getResponseBody().write(new byte[1024]);
+                exchange.getResponseBody().flush();
+            }
+        };
+    }
+
+    /**
+     * A response slower than the deadline fails the call at the deadline, not at the configured socket timeout.
+     *
+     * @throws Exception If the call fails unexpectedly.
+     */
+    @Test
+    public void testDeadlineCutsSlowResponse() throws Exception {
+        replies.add(slowReply(3000));
+
+        assertDeadlineExceeded(client.withCallTimeout(300), 300);
+    }
+
+    /**
+     * A body trickling in faster than the socket timeout is aborted at the deadline.
+     *
+     * @throws Exception If the call fails unexpectedly.
+     */
+    @Test
+    public void testDeadlineAbortsTricklingBody() throws Exception {
+        replies.add(new Reply(200, null) {
+            @Override
+            void send(HttpExchange exchange) throws IOException {
+                exchange.sendResponseHeaders(200, 0);
+                OutputStream out = exchange.getResponseBody();
+
+                try {
+                    for (int i = 0; i < 60; i++) {
+                        out.write(' ');
+                        out.flush();
+                        Thread.sleep(50);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        assertDeadlineExceeded(client.withCallTimeout(400), 400);
+    }
+
+    /**
+     * Waiting for a pooled connection is bounded by the deadline rather than the configured lease timeout.
+     *
+     * @throws Exception If the call fails unexpectedly.
+     */
+    @Test
+    public void testDeadlineBoundsConnectionLease() throws Exception {
+        client.setMaxConnections(1, 1);
+        replies.add(slowReply(2000));
+
+        Thread holder = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    client.get("/api/domains/1");
+                } catch (AdminRestClientException e) {
+                    // Only holds the connection
+                }
+            }
+        });
+        holder.start();
+
+        for (int i = 0; i < 100 && requests.isEmpty(); i++) {
+            Thread.sleep(10);
+        }
+
+        assertDeadlineExceeded(client.withCallTimeout(300), 300);
+        assertEquals(1, requests.size());
+        holder.join();
+    }
+
+    /**
+     * A call cut short by its own deadline against a slow but healthy server does not count against the circuit.
+     *
+     * @throws Exception If the call fails unexpectedly.
+     */
+    @Test
+    public void testDeadlineDoesNotOpenCircuit() throws Exception {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(1, 1, TimeUnit.HOURS, null);
+        client.setCircuitBreaker(circuitBreaker);
+        replies.add(slowReply(1000));
+
+        assertDeadlineExceeded(client.withCallTimeout(200), 200);
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertEquals(0, circuitBreaker.getConsecutiveFailures());
+    }
+
+    private static void assertDeadlineExceeded(AdminRestClient client, long callTimeout) throws AdminRestClientException {
+        long start = System.nanoTime();
+
+        try {
+            client.get("/api/ping");
+            fail("Expected the deadline to pass");
+        } catch (DeadlineExceededAdminRestClientException e) {
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertTrue(elapsed >= callTimeout - 50 && elapsed < callTimeout + 1000);
+        }
+    }
+
+    /**
+     * @return A reply sent after a delay.
+     */
+    private static Reply slowReply(final long delay) throws IOException {
+        return new Reply(200, "{}".getBytes("UTF-8")) {
+            @Override
+            void send(HttpExchange exchange) throws IOException {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+
+                super.send(exchange);
+            }
+        };
+    }
+
+    /**
+     * Identical GET requests share one request, unless they have a deadline of their own.
+     *
+     * @throws Exception If a call fails.
+     */
+    @Test
+    public void testCoalescesOnlyCallsWithoutDeadline() throws Exception {
+        client.setRequestCoalescing(true);
+
+        assertEquals("{}", getConcurrently(client));
+        assertEquals(1, requests.size());
+        assertEquals(1, client.getCoalescedCount());
+
+        requests.clear();
+        assertEquals("{}", getConcurrently(client.withCallTimeout(5000)));
+        assertEquals(2, requests.size());
+        assertEquals(1, client.getCoalescedCount());
+    }
+
+    /**
+     * Get a slow resource from two threads, the second starting once the first request reached the server.
+     *
+     * @return The response of the second call.
+     */
+    private String getConcurrently(final AdminRestClient client) throws Exception {
+        replies.add(slowReply(500));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try {
+            Future<String> first = executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws AdminRestClientException {
+                    return client.get("/api/domains/1");
+                }
+            });
+
+            for (int i = 0; i < 100 && requests.isEmpty(); i++) {
+                Thread.sleep(10);
+            }
+
+            String second = client.get("/api/domains/1");
+            assertEquals(second, first.get());
+            return second;
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.cyphercor.logintc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.cyphercor.logintc.LoginTC.LoginTCException;
+import com.cyphercor.logintc.resource.Token;
+import com.cyphercor.logintc.resource.User;
+
+/**
+ * Tests for bulk provisioning.
+ */
+public class BulkProvisionerTest {
+
+    /**
+     * Client used to create exceptions.
+     */
+    @ClassRule
+    public static LoginTCFixture fixture = new LoginTCFixture();
+
+    /**
+     * @throws LoginTCException If a call fails.
+     */
+    @Test
+    public void testReportsEachRequest() throws LoginTCException {
+        LoginTC client = mock(LoginTC.class);
+        when(client.createUser("jdoe", null, "John")).thenReturn(new User("1", "jdoe", null, "John", null, null, null));
+        when(client.createUser("jsmith", null, "Jane")).thenReturn(new User("2", "jsmith", null, "Jane", null, null, null));
+        when(client.createUserToken("domain", "1")).thenReturn(new Token(Token.State.PENDING, "abc"));
+        when(client.createUserToken("domain", "2")).thenThrow(fixture.apiException("api.error", "Failed"));
+
+        List<BulkProvisioner.Outcome> outcomes = new BulkProvisioner(client, 2, 1).provision(Arrays.asList(new BulkProvisioner.Request(
+                "jdoe", null, "John", Arrays.asList("domain"), true), new BulkProvisioner.Request("jsmith", null, "Jane", Arrays
+                .asList("domain"), true)));
+
+        assertEquals(2, outcomes.size());
+        assertTrue(outcomes.get(0).isSuccess());
+        assertEquals("ABC", outcomes.get(0).getTokens().get("domain").getCode());
+        assertFalse(outcomes.get(1).isSuccess());
+        assertEquals(BulkProvisioner.Stage.CREATE_USER_TOKEN, outcomes.get(1).getFailedStage());
+        assertEquals("2", outcomes.get(1).getUser().getId());
+    }
+
+    /**
+     * A failing sink does not stop the other requests, and its exception reaches the caller.
+     *
+     * @throws LoginTCException If a call fails.
+     */
+    @Test
+    public void testSinkFailureIsRethrown() throws LoginTCException {
+        LoginTC client = mock(LoginTC.class);
+        final AtomicInteger accepted = new AtomicInteger();
+        List<BulkProvisioner.Request> requests = Arrays.asList(new BulkProvisioner.Request("a", null, null, null, false),
+                new BulkProvisioner.Request("b", null, null, null, false), new BulkProvisioner.Request("c", null, null, null, false));
+
+        try {
+            new BulkProvisioner(client, 1, 0).provision(requests, new Consumer<BulkProvisioner.Outcome>() {
+                @Override
+                public void accept(BulkProvisioner.Outcome outcome) {
+                    accepted.incrementAndGet();
+
+                    if (outcome.getIndex() == 0) {
+                        throw new IllegalStateException("Sink failed");
+                    }
+                }
+            });
+            fail("Expected the sink's exception");
+        } catch (IllegalStateException e) {
+            assertEquals("Sink failed", e.getMessage());
+        }
+
+        assertEquals(3, accepted.get());
+    }
+
+    /**
+     * The input is read only as room frees up: at most the requests in progress, the queued ones and the one waiting to be submitted.
+     *
+     * @throws Exception If a call fails or the wait is interrupted.
+     */
+    @Test
+    public void testReadsInputAsRoomFreesUp() throws Exception {
+        final LoginTC client = mock(LoginTC.class);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger running = new AtomicInteger();
+        when(client.createUser(anyString(), anyString(), anyString())).thenAnswer(new Answer<User>() {
+            @Override
+            public User answer(InvocationOnMock invocation) throws InterruptedException {
+                running.incrementAndGet();
+                release.await();
+                return new User("id", (String) invocation.getArguments()[0], null, null, null, null, null);
+            }
+        });
+
+        final CountingRequests requests = new CountingRequests(20);
+        final List<BulkProvisioner.Outcome> outcomes = new ArrayList<BulkProvisioner.Outcome>();
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    outcomes.addAll(new BulkProvisioner(client, 2, 3).provision(requests));
+                } catch (LoginTCException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        producer.start();
+
+        for (int i = 0; i < 100 && (running.get() < 2 || requests.read.get() < 6); i++) {
+            Thread.sleep(10);
+        }
+
+        Thread.sleep(100);
+        assertEquals(2, running.get());
+        assertEquals(2 + 3 + 1, requests.read.get());
+
+        release.countDown();
+        producer.join(10000);
+
+        assertEquals(20, requests.read.get());
+        assertEquals(20, outcomes.size());
+    }
+
+    /**
+     * Outcomes are returned in input order even when later requests complete first.
+     *
+     * @throws LoginTCException If a call fails.
+     */
+    @Test
+    public void testReturnsOutcomesInInputOrder() throws LoginTCException {
+        LoginTC client = mock(LoginTC.class);
+        when(client.createUser(anyString(), anyString(), anyString())).thenAnswer(new Answer<User>() {
+            @Override
+            public User answer(InvocationOnMock invocation) throws InterruptedException {
+                String username = (String) invocation.getArguments()[0];
+                Thread.sleep(5 * (20 - Integer.parseInt(username)));
+                return new User("id" + username, username, null, null, null, null, null);
+            }
+        });
+
+        List<BulkProvisioner.Outcome> outcomes = new BulkProvisioner(client, 4, 4).provision(new CountingRequests(20));
+
+        assertEquals(20, outcomes.size());
+
+        for (int i = 0; i < 20; i++) {
+            assertEquals(i, outcomes.get(i).getIndex());
+            assertEquals("id" + i, outcomes.get(i).getUser().getId());
+        }
+    }
+
+    /**
+     * Requests for users named by their position, counting how many were read.
+     */
+    private static class CountingRequests implements Iterable<BulkProvisioner.Request> {
+        private final int size;
+        private final AtomicInteger read = new AtomicInteger();
+
+        CountingRequests(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public Iterator<BulkProvisioner.Request> iterator() {
+            return new Iterator<BulkProvisioner.Request>() {
+                private int next = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return next < size;
+                }
+
+                @Override
+                public BulkProvisioner.Request next() {
+                    read.incrementAndGet();
+                    return new BulkProvisioner.Request(Integer.toString(next++), null, null, null, false);
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.cyphercor.logintc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import com.cyphercor.logintc.LoginTC.LoginTCException;
+import com.cyphercor.logintc.resource.BypassCode;
+
+/**
+ * Tests for batch bypass code issuance.
+ */
+public class BypassCodeBatchTest {
+
+    /**
+     * Client used to create exceptions.
+     */
+    @ClassRule
+    public static LoginTCFixture fixture = new LoginTCFixture();
+
+    /**
+     * @throws Exception If the batch or export fails.
+     */
+    @Test
+    public void testIssueAndExport() throws Exception {
+        LoginTC client = mock(LoginTC.class);
+        when(client.createBypassCode("user1", 1, 3600)).thenReturn(new BypassCode("code1", "123456789", new Date(0), "user1", 1, 1));
+        LoginTCException error = fixture.apiException("api.error", "Failed");
+        when(client.createBypassCode("user2", 1, 3600)).thenThrow(error);
+
+        BypassCodeBatch.Result result = new BypassCodeBatch(client, 2).issue(Arrays.asList("user1", "user2"), 1, 3600);
+
+        assertEquals(1, result.getBypassCodes().size());
+        assertEquals(1, result.getFailures().size());
+        assertEquals("user2", result.getFailures().get(0).getUserId());
+        assertSame(error, result.getFailures().get(0).getError());
+
+        StringWriter out = new StringWriter();
+        result.export(out);
+        assertEquals("user,id,code,dtExpiry,usesAllowed,usesRemaining\nuser1,code1,123456789,1970-01-01T00:00:00Z,1,1\n", out.toString());
+    }
+
+    /**
+     * @throws Exception If the batch fails.
+     */
+    @Test
+    public void testIssueToSink() throws Exception {
+        LoginTC client = mock(LoginTC.class);
+        when(client.createBypassCode("user1", null, null)).thenReturn(new BypassCode("code1", "123456789", null, "user1", 1, 1));
+        when(client.createBypassCode("user2", null, null)).thenThrow(fixture.apiException("api.error", "Failed"));
+
+        final Queue<BypassCode> bypassCodes = new ConcurrentLinkedQueue<BypassCode>();
+        List<BypassCodeBatch.Failure> failures = new BypassCodeBatch(client, 2).issue(Arrays.asList("user1", "user2", "user2"), null, null,
+                new Consumer<BypassCode>() {
+                    @Override
+                    public void accept(BypassCode bypassCode) {
+                        bypassCodes.add(bypassCode);
+                    }
+                });
+
+        assertEquals(1, bypassCodes.size());
+        assertEquals("code1", bypassCodes.peek().getId());
+        assertEquals(2, failures.size());
+        assertEquals(1, failures.get(0).getIndex());
+        assertEquals(2, failures.get(1).getIndex());
+    }
+
+    /**
+     * @throws Exception If the batch fails.
+     */
+    @Test
+    public void testRevoke() throws Exception {
+        LoginTC client = mock(LoginTC.class);
+        LoginTCException error = fixture.apiException("api.error", "Failed");
+        doThrow(error).when(client).deleteBypassCodes("user2");
+
+        BypassCodeBatch.Result result = new BypassCodeBatch(client, 2).revoke(Arrays.asList("user1", "user2", "user3"));
+
+        verify(client).deleteBypassCodes("user1");
+        verify(client).deleteBypassCodes("user3");
+        assertEquals(2, result.getRevoked());
+        assertEquals(0, result.getBypassCodes().size());
+        assertEquals(1, result.getFailures().size());
+        assertEquals(1, result.getFailures().get(0).getIndex());
+        assertEquals("user2", result.getFailures().get(0).getUserId());
+        assertSame(error, result.getFailures().get(0).getError());
+    }
+}
@@ -0,0 +1,153 @@
+package com.cyphercor.logintc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests for the circuit breaker.
+ */
+public class CircuitBreakerTest {
+
+    /**
+     *
+     */
+    @Test
+    public void testOpensAfterConsecutiveFailures() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(3, 1, TimeUnit.HOURS, null);
+
+        circuitBreaker.recordFailure();
+        circuitBreaker.recordFailure();
+        circuitBreaker.recordSuccess();
+        circuitBreaker.recordFailure();
+        circuitBreaker.recordFailure();
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertTrue(circuitBreaker.allowRequest());
+
+        circuitBreaker.recordFailure();
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertFalse(circuitBreaker.allowRequest());
+        assertEquals(1, circuitBreaker.getTransitionCount(CircuitBreaker.State.OPEN));
+    }
+
+    /**
+     * @throws InterruptedException If the wait is interrupted.
+     */
+    @Test
+    public void testHealthyProbeCloses() throws InterruptedException {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(1, 0, TimeUnit.MILLISECONDS, new CircuitBreaker.Probe() {
+            @Override
+            public boolean probe() {
+                return true;
+            }
+        });
+
+        circuitBreaker.recordFailure();
+        assertFalse(circuitBreaker.allowRequest());
+        awaitState(CircuitBreaker.State.CLOSED, circuitBreaker);
+        assertTrue(circuitBreaker.allowRequest());
+        assertEquals(1, circuitBreaker.getTransitionCount(CircuitBreaker.State.HALF_OPEN));
+        assertEquals(1, circuitBreaker.getTransitionCount(CircuitBreaker.State.CLOSED));
+    }
+
+    /**
+     * @throws InterruptedException If the wait is interrupted.
+     */
+    @Test
+    public void testUnhealthyProbeReopens() throws InterruptedException {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(1, 0, TimeUnit.MILLISECONDS, new CircuitBreaker.Probe() {
+            @Override
+            public boolean probe() {
+                return false;
+            }
+        });
+
+        circuitBreaker.recordFailure();
+        assertFalse(circuitBreaker.allowRequest());
+
+        for (int i = 0; i < 500 && circuitBreaker.getTransitionCount(CircuitBreaker.State.OPEN) < 2; i++) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertEquals(2, circuitBreaker.getTransitionCount(CircuitBreaker.State.OPEN));
+    }
+
+    /**
+     * Requests fail fast while a slow probe runs, rather than waiting on it.
+     *
+     * @throws InterruptedException If the wait is interrupted.
+     */
+    @Test
+    public void testRequestsDoNotWaitOnProbe() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        CircuitBreaker circuitBreaker = new CircuitBreaker(1, 0, TimeUnit.MILLISECONDS, new CircuitBreaker.Probe() {
+            @Override
+            public boolean probe() {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+
+                return false;
+            }
+        });
+
+        circuitBreaker.recordFailure();
+        long start = System.nanoTime();
+        assertFalse(circuitBreaker.allowRequest());
+        assertFalse(circuitBreaker.allowRequest());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+
+        release.countDown();
+        awaitState(CircuitBreaker.State.OPEN, circuitBreaker);
+        assertEquals(2, circuitBreaker.getTransitionCount(CircuitBreaker.State.OPEN));
+    }
+
+    private static void awaitState(CircuitBreaker.State state, CircuitBreaker circuitBreaker) throws InterruptedException {
+        for (int i = 0; i < 500 && circuitBreaker.getState() != state; i++) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(state, circuitBreaker.getState());
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void testTrialRequestWithoutProbe() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(1, 0, TimeUnit.MILLISECONDS, null);
+
+        circuitBreaker.recordFailure();
+        assertTrue(circuitBreaker.allowRequest());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        assertFalse(circuitBreaker.allowRequest());
+
+        circuitBreaker.recordSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void testIgnoredTrialRequestLetsNextThrough() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(1, 0, TimeUnit.MILLISECONDS, null);
+
+        circuitBreaker.recordFailure();
+        assertTrue(circuitBreaker.allowRequest());
+
+        circuitBreaker.recordIgnored();
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertTrue(circuitBreaker.allowRequest());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+    }
+}
@@ -0,0 +1,159 @@
+package com.cyphercor.logintc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.cyphercor.logintc.resource.BypassCode;
+import com.cyphercor.logintc.resource.Domain;
+import com.cyphercor.logintc.resource.HardwareToken;
+import com.cyphercor.logintc.resource.User;
+
+/**
+ * Tests for directory snapshots.
+ */
+public class DirectorySnapshotTest {
+
+    /**
+     * Client warmed up by the tests.
+     */
+    @ClassRule
+    public static LoginTCFixture fixture = new LoginTCFixture();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private DirectorySnapshot createSnapshot() {
+        User user = new User("user1", "jdoe", "jdoe@example.com", "Jöhn Doe", Arrays.asList("domain1"), Arrays.asList("code1"), null);
+        Domain domain = new Domain("domain1", "VPN", "RADIUS", "PIN", 3, 120, null, true, null);
+        HardwareToken hardwareToken = new HardwareToken("token1", "fob", "123456", "TOTP6", "30", "SYNCED", null);
+        BypassCode bypassCode = new BypassCode("code1", null, new Date(1000), "user1", 5, 4);
+
+        return new DirectorySnapshot(42, Arrays.asList(user), Arrays.asList(domain), Arrays.asList(hardwareToken),
+                Arrays.asList(bypassCode));
+    }
+
+    /**
+     * @throws IOException If the snapshot cannot be written or read.
+     */
+    @Test
+    public void testRoundTrip() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("directory.snapshot");
+        createSnapshot().write(file);
+
+        DirectorySnapshot snapshot = DirectorySnapshot.read(file);
+
+        assertEquals(42, snapshot.getCreatedAt().getTime());
+
+        User user = snapshot.getUsers().get(0);
+        assertEquals("Jöhn Doe", user.getName());
+        assertEquals(Arrays.asList("domain1"), user.getDomains());
+        assertEquals(Arrays.asList("code1"), user.getBypassCodes());
+        assertNull(user.getHardware());
+
+        Domain domain = snapshot.getDomains().get(0);
+        assertEquals(Integer.valueOf(120), domain.getRequestTimeout());
+        assertNull(domain.getActivationCodeExpiration());
+        assertEquals(Boolean.TRUE, domain.getRequestPollingEnabled());
+        assertNull(domain.getBypassEnabled());
+
+        assertEquals("123456", snapshot.getHardwareTokens().get(0).getSerialNumber());
+
+        BypassCode bypassCode = snapshot.getBypassCodes().get(0);
+        assertNull(bypassCode.getCode());
+        assertEquals(new Date(1000), bypassCode.getDtExpiry());
+        assertEquals(Integer.valueOf(4), bypassCode.getUsesRemaining());
+    }
+
+    /**
+     * Hardware tokens are exported and bypass codes are taken from the users, without a request per user.
+     *
+     * @throws Exception If the capture fails.
+     */
+    @Test
+    public void testCapture() throws Exception {
+        LoginTC client = mock(LoginTC.class);
+        DirectorySnapshot expected = createSnapshot();
+        when(client.exportUsers(2)).thenReturn(expected.getUsers());
+        when(client.exportHardwareTokens(2)).thenReturn(expected.getHardwareTokens());
+        when(client.getDomain("domain1")).thenReturn(expected.getDomains().get(0));
+
+        DirectorySnapshot snapshot = DirectorySnapshot.capture(client, 2);
+
+        verify(client, never()).getBypassCodes(anyString());
+        assertEquals(expected.getHardwareTokens(), snapshot.getHardwareTokens());
+        assertEquals(1, snapshot.getBypassCodes().size());
+        assertEquals("code1", snapshot.getBypassCodes().get(0).getId());
+        assertEquals("user1", snapshot.getBypassCodes().get(0).getUser());
+    }
+
+    /**
+     * @throws IOException If the snapshot cannot be written.
+     */
+    @Test(expected = IOException.class)
+    public void testRejectsCorruptSnapshot() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("directory.snapshot");
+        createSnapshot().write(file);
+
+        RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw");
+
+        try {
+            raf.seek(20);
+            raf.write(raf.read() ^ 0xff);
+        } finally {
+            raf.close();
+        }
+
+        DirectorySnapshot.read(file);
+    }
+
+    /**
+     * Warming up seeds the user cache.
+     */
+    @Test
+    public void testWarmUp() {
+        LoginTC client = fixture.getClient();
+        client.setUserCache(10, 1, TimeUnit.MINUTES);
+        client.warmUp(new DirectorySnapshot(System.currentTimeMillis(), createSnapshot().getUsers(), Collections.<Domain> emptyList(),
+                Collections.<HardwareToken> emptyList(), Collections.<BypassCode> emptyList()));
+
+        assertEquals(1, client.getUserCache().size());
+        assertEquals("user1", client.getUserCache().getByUsername("jdoe").getId());
+    }
+
+    /**
+     * Users of a snapshot are aged from when it was taken, so a snapshot older than the ttl seeds nothing.
+     */
+    @Test
+    public void testWarmUpAgesUsers() {
+        LoginTC client = fixture.getClient();
+        client.setUserCache(10, 1, TimeUnit.MINUTES);
+        long now = System.currentTimeMillis();
+
+        client.warmUp(new DirectorySnapshot(now - TimeUnit.MINUTES.toMillis(2), createSnapshot().getUsers(), Collections
+                .<Domain> emptyList(), Collections.<HardwareToken> emptyList(), Collections.<BypassCode> emptyList()));
+        assertEquals(0, client.getUserCache().size());
+
+        client.warmUp(new DirectorySnapshot(now - TimeUnit.MINUTES.toMillis(1) + 5000, createSnapshot().getUsers(), Collections
+                .<Domain> emptyList(), Collections.<HardwareToken> emptyList(), Collections.<BypassCode> emptyList()));
+        assertEquals(1, client.getUserCache().size());
+        assertEquals("user1", client.getUserCache().get("user1").getId());
+    }
+}
@@ -0,0 +1,131 @@
+package com.cyphercor.logintc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import com.cyphercor.logintc.AdminRestClient.TaggedResponse;
+import com.cyphercor.logintc.LoginTC.LoginTCException;
+
+/**
+ * Tests for the domain cache.
+ */
+public class DomainCacheTest {
+
+    /**
+     * Client used to create exceptions.
+     */
+    @ClassRule
+    public static LoginTCFixture fixture = new LoginTCFixture();
+
+    /**
+     * Image loader answering conditional requests for the "v1" version with not modified.
+     */
+    private static class ImageLoader implements DomainCache.Loader<byte[]> {
+        private final List<String> etags = new CopyOnWriteArrayList<String>();
+
+        @Override
+        public TaggedResponse<byte[]> load(String etag) {
+            etags.add(String.valueOf(etag));
+            return "\"v1\"".equals(etag) ? null : new TaggedResponse<byte[]>(new byte[] { 1 }, "\"v1\"");
+        }
+    }
+
+    /**
+     * @throws LoginTCException If the loader fails.
+     */
+    @Test
+    public void testServesFreshEntry() throws LoginTCException {
+        DomainCache cache = new DomainCache(1, 1, TimeUnit.MINUTES);
+        ImageLoader loader = new ImageLoader();
+
+        cache.getImage("domain", loader);
+        assertArrayEquals(new byte[] { 1 }, cache.getImage("domain", loader));
+
+        assertEquals(1, loader.etags.size());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    /**
+     * @throws Exception If the loader fails or the wait is interrupted.
+     */
+    @Test
+    public void testRevalidatesStaleEntryInBackground() throws Exception {
+        DomainCache cache = new DomainCache(10, 60000, TimeUnit.MILLISECONDS);
+        ImageLoader loader = new ImageLoader();
+
+        cache.getImage("domain", loader);
+        Thread.sleep(20);
+        assertArrayEquals(new byte[] { 1 }, cache.getImage("domain", loader));
+
+        for (int i = 0; i < 100 && cache.getNotModifiedCount() == 0; i++) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(1, cache.getNotModifiedCount());
+        assertEquals("\"v1\"", loader.etags.get(1));
+    }
+
+    /**
+     * @throws Exception If the loader fails or the wait is interrupted.
+     */
+    @Test
+    public void testRevalidatesExpiredEntryBeforeServing() throws Exception {
+        DomainCache cache = new DomainCache(10, 0, TimeUnit.MILLISECONDS);
+        ImageLoader loader = new ImageLoader();
+
+        cache.getImage("domain", loader);
+        Thread.sleep(20);
+        cache.getImage("domain", loader);
+
+        assertEquals(2, cache.getMissCount());
+        assertEquals(1, cache.getNotModifiedCount());
+    }
+
+    /**
+     * An unavailable server keeps the entry, a missing domain removes it.
+     *
+     * @throws Exception If the loader fails or the wait is interrupted.
+     */
+    @Test
+    public void testEvictsOnlyGoneEntries() throws Exception {
+        DomainCache cache = new DomainCache(10, 0, TimeUnit.MILLISECONDS);
+        ImageLoader loader = new ImageLoader();
+        cache.getImage("domain", loader);
+        Thread.sleep(20);
+        assertFailsWith(cache, fixture.apiException("api.error.unavailable", "Service unavailable"));
+
+        cache.getImage("domain", loader);
+        assertEquals("\"v1\"", loader.etags.get(1));
+        assertEquals(1, cache.getNotModifiedCount());
+
+        Thread.sleep(20);
+        assertFailsWith(cache, fixture.apiException("api.error.notfound.domain", "Not found"));
+
+        cache.getImage("domain", loader);
+        assertEquals("null", loader.etags.get(2));
+    }
+
+    private static void assertFailsWith(DomainCache cache, final LoginTCException failure) {
+        try {
+            cache.getImage("domain", new DomainCache.Loader<byte[]>() {
+                @Override
+                public TaggedResponse<byte[]> load(String etag) throws LoginTCException {
+                    throw failure;
+                }
+            });
+            fail("Expected the loader's exception");
+        } catch (LoginTCException e) {
+            assertSame(failure, e);
+        }
+    }
+}
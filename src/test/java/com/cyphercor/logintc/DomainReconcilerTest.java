@@ -0,0 +1,77 @@
+package com.cyphercor.logintc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import com.cyphercor.logintc.LoginTC.LoginTCException;
+import com.cyphercor.logintc.resource.User;
+
+/**
+ * Tests for domain reconciliation.
+ */
+public class DomainReconcilerTest {
+
+    /**
+     * Client used to create exceptions.
+     */
+    @ClassRule
+    public static LoginTCFixture fixture = new LoginTCFixture();
+
+    private static User user(String id, String username, String email, String name) {
+        return new User(id, username, email, name, null, null, null);
+    }
+
+    /**
+     * @throws LoginTCException If a call fails.
+     */
+    @Test
+    public void testAppliesOnlyTheDifference() throws LoginTCException {
+        LoginTC client = mock(LoginTC.class);
+        List<User> members = Arrays.asList(user("1", "same", "same@example.com", "Same"),
+                user("2", "changed", "old@example.com", "Changed"), user("3", "gone", "gone@example.com", "Gone"));
+        when(client.iterateDomainUsers("domain")).thenReturn(members);
+        when(client.getUserByUsername("new")).thenThrow(fixture.apiException("api.error.notfound.user", "Not found"));
+        when(client.createUser("new", "new@example.com", "New")).thenReturn(user("4", "new", "new@example.com", "New"));
+
+        DomainReconciler reconciler = new DomainReconciler(client, 2);
+        DomainReconciler.Plan plan = reconciler.plan("domain", Arrays.asList(user(null, "same", "same@example.com", "Same"),
+                user(null, "changed", "new@example.com", "Changed"), user(null, "new", "new@example.com", "New")));
+
+        assertEquals(1, plan.getAdditions().size());
+        assertEquals("2", plan.getUpdates().get(0).getId());
+        assertEquals("3", plan.getRemovals().get(0).getId());
+        assertEquals(1, plan.getUnchanged());
+
+        DomainReconciler.Result result = reconciler.apply(plan);
+
+        verify(client).removeDomainUser("domain", "3");
+        verify(client).updateUser("2", "new@example.com", "Changed");
+        verify(client).addDomainUser("domain", "4");
+        verify(client, never()).updateUser("1", "same@example.com", "Same");
+        assertEquals(1, result.getCreated());
+        assertEquals(1, result.getUpdated());
+        assertEquals(1, result.getAdded());
+        assertEquals(1, result.getRemoved());
+        assertEquals(0, result.getFailures().size());
+    }
+
+    /**
+     * Fingerprints tell fields apart.
+     */
+    @Test
+    public void testFingerprintSeparatesFields() {
+        assertEquals(DomainReconciler.fingerprint(user(null, "a", "ab", "c")), DomainReconciler.fingerprint(user(null, "b", "ab", "c")));
+        assertFalse(DomainReconciler.fingerprint(user(null, "a", "ab", "c")) == DomainReconciler.fingerprint(user(null, "a", "a", "bc")));
+        assertFalse(DomainReconciler.fingerprint(user(null, "a", null, "c")) == DomainReconciler.fingerprint(user(null, "a", "", "c")));
+    }
+}
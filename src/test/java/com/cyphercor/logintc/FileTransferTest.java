@@ -0,0 +1,119 @@
+package com.cyphercor.logintc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for file transfers.
+ */
+public class FileTransferTest {
+
+    /**
+     * Directory for files written by the tests.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * @throws IOException If the transfer fails.
+     */
+    @Test
+    public void testReplacesFile() throws IOException {
+        byte[] data = new byte[200 * 1024];
+
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+
+        Path file = folder.getRoot().toPath().resolve("image.png");
+        Files.write(file, new byte[] { 1, 2, 3 });
+
+        assertEquals(data.length, FileTransfer.transfer(new ByteArrayInputStream(data), data.length, file));
+        assertArrayEquals(data, Files.readAllBytes(file));
+        assertEquals(1, folder.getRoot().list().length);
+    }
+
+    /**
+     * The file gets default permissions, as any file created in the directory, so a web server running as another user can serve it.
+     *
+     * @throws IOException If the transfer fails.
+     */
+    @Test
+    public void testDefaultPermissions() throws IOException {
+        Path reference = folder.newFile("reference").toPath();
+        Assume.assumeTrue(Files.getFileStore(reference).supportsFileAttributeView(PosixFileAttributeView.class));
+
+        Path file = folder.getRoot().toPath().resolve("image.png");
+        FileTransfer.transfer(new ByteArrayInputStream(new byte[] { 1, 2, 3 }), 3, file);
+
+        assertEquals(Files.getPosixFilePermissions(reference), Files.getPosixFilePermissions(file));
+    }
+
+    /**
+     * A failed transfer keeps the previous file and removes the temporary file.
+     *
+     * @throws IOException If the file cannot be read.
+     */
+    @Test
+    public void testFailureKeepsFile() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("image.png");
+        Files.write(file, new byte[] { 1, 2, 3 });
+
+        InputStream failing = new InputStream() {
+            private int remaining = 100 * 1024;
+
+            @Override
+            public int read() throws IOException {
+                if (remaining-- <= 0) {
+                    throw new IOException("Connection reset");
+                }
+
+                return 0;
+            }
+        };
+
+        try {
+            FileTransfer.transfer(failing, -1, file);
+            fail("Expected the stream's exception");
+        } catch (IOException e) {
+            assertEquals("Connection reset", e.getMessage());
+        }
+
+        assertArrayEquals(new byte[] { 1, 2, 3 }, Files.readAllBytes(file));
+        assertEquals(1, folder.getRoot().list().length);
+    }
+
+    /**
+     * A stream ending before the expected length is treated as a failure.
+     *
+     * @throws IOException If the file cannot be read.
+     */
+    @Test
+    public void testShortStreamKeepsFile() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("image.png");
+        Files.write(file, new byte[] { 1, 2, 3 });
+
+        try {
+            FileTransfer.transfer(new ByteArrayInputStream(new byte[10]), 20, file);
+            fail("Expected the short stream to fail");
+        } catch (IOException e) {
+            assertEquals("Expected 20 bytes but received 10", e.getMessage());
+        }
+
+        assertArrayEquals(new byte[] { 1, 2, 3 }, Files.readAllBytes(file));
+        assertEquals(1, folder.getRoot().list().length);
+    }
+}
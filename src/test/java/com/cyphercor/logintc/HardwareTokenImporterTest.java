@@ -0,0 +1,174 @@
+package com.cyphercor.logintc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.cyphercor.logintc.LoginTC.LoginTCException;
+import com.cyphercor.logintc.resource.HardwareToken;
+import com.cyphercor.logintc.resource.User;
+
+/**
+ * Tests for the hardware token importer.
+ */
+public class HardwareTokenImporterTest {
+
+    /**
+     * Client used to create exceptions.
+     */
+    @ClassRule
+    public static LoginTCFixture fixture = new LoginTCFixture();
+
+    private static final String SEEDS = "serialNumber,type,timeStep,seed,alias,username\n"
+            + "1001,TOTP6,30,3132333435363738393031323334353637383930,\"Fob, A\",jdoe\n" + "1002,HOTP,30,00,,\n"
+            + "# comment\n" + "1003,TOTP8,60,3132,,\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * @throws Exception If the import fails.
+     */
+    @Test
+    public void testImportsAndResumes() throws Exception {
+        LoginTC client = mock(LoginTC.class);
+        when(client.createHardwareToken("Fob, A", "1001", "TOTP6", "30", "3132333435363738393031323334353637383930")).thenReturn(
+                new HardwareToken("token1", "Fob, A", "1001", "TOTP6", "30", "SYNCED", null));
+        when(client.createHardwareToken(null, "1003", "TOTP8", "60", "3132")).thenThrow(fixture.internalException("Timed out"));
+        when(client.getUserByUsername("jdoe")).thenReturn(new User("user1", "jdoe", null, null, null, null, null));
+
+        Path checkpoint = folder.getRoot().toPath().resolve("import.checkpoint");
+        HardwareTokenImporter importer = new HardwareTokenImporter(client, 2);
+        HardwareTokenImporter.Result result = importer.importTokens(new StringReader(SEEDS), checkpoint);
+
+        verify(client).associateHardwareToken("user1", "token1");
+        assertEquals(1, result.getCreated());
+        assertEquals(1, result.getAssociated());
+        assertEquals(2, result.getFailures().size());
+        assertEquals(4, result.getCheckpoint());
+        assertEquals("4\n", new String(Files.readAllBytes(checkpoint), "UTF-8"));
+
+        LoginTC resumed = mock(LoginTC.class);
+        when(resumed.createHardwareToken(null, "1003", "TOTP8", "60", "3132")).thenReturn(
+                new HardwareToken("token3", null, "1003", "TOTP8", "60", "SYNCED", null));
+
+        result = new HardwareTokenImporter(resumed, 2).importTokens(new StringReader(SEEDS), checkpoint);
+
+        verify(resumed, never()).createHardwareToken(anyString(), eq("1001"), anyString(), anyString(), anyString());
+        assertEquals(4, result.getResumedAfter());
+        assertEquals(1, result.getCreated());
+        assertEquals(5, result.getCheckpoint());
+    }
+
+    /**
+     * Rows done after a row that timed out are recorded, so a resumed import retries only the row that timed out.
+     *
+     * @throws Exception If the import fails.
+     */
+    @Test
+    public void testResumeSkipsRowsDoneAfterFailure() throws Exception {
+        String seeds = "1001,TOTP6,30,3132,,\n" + "1002,TOTP6,30,3132,,\n" + "1003,TOTP6,30,3132,,\n";
+        LoginTC client = mock(LoginTC.class);
+        when(client.createHardwareToken(null, "1001", "TOTP6", "30", "3132")).thenThrow(fixture.internalException("Timed out"));
+        when(client.createHardwareToken(null, "1002", "TOTP6", "30", "3132")).thenReturn(
+                new HardwareToken("token2", null, "1002", "TOTP6", "30", "SYNCED", null));
+        when(client.createHardwareToken(null, "1003", "TOTP6", "30", "3132")).thenReturn(
+                new HardwareToken("token3", null, "1003", "TOTP6", "30", "SYNCED", null));
+
+        Path checkpoint = folder.getRoot().toPath().resolve("import.checkpoint");
+        HardwareTokenImporter.Result result = new HardwareTokenImporter(client, 2).importTokens(new StringReader(seeds), checkpoint);
+
+        assertEquals(2, result.getCreated());
+        assertEquals(0, result.getCheckpoint());
+        assertEquals("0\n2\n3\n", new String(Files.readAllBytes(checkpoint), "UTF-8"));
+
+        LoginTC resumed = mock(LoginTC.class);
+        when(resumed.createHardwareToken(null, "1001", "TOTP6", "30", "3132")).thenReturn(
+                new HardwareToken("token1", null, "1001", "TOTP6", "30", "SYNCED", null));
+
+        result = new HardwareTokenImporter(resumed, 2).importTokens(new StringReader(seeds), checkpoint);
+
+        verify(resumed, never()).createHardwareToken(anyString(), eq("1002"), anyString(), anyString(), anyString());
+        verify(resumed, never()).createHardwareToken(anyString(), eq("1003"), anyString(), anyString(), anyString());
+        assertEquals(1, result.getCreated());
+        assertEquals(3, result.getCheckpoint());
+        assertEquals("3\n", new String(Files.readAllBytes(checkpoint), "UTF-8"));
+    }
+
+    /**
+     * A row whose token was created counts as done even if the association fails, so a resumed import does not create it again.
+     *
+     * @throws Exception If the import fails.
+     */
+    @Test
+    public void testAssociationFailureDoesNotHoldBackCheckpoint() throws Exception {
+        String seeds = "1001,TOTP6,30,3132,,jdoe\n";
+        LoginTC client = mock(LoginTC.class);
+        when(client.createHardwareToken(null, "1001", "TOTP6", "30", "3132")).thenReturn(
+                new HardwareToken("token1", null, "1001", "TOTP6", "30", "SYNCED", null));
+        when(client.getUserByUsername("jdoe")).thenReturn(new User("user1", "jdoe", null, null, null, null, null));
+        doThrow(fixture.internalException("Timed out")).when(client).associateHardwareToken("user1", "token1");
+
+        Path checkpoint = folder.getRoot().toPath().resolve("import.checkpoint");
+        HardwareTokenImporter.Result result = new HardwareTokenImporter(client, 1).importTokens(new StringReader(seeds), checkpoint);
+
+        assertEquals(1, result.getCreated());
+        assertEquals(0, result.getAssociated());
+        assertTrue(result.getFailures().isEmpty());
+        assertEquals(1, result.getAssociationFailures().size());
+        assertEquals("token1", result.getAssociationFailures().get(0).getHardwareTokenId());
+        assertEquals(1, result.getCheckpoint());
+
+        LoginTC resumed = mock(LoginTC.class);
+        result = new HardwareTokenImporter(resumed, 1).importTokens(new StringReader(seeds), checkpoint);
+
+        verify(resumed, never()).createHardwareToken(anyString(), anyString(), anyString(), anyString(), anyString());
+        assertTrue(result.getFailures().isEmpty());
+        assertEquals(0, result.getCreated());
+    }
+
+    /**
+     * A row rejected by the API is done, but one throttled until the retries ran out is imported again by a resumed import.
+     *
+     * @throws Exception If the import fails.
+     */
+    @Test
+    public void testOnlyRejectedRowsAreDone() throws Exception {
+        String seeds = "1001,TOTP6,30,3132,,\n" + "1002,TOTP6,30,3132,,\n";
+        LoginTC client = mock(LoginTC.class);
+        when(client.createHardwareToken(null, "1001", "TOTP6", "30", "3132")).thenThrow(
+                fixture.apiException("api.error.invalid", "Invalid seed", 400));
+        when(client.createHardwareToken(null, "1002", "TOTP6", "30", "3132")).thenThrow(
+                fixture.apiException("api.error.throttled", "Too many requests", 429));
+
+        Path checkpoint = folder.getRoot().toPath().resolve("import.checkpoint");
+        HardwareTokenImporter.Result result = new HardwareTokenImporter(client, 1).importTokens(new StringReader(seeds), checkpoint);
+
+        assertEquals(2, result.getFailures().size());
+        assertEquals(1, result.getCheckpoint());
+    }
+
+    /**
+     * Quoted fields may contain separators and quotes.
+     */
+    @Test
+    public void testParse() {
+        assertEquals(Arrays.asList("a", "b, \"c\"", ""), HardwareTokenImporter.parse(" a ,\"b, \"\"c\"\"\","));
+    }
+}
@@ -0,0 +1,110 @@
+package com.cyphercor.logintc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+/**
+ * Tests for the ISO-8601 timestamp parser.
+ */
+public class Iso8601Test {
+
+    /**
+     * @throws ParseException If a timestamp is rejected.
+     */
+    @Test
+    public void testMatchesSimpleDateFormat() throws ParseException {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ", Locale.ENGLISH);
+        String[] timestamps = { "1970-01-01T00:00:00+0000", "2014-01-31T17:05:09-0500", "2000-02-29T23:59:59+0530",
+                "1969-12-31T23:59:59+0000", "2100-03-01T00:00:00-1200" };
+
+        for (String timestamp : timestamps) {
+            assertEquals(timestamp, format.parse(timestamp), Iso8601.parse(timestamp));
+        }
+    }
+
+    /**
+     * @throws ParseException If a timestamp is rejected.
+     */
+    @Test
+    public void testZoneAndFractionForms() throws ParseException {
+        long expected = 1391187909123L;
+
+        assertEquals(expected, Iso8601.parse("2014-01-31T17:05:09.123Z").getTime());
+        assertEquals(expected, Iso8601.parse("2014-01-31T12:05:09.123456-05:00").getTime());
+        assertEquals(expected - 123, Iso8601.parse("2014-01-31T18:05:09+01").getTime());
+    }
+
+    /**
+     * Invalid timestamps are rejected rather than rolled over.
+     */
+    @Test
+    public void testRejectsInvalid() {
+        String[] timestamps = { null, "", "2014-01-31", "2014-02-30T00:00:00Z", "2014-13-01T00:00:00Z", "2014-01-31T24:00:00Z",
+                "2014-01-31T17:05:09", "2014-01-31T17:05:09+5", "2014-01-31T17:05:09.Z", "2014-01-31 17:05:09Z" };
+
+        for (String timestamp : timestamps) {
+            try {
+                Iso8601.parse(timestamp);
+                fail(timestamp);
+            } catch (ParseException e) {
+                // Expected
+            }
+        }
+    }
+
+    /**
+     * Concurrent parses each return their own result.
+     *
+     * @throws Exception If a parse fails or the wait is interrupted.
+     */
+    @Test
+    public void testConcurrentParsing() throws Exception {
+        final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ", Locale.ENGLISH);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Void>> results = new ArrayList<Future<Void>>();
+
+        try {
+            for (int t = 0; t < 8; t++) {
+                final long base = t * 86400000L * 400;
+
+                results.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws ParseException {
+                        for (int i = 0; i < 10000; i++) {
+                            long millis = base + i * 3601000L;
+                            String timestamp;
+
+                            synchronized (format) {
+                                timestamp = format.format(millis);
+                            }
+
+                            assertEquals(timestamp, millis, Iso8601.parse(timestamp).getTime());
+                        }
+
+                        return null;
+                    }
+                }));
+            }
+
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
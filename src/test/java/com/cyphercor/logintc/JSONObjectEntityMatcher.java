@@ -0,0 +1,50 @@
+package com.cyphercor.logintc;
+
+import static org.mockito.Matchers.argThat;
+
+import java.io.IOException;
+
+import org.apache.http.Consts;
+import org.apache.http.HttpEntity;
+import org.apache.http.util.EntityUtils;
+import org.hamcrest.Description;
+import org.mockito.ArgumentMatcher;
+
+/**
+ * Match a request entity holding UTF-8 encoded JSON data
+ */
+public class JSONObjectEntityMatcher extends ArgumentMatcher<HttpEntity> {
+    private JSONObjectStringMatcher expected;
+
+    /**
+     * @param expected The expected JSON.
+     */
+    public JSONObjectEntityMatcher(String expected) {
+        this.expected = new JSONObjectStringMatcher(expected);
+    }
+
+    /**
+     * @param expected The expected value to match.
+     * @return The matcher.
+     */
+    public static HttpEntity eq(String expected) {
+        return argThat(new JSONObjectEntityMatcher(expected));
+    }
+
+    @Override
+    public boolean matches(Object argument) {
+        if (!(argument instanceof HttpEntity))
+            return false;
+
+        try {
+            return expected.matches(EntityUtils.toString((HttpEntity) argument, Consts.UTF_8));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void describeTo(Description description) {
+        expected.describeTo(description);
+    }
+}
@@ -0,0 +1,120 @@
+package com.cyphercor.logintc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import com.cyphercor.logintc.resource.Domain;
+import com.cyphercor.logintc.resource.User;
+
+/**
+ * Tests for the JSON codecs, each run against both implementations.
+ */
+public class JsonCodecTest {
+
+    private final List<JsonCodec> codecs = Arrays.<JsonCodec> asList(new StreamingJsonCodec(), new OrgJsonCodec());
+
+    /**
+     * @throws JSONException If a document is not valid JSON.
+     */
+    @Test
+    public void testGenerate() throws JSONException {
+        for (JsonCodec codec : codecs) {
+            String json = codec.newGenerator().beginObject().member("name", "a\"b\\c\n ").member("skipped", null).name("count")
+                    .value(3).name("enabled").value(true).name("items").beginArray().value("x").value((String) null).endArray()
+                    .endObject().toJson();
+
+            JSONObject jsonObject = new JSONObject(json);
+
+            assertEquals("a\"b\\c\n ", jsonObject.getString("name"));
+            assertFalse(jsonObject.has("skipped"));
+            assertEquals(3, jsonObject.getInt("count"));
+            assertTrue(jsonObject.getBoolean("enabled"));
+            assertEquals(2, jsonObject.getJSONArray("items").length());
+            assertTrue(jsonObject.getJSONArray("items").isNull(1));
+        }
+    }
+
+    /**
+     * Incomplete documents are rejected.
+     */
+    @Test
+    public void testGenerateIncomplete() {
+        for (JsonCodec codec : codecs) {
+            try {
+                codec.newGenerator().beginObject().name("a").value(1).toJson();
+                throw new AssertionError(codec.getClass().getSimpleName());
+            } catch (IllegalStateException e) {
+                // Expected
+            }
+        }
+    }
+
+    /**
+     * @throws IOException If a document is rejected.
+     */
+    @Test
+    public void testParse() throws IOException {
+        for (JsonCodec codec : codecs) {
+            Domain domain = ResourceMapper.DOMAIN.read(codec, "{\"id\":\"d1\",\"name\":\"VPN\",\"type\":\"RADIUS\",\"keyType\":\"PIN\","
+                    + "\"extra\":[{\"a\":null}],\"maxAllowedRetries\":3,\"requestTimeout\":120,\"activationCodeExpiration\":30,"
+                    + "\"requestPollingEnabled\":true,\"bypassEnabled\":false}");
+
+            assertEquals("VPN", domain.getName());
+            assertEquals(Integer.valueOf(120), domain.getRequestTimeout());
+            assertEquals(Boolean.FALSE, domain.getBypassEnabled());
+
+            List<User> users = ResourceMapper.USER.list(codec).read(new StringReader("[{\"id\":\"1\",\"username\":\"jdoe\",\"email\":\"\","
+                    + "\"name\":\"John\",\"hardware\":null,\"domains\":[]}]"));
+
+            assertEquals(1, users.size());
+            assertTrue(users.get(0).getDomains().isEmpty());
+        }
+    }
+
+    /**
+     * A null string is read as null by the streaming codec and as "null" by the org.json codec, as org.json itself reads it.
+     *
+     * @throws IOException If a document is rejected.
+     */
+    @Test
+    public void testParseNull() throws IOException {
+        String json = "{\"id\":\"1\",\"username\":\"jdoe\",\"email\":\"\",\"name\":\"John\",\"hardware\":null,\"domains\":[]}";
+
+        assertNull(ResourceMapper.USER.read(new StreamingJsonCodec(), json).getHardware());
+        assertEquals("null", ResourceMapper.USER.read(new OrgJsonCodec(), json).getHardware());
+    }
+
+    /**
+     * The pooled parse buffer is handed out again once the parser holding it is closed.
+     *
+     * @throws IOException If a document is rejected.
+     */
+    @Test
+    public void testStreamingBufferReuse() throws IOException {
+        JsonCodec codec = new StreamingJsonCodec();
+        JsonCodec.Parser outer = codec.newParser(new StringReader("[\"a\"]"));
+        JsonCodec.Parser inner = codec.newParser(new StringReader("[\"b\"]"));
+
+        outer.beginArray();
+        inner.beginArray();
+        assertEquals("b", inner.nextString());
+        assertEquals("a", outer.nextString());
+
+        inner.close();
+        outer.close();
+        outer.close();
+
+        assertEquals(Arrays.asList("c", "d"), ResourceMapper.readStrings(codec.newParser(new StringReader("[\"c\",\"d\"]"))));
+    }
+}
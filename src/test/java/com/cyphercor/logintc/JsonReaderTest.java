@@ -0,0 +1,74 @@
+package com.cyphercor.logintc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.Test;
+
+import com.cyphercor.logintc.JsonReader.MalformedJsonException;
+
+/**
+ * Tests for the streaming JSON reader.
+ */
+public class JsonReaderTest {
+
+    /**
+     * @throws IOException If the input cannot be read.
+     */
+    @Test
+    public void testReadsValues() throws IOException {
+        JsonReader reader = new JsonReader(new StringReader(
+                "[{\"id\":\"a\\\"b\\u00e9\",\"uses\":5,\"enabled\":true,\"extra\":{\"x\":[1,2,{}]},\"hardware\":null}, {} ]"));
+
+        reader.beginArray();
+        reader.beginObject();
+        assertEquals("id", reader.nextName());
+        assertEquals("a\"bé", reader.nextString());
+        assertEquals("uses", reader.nextName());
+        assertEquals(5, reader.nextInt());
+        assertEquals("enabled", reader.nextName());
+        assertTrue(reader.nextBoolean());
+        assertEquals("extra", reader.nextName());
+        reader.skipValue();
+        assertEquals("hardware", reader.nextName());
+        assertNull(reader.nextString());
+        assertFalse(reader.hasNext());
+        reader.endObject();
+        reader.beginObject();
+        reader.endObject();
+        reader.endArray();
+        assertEquals(JsonCodec.Token.END_DOCUMENT, reader.peek());
+    }
+
+    /**
+     * @throws IOException If the input cannot be read.
+     */
+    @Test
+    public void testLenientValues() throws IOException {
+        JsonReader reader = new JsonReader(new StringReader("[\"7\", 42, \"false\"]"));
+
+        reader.beginArray();
+        assertEquals(7, reader.nextInt());
+        assertEquals("42", reader.nextString());
+        assertFalse(reader.nextBoolean());
+        reader.endArray();
+    }
+
+    /**
+     * @throws IOException If the input cannot be read.
+     */
+    @Test(expected = MalformedJsonException.class)
+    public void testMalformed() throws IOException {
+        JsonReader reader = new JsonReader(new StringReader("[{\"id\" \"a\"}]"));
+
+        reader.beginArray();
+        reader.beginObject();
+        reader.nextName();
+        reader.nextString();
+    }
+}
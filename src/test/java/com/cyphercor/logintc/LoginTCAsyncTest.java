@@ -0,0 +1,85 @@
+package com.cyphercor.logintc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.http.HttpEntity;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cyphercor.logintc.AdminRestClient.AdminRestClientException;
+import com.cyphercor.logintc.AdminRestClient.RestAdminRestClientException;
+import com.cyphercor.logintc.LoginTC.NoTokenLoginTCException;
+import com.cyphercor.logintc.resource.Session;
+
+/**
+ * Tests for the asynchronous LoginTC client.
+ */
+public class LoginTCAsyncTest {
+    private LoginTCAsync client = null;
+    private AdminRestClient mockedAdminRestClient = null;
+
+    private final String domainId = "9120580e94f134cb7c9f27cd1e43dbc82980e152";
+    private final String sessionId = "fcbdc4c271c889825d8338d2d8f10b6e5e95c171";
+
+    /**
+     *
+     */
+    @Before
+    public void initialize() {
+        this.mockedAdminRestClient = mock(AdminRestClient.class);
+        this.client = new LoginTCAsync(new LoginTC(null, null, true, mockedAdminRestClient));
+    }
+
+    /**
+     *
+     */
+    @After
+    public void destroy() {
+        this.client.close();
+    }
+
+    /**
+     * @throws AdminRestClientException If the admin client encounters an error.
+     * @throws Exception If the future fails.
+     */
+    @Test
+    public void testGetSession() throws AdminRestClientException, Exception {
+        String path = String.format("/api/domains/%s/sessions/%s", domainId, sessionId);
+        when(mockedAdminRestClient.get(path)).thenReturn("{\"state\":\"approved\"}");
+
+        Session session = client.getSession(domainId, sessionId).get();
+
+        assertEquals(sessionId, session.getId());
+        assertEquals(Session.State.APPROVED, session.getState());
+    }
+
+    /**
+     * @throws AdminRestClientException If the admin client encounters an error.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    @Test
+    public void testCreateSessionNoTokenLoginTCException() throws AdminRestClientException, InterruptedException {
+        String path = String.format("/api/domains/%s/sessions", domainId);
+        when(mockedAdminRestClient.post(eq(path), any(HttpEntity.class))).thenThrow(
+                new RestAdminRestClientException(404, "{\"errors\":[{\"code\":\"api.error.notfound.token\",\"message\":\"\"}]}"));
+
+        CompletableFuture<Session> future = client.createSessionWithUsername(domainId, "testuser1", null);
+
+        try {
+            future.get();
+            fail("Expected NoTokenLoginTCException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof NoTokenLoginTCException);
+        }
+    }
+}
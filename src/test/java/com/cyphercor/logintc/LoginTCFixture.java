@@ -0,0 +1,61 @@
+package com.cyphercor.logintc;
+
+import java.io.IOException;
+
+import org.junit.rules.ExternalResource;
+
+import com.cyphercor.logintc.LoginTC.ApiLoginTCException;
+import com.cyphercor.logintc.LoginTC.InternalLoginTCException;
+
+/**
+ * A client for tests that need one without calling the API, such as to create exceptions. Use it as a class rule so the client is closed
+ * after the tests.
+ */
+public class LoginTCFixture extends ExternalResource {
+    private LoginTC client = null;
+
+    @Override
+    protected void before() {
+        client = new LoginTC("apiKey");
+    }
+
+    @Override
+    protected void after() {
+        client.close();
+        client = null;
+    }
+
+    /**
+     * @return The client.
+     */
+    public LoginTC getClient() {
+        return client;
+    }
+
+    /**
+     * @param message The message of the underlying I/O failure.
+     * @return A transport failure.
+     */
+    public InternalLoginTCException internalException(String message) {
+        return client.new InternalLoginTCException(new IOException(message));
+    }
+
+    /**
+     * @param errorCode The API error code.
+     * @param errorMessage The API error message.
+     * @return An API error.
+     */
+    public ApiLoginTCException apiException(String errorCode, String errorMessage) {
+        return client.new ApiLoginTCException(errorCode, errorMessage);
+    }
+
+    /**
+     * @param errorCode The API error code.
+     * @param errorMessage The API error message.
+     * @param statusCode The HTTP status code of the response.
+     * @return An API error.
+     */
+    public ApiLoginTCException apiException(String errorCode, String errorMessage, int statusCode) {
+        return client.new ApiLoginTCException(errorCode, errorMessage, statusCode);
+    }
+}
@@ -1,24 +1,48 @@
 
 package com.cyphercor.logintc;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyObject;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.http.HttpEntity;
 import org.json.JSONException;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import com.cyphercor.logintc.AdminRestClient.AdminRestClientException;
+import com.cyphercor.logintc.AdminRestClient.CircuitOpenAdminRestClientException;
+import com.cyphercor.logintc.AdminRestClient.DeadlineExceededAdminRestClientException;
+import com.cyphercor.logintc.AdminRestClient.ResponseReader;
 import com.cyphercor.logintc.AdminRestClient.RestAdminRestClientException;
+import com.cyphercor.logintc.AdminRestClient.TaggedResponse;
+import com.cyphercor.logintc.LoginTC.ApiLoginTCException;
+import com.cyphercor.logintc.LoginTC.CircuitOpenLoginTCException;
+import com.cyphercor.logintc.LoginTC.DeadlineExceededLoginTCException;
 import com.cyphercor.logintc.LoginTC.LoginTCException;
 import com.cyphercor.logintc.LoginTC.NoTokenLoginTCException;
 import com.cyphercor.logintc.resource.Domain;
@@ -55,10 +79,37 @@ public class LoginTCTest {
 
     private final String tokenCode = "89hto1p45";
 
+    /**
+     * Directory for files written by the tests.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     private String createJson(String original, Object... args) {
         return String.format(original.replace("'", "\""), args);
     }
 
+    /**
+     * @return A matcher of any response reader, typed to match the stubbed method without an unchecked conversion.
+     */
+    private static <T> ResponseReader<T> anyResponseReader() {
+        return anyObject();
+    }
+
+    /**
+     * @param response The response body.
+     * @return An answer passing the response body to the stubbed call's response reader.
+     */
+    private Answer<Object> streamResponse(final String response) {
+        return new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                ResponseReader<?> responseReader = (ResponseReader<?>) invocation.getArguments()[2];
+                return responseReader.read(new StringReader(response));
+            }
+        };
+    }
+
     /**
      * 
      */
@@ -93,7 +144,7 @@ public class LoginTCTest {
                 userId);
         String response = createJson("{'id':'%s','state':'pending'}", sessionId);
 
-        when(mockedAdminRestClient.post(eq(path), JSONObjectStringMatcher.eq(body))).thenReturn(response);
+        when(mockedAdminRestClient.post(eq(path), JSONObjectEntityMatcher.eq(body))).thenReturn(response);
 
         Map<String, String> attributes = new LinkedHashMap<String, String>();
         attributes.put("Product", "Quinoa");
@@ -103,7 +154,7 @@ public class LoginTCTest {
         assertEquals(sessionId, session.getId());
         assertEquals(Session.State.PENDING, session.getState());
 
-        verify(mockedAdminRestClient).post(eq(path), JSONObjectStringMatcher.eq(body));
+        verify(mockedAdminRestClient).post(eq(path), JSONObjectEntityMatcher.eq(body));
     }
 
     /**
@@ -116,7 +167,7 @@ public class LoginTCTest {
         String body = createJson("{'attributes':[{'value':'Quinoa','key':'Product'},{'value':'42','key':'Price'}],'user':{'id':'%s'}}",
                 userId);
 
-        when(mockedAdminRestClient.post(eq(path), JSONObjectStringMatcher.eq(body))).thenThrow(
+        when(mockedAdminRestClient.post(eq(path), JSONObjectEntityMatcher.eq(body))).thenThrow(
                 new RestAdminRestClientException(404, createJson("{'errors':[{'code':'api.error.notfound.token','message':''}]}")));
 
         Map<String, String> attributes = new LinkedHashMap<String, String>();
@@ -126,6 +177,107 @@ public class LoginTCTest {
         client.createSession(domainId, userId, attributes);
     }
 
+    /**
+     * @throws AdminRestClientException If the admin client encounters an error.
+     * @throws LoginTCException If LoginTC encounters an error.
+     */
+    @Test
+    public void testNegativeCache() throws AdminRestClientException, LoginTCException {
+        String path = String.format("/api/domains/%s/sessions", domainId);
+
+        when(mockedAdminRestClient.post(eq(path), any(HttpEntity.class))).thenThrow(
+                new RestAdminRestClientException(404, createJson("{'errors':[{'code':'api.error.notfound.token','message':''}]}")));
+        when(mockedAdminRestClient.put(String.format("/api/domains/%s/users/%s/token", domainId, userId), null)).thenReturn(
+                createJson("{'state':'pending','code':'%s'}", tokenCode));
+        client.setNegativeCache(100, 1, TimeUnit.MINUTES);
+
+        for (int i = 0; i < 3; i++) {
+            try {
+                client.createSession(domainId, userId, null);
+            } catch (NoTokenLoginTCException e) {
+                assertEquals("api.error.notfound.token", e.getErrorCode());
+            }
+        }
+
+        verify(mockedAdminRestClient, times(1)).post(eq(path), any(HttpEntity.class));
+        assertEquals(2, client.getNegativeCache().getHitCount());
+
+        client.createUserToken(domainId, userId);
+
+        try {
+            client.createSession(domainId, userId, null);
+        } catch (NoTokenLoginTCException e) {
+            // The failure was forgotten, so the API was called again
+        }
+
+        verify(mockedAdminRestClient, times(2)).post(eq(path), any(HttpEntity.class));
+    }
+
+    /**
+     * Only missing users and tokens are remembered, not other missing resources such as the domain.
+     *
+     * @throws AdminRestClientException If the admin client encounters an error.
+     * @throws LoginTCException If LoginTC encounters an error.
+     */
+    @Test
+    public void testNegativeCacheIgnoresOtherNotFound() throws AdminRestClientException, LoginTCException {
+        String path = String.format("/api/domains/%s/sessions", domainId);
+
+        when(mockedAdminRestClient.post(eq(path), any(HttpEntity.class))).thenThrow(
+                new RestAdminRestClientException(404, createJson("{'errors':[{'code':'api.error.notfound.domain','message':''}]}")));
+        client.setNegativeCache(100, 1, TimeUnit.MINUTES);
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                client.createSession(domainId, userId, null);
+            } catch (ApiLoginTCException e) {
+                assertEquals("api.error.notfound.domain", e.getErrorCode());
+            }
+        }
+
+        verify(mockedAdminRestClient, times(2)).post(eq(path), any(HttpEntity.class));
+        assertEquals(0, client.getNegativeCache().size());
+    }
+
+    /**
+     * Issuing a token forgets the failed token lookups of that user only.
+     *
+     * @throws AdminRestClientException If the admin client encounters an error.
+     * @throws LoginTCException If LoginTC encounters an error.
+     */
+    @Test
+    public void testNegativeCacheForgetsTokenOfUser() throws AdminRestClientException, LoginTCException {
+        String path = String.format("/api/domains/%s/sessions", domainId);
+
+        when(mockedAdminRestClient.post(eq(path), any(HttpEntity.class))).thenThrow(
+                new RestAdminRestClientException(404, createJson("{'errors':[{'code':'api.error.notfound.token','message':''}]}")));
+        when(mockedAdminRestClient.put(String.format("/api/domains/%s/users/%s/token", domainId, userId), null)).thenReturn(
+                createJson("{'state':'pending','code':'%s'}", tokenCode));
+        client.setNegativeCache(100, 1, TimeUnit.MINUTES);
+
+        for (String id : Arrays.asList(userId, "otherUser", userId, "otherUser")) {
+            try {
+                client.createSession(domainId, id, null);
+            } catch (NoTokenLoginTCException e) {
+                // Remembered after the first call for each user
+            }
+        }
+
+        verify(mockedAdminRestClient, times(2)).post(eq(path), any(HttpEntity.class));
+
+        client.createUserToken(domainId, userId);
+
+        for (String id : Arrays.asList(userId, "otherUser")) {
+            try {
+                client.createSession(domainId, id, null);
+            } catch (NoTokenLoginTCException e) {
+                // Only the failure of the user issued a token was forgotten
+            }
+        }
+
+        verify(mockedAdminRestClient, times(3)).post(eq(path), any(HttpEntity.class));
+    }
+
     /**
      * @throws AdminRestClientException If the admin client encounters an error.
      * @throws LoginTCException If LoginTC encounters an error.
@@ -251,6 +403,31 @@ public class LoginTCTest {
         verify(mockedAdminRestClient).get(path);
     }
 
+    /**
+     * @throws AdminRestClientException If the admin client encounters an error.
+     * @throws LoginTCException If LoginTC encounters an error.
+     */
+    @Test
+    public void testUserCache() throws AdminRestClientException, LoginTCException {
+        String path = String.format("/api/users/%s", userId);
+        String response = createJson("{'id':'%s','username':'%s','email':'%s','name':'%s','domains':['%s'],'hardware':''}", userId, userUsername,
+                userEmail, userName, domainId);
+
+        when(mockedAdminRestClient.get(path)).thenReturn(response);
+        client.setUserCache(100, 1, TimeUnit.MINUTES);
+
+        client.getUser(userId);
+        client.getUserByUsername(userUsername);
+        User user = client.getDomainUser(domainId, userId);
+        assertEquals(userEmail, user.getEmail());
+        verify(mockedAdminRestClient, times(1)).get(path);
+        assertEquals(2, client.getUserCache().getHitCount());
+
+        client.removeDomainUser(domainId, userId);
+        client.getUser(userId);
+        verify(mockedAdminRestClient, times(2)).get(path);
+    }
+
     /**
      * @throws AdminRestClientException If the admin client encounters an error.
      * @throws LoginTCException If LoginTC encounters an error.
@@ -418,7 +595,7 @@ public class LoginTCTest {
                 "[{'id':'%s','username':'%s','email':'%s','name':'%s','domains':['%s'],'hardware':''},{'id':'%s','username':'%s','email':'%s','name':'%s','domains':['%s'],'hardware':''}]",
                 userId, userUsername, userEmail, userName, domainId, userId, userUsername, userEmail, userName, domainId);
 
-        when(mockedAdminRestClient.get(path, query)).thenReturn(response);
+        when(mockedAdminRestClient.get(eq(path), eq(query), anyResponseReader())).thenAnswer(streamResponse(response));
 
         List<User> users = client.getDomainUsers(domainId);
 
@@ -434,7 +611,34 @@ public class LoginTCTest {
         assertEquals(userName, users.get(1).getName());
         assertEquals(1, users.get(1).getDomains().size());
         assertEquals(domainId, users.get(1).getDomains().get(0));
-        verify(mockedAdminRestClient).get(path, query);
+        verify(mockedAdminRestClient).get(eq(path), eq(query), anyResponseReader());
+    }
+
+    /**
+     * @throws AdminRestClientException If the admin client encounters an error.
+     * @throws LoginTCException If LoginTC encounters an error.
+     */
+    @Test
+    public void testExportUsers() throws AdminRestClientException, LoginTCException {
+        String user = "{'id':'%s','username':'user%d','email':'%s','name':'%s','domains':[],'hardware':''}";
+
+        for (int page = 1; page <= 6; page++) {
+            StringBuilder response = new StringBuilder();
+
+            for (int i = 0; page < 4 && i < (page < 3 ? 2 : 1); i++) {
+                response.append(response.length() > 0 ? "," : "").append(createJson(user, userId, page * 10 + i, userEmail, userName));
+            }
+
+            when(mockedAdminRestClient.get(eq("/api/users"), eq(String.format("page=%d", page)), anyResponseReader())).thenAnswer(
+                    streamResponse("[" + response + "]"));
+        }
+
+        List<User> users = client.exportUsers(4);
+
+        assertEquals(5, users.size());
+        assertEquals("user10", users.get(0).getUsername());
+        assertEquals("user21", users.get(3).getUsername());
+        assertEquals("user30", users.get(4).getUsername());
     }
 
     /**
@@ -453,4 +657,98 @@ public class LoginTCTest {
         verify(mockedAdminRestClient).getBytes(path, "image/png");
     }
 
+    /**
+     * @throws AdminRestClientException If the admin client encounters an error.
+     * @throws LoginTCException If LoginTC encounters an error.
+     */
+    @Test
+    public void testGetDomainImageToStream() throws AdminRestClientException, LoginTCException {
+        String path = String.format("/api/domains/%s/image", domainId);
+        final byte[] response = "Hello World!".getBytes();
+
+        when(mockedAdminRestClient.getBytes(eq(path), eq("image/png"), any(OutputStream.class))).thenAnswer(new Answer<Long>() {
+            @Override
+            public Long answer(InvocationOnMock invocation) throws Throwable {
+                ((OutputStream) invocation.getArguments()[2]).write(response);
+                return (long) response.length;
+            }
+        });
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assertEquals(response.length, client.getDomainImage(domainId, out));
+        assertEquals("Hello World!", out.toString());
+    }
+
+    /**
+     * @throws AdminRestClientException If the admin client encounters an error.
+     * @throws LoginTCException If LoginTC encounters an error.
+     * @throws IOException If the image file cannot be read.
+     */
+    @Test
+    public void testGetDomainImageToFileFromCache() throws AdminRestClientException, LoginTCException, IOException {
+        String path = String.format("/api/domains/%s/image", domainId);
+        byte[] response = "Hello World!".getBytes();
+        Path file = folder.getRoot().toPath().resolve("image.png");
+
+        when(mockedAdminRestClient.getBytesIfNoneMatch(path, "image/png", null)).thenReturn(new TaggedResponse<byte[]>(response, "\"1\""));
+        client.setDomainCache(1, 1, TimeUnit.MINUTES);
+
+        assertEquals(response.length, client.getDomainImage(domainId, file));
+        assertEquals(response.length, client.getDomainImage(domainId, file));
+        assertArrayEquals(response, Files.readAllBytes(file));
+        verify(mockedAdminRestClient, times(1)).getBytesIfNoneMatch(path, "image/png", null);
+    }
+
+    /**
+     * 
+     */
+    @Test
+    public void testConnectionPoolConfiguration() {
+        client.setMaxConnections(100, 50);
+        client.setConnectionIdleTimeout(10, TimeUnit.SECONDS);
+        client.close();
+
+        verify(mockedAdminRestClient).setMaxConnections(100, 50);
+        verify(mockedAdminRestClient).setConnectionIdleTimeout(10000L);
+        verify(mockedAdminRestClient).shutdown();
+    }
+
+    /**
+     * @throws AdminRestClientException If the admin client encounters an error.
+     * @throws LoginTCException If LoginTC encounters an error.
+     */
+    @Test(expected = CircuitOpenLoginTCException.class)
+    public void testCircuitOpenLoginTCException() throws AdminRestClientException, LoginTCException {
+        String path = String.format("/api/domains/%s/sessions/%s", domainId, sessionId);
+        when(mockedAdminRestClient.get(path)).thenThrow(new CircuitOpenAdminRestClientException());
+
+        client.getSession(domainId, sessionId);
+    }
+
+    /**
+     * @throws AdminRestClientException If the admin client encounters an error.
+     * @throws LoginTCException If LoginTC encounters an error.
+     */
+    @Test(expected = DeadlineExceededLoginTCException.class)
+    public void testDeadlineExceededLoginTCException() throws AdminRestClientException, LoginTCException {
+        AdminRestClient mockedDeadlineAdminRestClient = mock(AdminRestClient.class);
+        when(mockedAdminRestClient.withCallTimeout(2000L)).thenReturn(mockedDeadlineAdminRestClient);
+
+        String path = String.format("/api/domains/%s/sessions/%s", domainId, sessionId);
+        when(mockedDeadlineAdminRestClient.get(path)).thenThrow(new DeadlineExceededAdminRestClientException(2000L));
+
+        client.withDeadline(2, TimeUnit.SECONDS).getSession(domainId, sessionId);
+    }
+
+    /**
+     * Timeouts too long for the transport are capped rather than overflowing.
+     */
+    @Test
+    public void testSetTimeoutsCapsLongTimeouts() {
+        client.setTimeouts(30, 1000, 10, TimeUnit.DAYS);
+
+        verify(mockedAdminRestClient).setTimeouts(Integer.MAX_VALUE, Integer.MAX_VALUE, TimeUnit.DAYS.toMillis(10));
+    }
+
 }
@@ -0,0 +1,54 @@
+package com.cyphercor.logintc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests for the negative cache.
+ */
+public class NegativeCacheTest {
+
+    /**
+     * Invalidating a username removes its user lookup and the token lookups grouped under it, and nothing else.
+     */
+    @Test
+    public void testInvalidatesGroup() {
+        NegativeCache cache = new NegativeCache(10, 1, TimeUnit.MINUTES);
+
+        cache.put("user/username/jdoe", "api.error.notfound.user", "", cache.getGeneration());
+        cache.put("token/d1/username/jdoe", "api.error.notfound.token", "", cache.getGeneration(), "jdoe");
+        cache.put("token/d2/username/jdoe", "api.error.notfound.token", "", cache.getGeneration(), "jdoe");
+        cache.put("token/d1/username/ajdoe", "api.error.notfound.token", "", cache.getGeneration(), "ajdoe");
+
+        cache.invalidate("user/username/jdoe", "jdoe");
+
+        assertEquals(1, cache.size());
+        assertNull(cache.get("token/d1/username/jdoe"));
+        assertNotNull(cache.get("token/d1/username/ajdoe"));
+    }
+
+    /**
+     * A lookup in several groups is removed with any of them and no longer indexed under the others.
+     */
+    @Test
+    public void testInvalidatesLookupInSeveralGroups() {
+        NegativeCache cache = new NegativeCache(10, 1, TimeUnit.MINUTES);
+
+        cache.put("token/d1/username/jdoe", "api.error.notfound.token", "", cache.getGeneration(), "username/jdoe", "token/d1");
+        cache.put("token/d1/username/ajdoe", "api.error.notfound.token", "", cache.getGeneration(), "username/ajdoe", "token/d1");
+
+        cache.invalidate("user/username/jdoe", "username/jdoe");
+
+        assertEquals(1, cache.size());
+        assertNull(cache.get("token/d1/username/jdoe"));
+
+        cache.invalidate("token/d1/id/user1", "token/d1");
+
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,101 @@
+package com.cyphercor.logintc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Test;
+
+/**
+ * Tests for the paginated listing iterator.
+ */
+public class PageIteratorTest {
+
+    /**
+     * Source serving the given pages and recording which pages were requested.
+     */
+    private static class Pages implements PageIterator.PageSource<Integer> {
+        private final List<List<Integer>> pages;
+        private final List<Integer> requested = new CopyOnWriteArrayList<Integer>();
+
+        Pages(List<List<Integer>> pages) {
+            this.pages = pages;
+        }
+
+        @Override
+        public List<Integer> getPage(int page) {
+            requested.add(page);
+            return page <= pages.size() ? pages.get(page - 1) : Collections.<Integer> emptyList();
+        }
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void testStopsAtShortPage() {
+        @SuppressWarnings("unchecked")
+        Pages pages = new Pages(Arrays.asList(Arrays.asList(1, 2), Arrays.asList(3, 4), Arrays.asList(5)));
+        PageIterator<Integer> iterator = new PageIterator<Integer>(pages);
+        List<Integer> values = new ArrayList<Integer>();
+
+        while (iterator.hasNext()) {
+            values.add(iterator.next());
+        }
+
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5), values);
+        assertEquals(Arrays.asList(1, 2, 3), pages.requested);
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void testStopsAtEmptyPage() {
+        @SuppressWarnings("unchecked")
+        Pages pages = new Pages(Arrays.asList(Arrays.asList(1, 2), Arrays.asList(3, 4)));
+        PageIterator<Integer> iterator = new PageIterator<Integer>(pages);
+        int count = 0;
+
+        while (iterator.hasNext()) {
+            iterator.next();
+            count++;
+        }
+
+        assertEquals(4, count);
+        assertEquals(Arrays.asList(1, 2, 3), pages.requested);
+    }
+
+    /**
+     *
+     */
+    @Test(expected = IllegalStateException.class)
+    public void testPropagatesFailure() {
+        PageIterator<Integer> iterator = new PageIterator<Integer>(new PageIterator.PageSource<Integer>() {
+            @Override
+            public List<Integer> getPage(int page) {
+                if (page > 1) {
+                    throw new IllegalStateException();
+                }
+
+                return Arrays.asList(1);
+            }
+        });
+
+        assertEquals(Integer.valueOf(1), iterator.next());
+        iterator.hasNext();
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void testEmptyListing() {
+        assertFalse(new PageIterator<Integer>(new Pages(new ArrayList<List<Integer>>())).hasNext());
+    }
+}
@@ -0,0 +1,45 @@
+package com.cyphercor.logintc;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests for the token bucket rate limiter.
+ */
+public class RateLimiterTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     *
+     */
+    @Test
+    public void testBurstThenRate() {
+        RateLimiter rateLimiter = new RateLimiter(10, 2);
+        long now = System.nanoTime() + SECOND;
+
+        assertEquals(0, rateLimiter.reserve(now));
+        assertEquals(0, rateLimiter.reserve(now));
+        assertEquals(SECOND / 10, rateLimiter.reserve(now));
+        assertEquals(2 * SECOND / 10, rateLimiter.reserve(now));
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void testRefill() {
+        RateLimiter rateLimiter = new RateLimiter(10, 2);
+        long now = System.nanoTime() + SECOND;
+
+        rateLimiter.reserve(now);
+        rateLimiter.reserve(now);
+
+        assertEquals(0, rateLimiter.reserve(now + SECOND / 10));
+        assertEquals(0, rateLimiter.reserve(now + 10 * SECOND));
+        assertEquals(0, rateLimiter.reserve(now + 10 * SECOND));
+        assertEquals(SECOND / 10, rateLimiter.reserve(now + 10 * SECOND));
+    }
+}
@@ -0,0 +1,58 @@
+package com.cyphercor.logintc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.cyphercor.logintc.resource.HardwareToken;
+import com.cyphercor.logintc.resource.User;
+
+/**
+ * Tests for the resource mappers.
+ */
+public class ResourceMapperTest {
+
+    private final JsonCodec codec = new StreamingJsonCodec();
+
+    /**
+     * @throws IOException If the user is rejected.
+     */
+    @Test
+    public void testReadUser() throws IOException {
+        User user = ResourceMapper.USER.read(codec, "{\"id\":\"1\",\"extra\":{\"a\":[1]},\"username\":\"jdoe\",\"email\":\"\","
+                + "\"name\":\"John\",\"domains\":[\"d1\",\"d2\"],\"hardware\":null}");
+
+        assertEquals("jdoe", user.getUsername());
+        assertEquals(Arrays.asList("d1", "d2"), user.getDomains());
+        assertTrue(user.getBypassCodes().isEmpty());
+        assertNull(user.getHardware());
+    }
+
+    /**
+     * @throws IOException If the listing is rejected.
+     */
+    @Test
+    public void testReadList() throws IOException {
+        List<HardwareToken> hardwareTokens = ResourceMapper.HARDWARE_TOKEN.list(codec).read(
+                new StringReader("[{\"id\":\"1\",\"alias\":\"a\",\"serialNumber\":\"s\",\"type\":\"TOTP6\",\"timeStep\":30,"
+                        + "\"syncState\":\"SYNCED\",\"user\":\"u\"}]"));
+
+        assertEquals(1, hardwareTokens.size());
+        assertEquals("30", hardwareTokens.get(0).getTimeStep());
+    }
+
+    /**
+     * @throws IOException Expected, as the user has no domains.
+     */
+    @Test(expected = IOException.class)
+    public void testRejectsMissingField() throws IOException {
+        ResourceMapper.USER.read(codec, "{\"id\":\"1\",\"username\":\"jdoe\",\"email\":\"\",\"name\":\"John\",\"hardware\":\"\"}");
+    }
+}
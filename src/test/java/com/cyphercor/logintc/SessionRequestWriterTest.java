@@ -0,0 +1,67 @@
+package com.cyphercor.logintc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.http.Consts;
+import org.apache.http.util.EntityUtils;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+/**
+ * Tests for the session request writer.
+ */
+public class SessionRequestWriterTest {
+
+    /**
+     * @throws IOException If the entity cannot be read.
+     * @throws JSONException If the request is not valid JSON.
+     */
+    @Test
+    public void testWrite() throws IOException, JSONException {
+        Map<String, String> attributes = new LinkedHashMap<String, String>();
+        attributes.put("Caf\u00e9", "\u20ac 42 \ud83d\udd12");
+        attributes.put("Quote", "\"\\\n\u0001\u2028");
+
+        String json = EntityUtils.toString(SessionRequestWriter.write("username", "j\u00f6rg", attributes, "10.0.0.1", null, "123456"),
+                Consts.UTF_8);
+        JSONObject request = new JSONObject(json);
+
+        assertEquals("j\u00f6rg", request.getJSONObject("user").getString("username"));
+        assertEquals("Caf\u00e9", request.getJSONArray("attributes").getJSONObject(0).getString("key"));
+        assertEquals("\u20ac 42 \ud83d\udd12", request.getJSONArray("attributes").getJSONObject(0).getString("value"));
+        assertEquals("\"\\\n\u0001\u2028", request.getJSONArray("attributes").getJSONObject(1).getString("value"));
+        assertEquals("10.0.0.1", request.getString("ipAddress"));
+        assertEquals("123456", request.getString("otp"));
+        assertFalse(request.has("bypasscode"));
+    }
+
+    /**
+     * The thread's buffer is reused, and grows for large requests.
+     *
+     * @throws IOException If the entity cannot be read.
+     * @throws JSONException If the request is not valid JSON.
+     */
+    @Test
+    public void testReuse() throws IOException, JSONException {
+        StringBuilder large = new StringBuilder();
+
+        for (int i = 0; i < 1000; i++) {
+            large.append("\u00e9abc");
+        }
+
+        Map<String, String> attributes = new LinkedHashMap<String, String>();
+        attributes.put("large", large.toString());
+
+        String first = EntityUtils.toString(SessionRequestWriter.write("id", "1", attributes, null, "123456789", "1"), Consts.UTF_8);
+        assertEquals(large.toString(), new JSONObject(first).getJSONArray("attributes").getJSONObject(0).getString("value"));
+
+        String second = EntityUtils.toString(SessionRequestWriter.write("id", "2", null, "", null, null), Consts.UTF_8);
+        assertEquals("{\"user\":{\"id\":\"2\"},\"attributes\":[]}", second);
+    }
+}
@@ -0,0 +1,177 @@
+package com.cyphercor.logintc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cyphercor.logintc.AdminRestClient.AdminRestClientException;
+import com.cyphercor.logintc.AdminRestClient.InternalAdminRestClientException;
+import com.cyphercor.logintc.AdminRestClient.RestAdminRestClientException;
+import com.cyphercor.logintc.LoginTC.ApiLoginTCException;
+import com.cyphercor.logintc.resource.Domain;
+import com.cyphercor.logintc.resource.Session;
+
+/**
+ * Tests for the session waiter.
+ */
+public class SessionWaiterTest {
+    private LoginTCAsync client = null;
+    private SessionWaiter waiter = null;
+    private AdminRestClient mockedAdminRestClient = null;
+
+    private final String domainId = "9120580e94f134cb7c9f27cd1e43dbc82980e152";
+    private final String sessionId = "fcbdc4c271c889825d8338d2d8f10b6e5e95c171";
+    private final String path = String.format("/api/domains/%s/sessions/%s", domainId, sessionId);
+
+    /**
+     *
+     */
+    @Before
+    public void initialize() {
+        this.mockedAdminRestClient = mock(AdminRestClient.class);
+        this.client = new LoginTCAsync(new LoginTC(null, null, true, mockedAdminRestClient));
+        this.waiter = new SessionWaiter(client, 10, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     *
+     */
+    @After
+    public void destroy() {
+        this.waiter.close();
+        this.client.close();
+    }
+
+    /**
+     * @throws AdminRestClientException If the admin client encounters an error.
+     * @throws Exception If the future fails.
+     */
+    @Test
+    public void testAwaitApproved() throws AdminRestClientException, Exception {
+        when(mockedAdminRestClient.get(path)).thenReturn("{\"state\":\"pending\"}", "{\"state\":\"pending\"}",
+                "{\"state\":\"approved\"}");
+
+        Session session = waiter.await(domainId, sessionId, 5, TimeUnit.SECONDS).get();
+
+        assertEquals(Session.State.APPROVED, session.getState());
+        assertEquals(0, waiter.getPendingCount());
+    }
+
+    /**
+     * A poll that fails on a network error is retried instead of failing the wait.
+     *
+     * @throws AdminRestClientException If the admin client encounters an error.
+     * @throws Exception If the future fails.
+     */
+    @Test
+    public void testAwaitRetriesFailedPoll() throws AdminRestClientException, Exception {
+        when(mockedAdminRestClient.get(path)).thenThrow(new InternalAdminRestClientException(new IOException("Connection reset")))
+                .thenReturn("{\"state\":\"approved\"}");
+
+        Session session = waiter.await(domainId, sessionId, 5, TimeUnit.SECONDS).get();
+
+        assertEquals(Session.State.APPROVED, session.getState());
+        assertEquals(2, waiter.getTotalPolls());
+    }
+
+    /**
+     * A poll the API rejects fails the wait at once.
+     *
+     * @throws AdminRestClientException If the admin client encounters an error.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    @Test
+    public void testAwaitFailsOnApiError() throws AdminRestClientException, InterruptedException {
+        String body = "{\"errors\":[{\"code\":\"api.error.notfound.session\",\"message\":\"No session\"}]}";
+        when(mockedAdminRestClient.get(path)).thenThrow(new RestAdminRestClientException(404, body));
+
+        try {
+            waiter.await(domainId, sessionId, 5, TimeUnit.SECONDS).get();
+            fail("Expected ApiLoginTCException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ApiLoginTCException);
+            assertEquals(1, waiter.getTotalPolls());
+        }
+    }
+
+    /**
+     * @throws AdminRestClientException If the admin client encounters an error.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    @Test
+    public void testAwaitTimeout() throws AdminRestClientException, InterruptedException {
+        when(mockedAdminRestClient.get(path)).thenReturn("{\"state\":\"pending\"}");
+
+        try {
+            waiter.await(domainId, sessionId, 50, TimeUnit.MILLISECONDS).get();
+            fail("Expected TimeoutException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+    }
+
+    /**
+     * A domain without a request timeout is waited on for the polling policy's default timeout.
+     *
+     * @throws AdminRestClientException If the admin client encounters an error.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    @Test
+    public void testAwaitDomainWithoutTimeout() throws AdminRestClientException, InterruptedException {
+        when(mockedAdminRestClient.get(path)).thenReturn("{\"state\":\"pending\"}");
+        waiter.setPollingPolicy(domainId, new PollingPolicy(10, 1, 10, 0, 50, TimeUnit.MILLISECONDS));
+
+        Domain domain = new Domain(domainId, "Cisco ASA", "RADIUS", "PIN", 5, null, 365, true, true);
+
+        try {
+            waiter.await(domain, sessionId).get();
+            fail("Expected TimeoutException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+    }
+
+    /**
+     * @throws AdminRestClientException If the admin client encounters an error.
+     * @throws Exception If the future fails.
+     */
+    @Test
+    public void testListenerReportsPolls() throws AdminRestClientException, Exception {
+        final AtomicInteger reportedPolls = new AtomicInteger();
+        final CountDownLatch reported = new CountDownLatch(1);
+
+        waiter.setPollingPolicy(domainId, new PollingPolicy(1, 2, 20, 0.5, TimeUnit.MILLISECONDS));
+        waiter.setListener(new SessionWaiter.Listener() {
+            @Override
+            public void onComplete(String domainId, String sessionId, Session.State state, int polls, long elapsed) {
+                assertEquals(Session.State.DENIED, state);
+                reportedPolls.set(polls);
+                reported.countDown();
+            }
+        });
+
+        when(mockedAdminRestClient.get(path)).thenReturn("{\"state\":\"pending\"}", "{\"state\":\"pending\"}",
+                "{\"state\":\"denied\"}");
+
+        Domain domain = new Domain(domainId, "Cisco ASA", "RADIUS", "PIN", 5, 120, 365, true, true);
+        Session session = waiter.await(domain, sessionId).get();
+
+        assertEquals(Session.State.DENIED, session.getState());
+        assertTrue(reported.await(5, TimeUnit.SECONDS));
+        assertEquals(3, reportedPolls.get());
+        assertEquals(3, waiter.getTotalPolls());
+    }
+}
@@ -0,0 +1,170 @@
+package com.cyphercor.logintc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.cyphercor.logintc.AdminRestClient.AdminRestClientException;
+import com.cyphercor.logintc.AdminRestClient.RestAdminRestClientException;
+
+/**
+ * Tests for request coalescing.
+ */
+public class SingleFlightTest {
+
+    /**
+     * @throws Exception If a call fails or the wait is interrupted.
+     */
+    @Test
+    public void testConcurrentCallsShareResult() throws Exception {
+        final SingleFlight<Object> singleFlight = new SingleFlight<Object>();
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        final SingleFlight.Call<Object> call = new SingleFlight.Call<Object>() {
+            @Override
+            public Object call() throws AdminRestClientException {
+                calls.incrementAndGet();
+                entered.countDown();
+
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new AdminRestClientException(e);
+                }
+
+                return new Object();
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        try {
+            Future<Object> leader = executor.submit(new Callable<Object>() {
+                @Override
+                public Object call() throws AdminRestClientException {
+                    return singleFlight.execute("key", call);
+                }
+            });
+            entered.await(5, TimeUnit.SECONDS);
+
+            Future<Object> follower = executor.submit(new Callable<Object>() {
+                @Override
+                public Object call() throws AdminRestClientException {
+                    return singleFlight.execute("key", call);
+                }
+            });
+
+            for (int i = 0; i < 500 && singleFlight.getCoalescedCount() == 0; i++) {
+                Thread.sleep(10);
+            }
+
+            release.countDown();
+
+            assertSame(leader.get(5, TimeUnit.SECONDS), follower.get(5, TimeUnit.SECONDS));
+            assertEquals(1, calls.get());
+            assertEquals(1, singleFlight.getCoalescedCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @throws Exception If the wait is interrupted.
+     */
+    @Test
+    public void testSharedFailureIsCopiedPerCaller() throws Exception {
+        final SingleFlight<Object> singleFlight = new SingleFlight<Object>();
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final SingleFlight.Call<Object> call = new SingleFlight.Call<Object>() {
+            @Override
+            public Object call() throws AdminRestClientException {
+                entered.countDown();
+
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new AdminRestClientException(e);
+                }
+
+                throw new RestAdminRestClientException(503, "Unavailable", "5");
+            }
+        };
+        Callable<Object> caller = new Callable<Object>() {
+            @Override
+            public Object call() throws AdminRestClientException {
+                return singleFlight.execute("key", call);
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        try {
+            Future<Object> leader = executor.submit(caller);
+            entered.await(5, TimeUnit.SECONDS);
+
+            Future<Object> follower = executor.submit(caller);
+
+            for (int i = 0; i < 500 && singleFlight.getCoalescedCount() == 0; i++) {
+                Thread.sleep(10);
+            }
+
+            release.countDown();
+
+            RestAdminRestClientException leaderError = failure(leader);
+            RestAdminRestClientException followerError = failure(follower);
+
+            assertNotSame(leaderError, followerError);
+            assertEquals(503, followerError.getStatusCode().intValue());
+            assertEquals("Unavailable", followerError.getBody());
+            assertEquals("5", followerError.getRetryAfter());
+            assertEquals(1, singleFlight.getCoalescedCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @throws AdminRestClientException If a call fails.
+     */
+    @Test
+    public void testSequentialCallsAreNotShared() throws AdminRestClientException {
+        SingleFlight<Object> singleFlight = new SingleFlight<Object>();
+        SingleFlight.Call<Object> call = new SingleFlight.Call<Object>() {
+            @Override
+            public Object call() {
+                return new Object();
+            }
+        };
+
+        Object first = singleFlight.execute("key", call);
+        Object second = singleFlight.execute("key", call);
+
+        assertNotSame(first, second);
+        assertEquals(0, singleFlight.getCoalescedCount());
+    }
+
+    private static RestAdminRestClientException failure(Future<Object> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            return (RestAdminRestClientException) e.getCause();
+        }
+
+        fail("Expected the call to fail");
+        return null;
+    }
+}
@@ -0,0 +1,81 @@
+package com.cyphercor.logintc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.cyphercor.logintc.resource.User;
+
+/**
+ * Tests for the user cache.
+ */
+public class UserCacheTest {
+
+    private User createUser(String id, String username) {
+        return new User(id, username, username + "@cyphercor.com", username, Arrays.asList("domain"), new ArrayList<String>(), "");
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        UserCache cache = new UserCache(2, 1, TimeUnit.MINUTES);
+
+        cache.put(createUser("1", "one"), cache.getGeneration());
+        cache.put(createUser("2", "two"), cache.getGeneration());
+        assertNotNull(cache.get("1"));
+        cache.put(createUser("3", "three"), cache.getGeneration());
+
+        assertEquals(2, cache.size());
+        assertNull(cache.get("2"));
+        assertNull(cache.getByUsername("two"));
+        assertEquals("1", cache.getByUsername("one").getId());
+    }
+
+    /**
+     * @throws InterruptedException If interrupted while waiting for expiry.
+     */
+    @Test
+    public void testExpires() throws InterruptedException {
+        UserCache cache = new UserCache(10, 10, TimeUnit.MILLISECONDS);
+
+        cache.put(createUser("1", "one"), cache.getGeneration());
+        Thread.sleep(20);
+
+        assertNull(cache.get("1"));
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void testStaleFetchIsNotCached() {
+        UserCache cache = new UserCache(10, 1, TimeUnit.MINUTES);
+
+        long generation = cache.getGeneration();
+        cache.invalidate("1");
+        cache.put(createUser("1", "one"), generation);
+
+        assertNull(cache.get("1"));
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void testReturnsCopies() {
+        UserCache cache = new UserCache(10, 1, TimeUnit.MINUTES);
+
+        cache.put(createUser("1", "one"), cache.getGeneration());
+        cache.get("1").setName("changed");
+
+        assertEquals("one", cache.get("1").getName());
+    }
+}